@@ -17,14 +17,18 @@ package de.codesourcery.j2048;
 
 import java.awt.Component;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -35,85 +39,680 @@ import java.util.concurrent.atomic.AtomicLong;
  *
  * @author tobias.gierke@code-sourcery.de
  */
-public final class AIPlayer implements IInputProvider {
+public final class AIPlayer implements IInputProvider, AutoCloseable {
 
-	private static final boolean BENCHMARK = false;
-	
 	private static final int MAX_DEPTH = 6;
+
+	/*
+	 * Once MAX_DEPTH has been reached, the search continues until either MAX_POSITIONS
+	 * leaf nodes have been evaluated or MAX_EXTENSION additional plies have been searched.
+	 */
+	private static final int MAX_EXTENSION = 10;
+	private static final long MAX_POSITIONS = 2000000;
+
+	// log2 of the number of transposition table entries (16 bytes each)
+	private static final int TT_SIZE_LOG2 = 18;
+
+	// max. depth of hint searches, limited by the size of the per-ply arrays
+	private static final int MAX_HINT_DEPTH = MAX_DEPTH + MAX_EXTENSION;
+
+	// enforces the time budget of hint searches
+	private static final ScheduledThreadPoolExecutor HINT_TIMER = createHintTimer();
+
+	// min. remaining depth for using the transposition table
+	private static final int MIN_TT_DEPTH = 1;
 	
-	private final Map<Integer,Integer> scores = new HashMap<>();
+	private final GameStatistics statistics = GameStatistics.getDefault();
+
+	// number of moves made in the current game
+	private int moves;
 	
 	protected static enum Player { AI , RND };
 
 	private final ThreadPoolExecutor executor;
+
+	private final SurvivalTablebase tablebase = SurvivalTablebase.getDefault();
+
+	// results of packed board searches, kept across moves
+	private final TranspositionTable transpositions;
 	
-	protected volatile long positions = 0;
+	private final SearchMetrics metrics;
+	// whether the metrics got registered by this instance
+	private final boolean ownsMetrics;
+
+	private volatile boolean pondering;
+
+	private final Object PONDER_LOCK = new Object();
+
+	// @GuardedBy( PONDER_LOCK )
+	private final List<Ponder> ponders = new ArrayList<>();
+	// @GuardedBy( PONDER_LOCK )
+	private SearchJob ponderJob;
 	
 	protected final class CalcTask implements Runnable {
 
-		private final DynamicLatch latch;
+		private final SearchJob job;
 		private final BoardState state;
+		private final long packedState;
+		private final WidePackedBoard wideState;
 		public final Action action;
+		public final SearchContext ctx;
 		public float score;
 
-		public CalcTask(Action action,BoardState state,DynamicLatch latch) {
+		public CalcTask(Action action,BoardState state,SearchJob job) {
 			this.action = action;
-			this.latch = latch;
+			this.job = job;
+			this.ctx = new SearchContext( job );
 			this.state = state;
-			latch.addThread();
+			this.packedState = 0;
+			this.wideState = null;
+		}
+
+		public CalcTask(Action action,long packedState,SearchJob job) {
+			this.action = action;
+			this.job = job;
+			this.ctx = new SearchContext( job );
+			this.state = null;
+			this.packedState = packedState;
+			this.wideState = null;
+		}
+
+		public CalcTask(Action action,WidePackedBoard wideState,SearchJob job) {
+			this.action = action;
+			this.job = job;
+			this.ctx = new SearchContext( job );
+			this.state = null;
+			this.packedState = 0;
+			this.wideState = wideState;
 		}
 
 		@Override
 		public void run() {
+			final long start = System.nanoTime();
 			try {
-				score = alphaBeta( state , MAX_DEPTH , Integer.MIN_VALUE , Integer.MAX_VALUE , Player.RND );
+				if ( job.isCancelled() ) {
+					return;
+				}
+				if ( wideState != null ) 
+				{
+					// one scratch board per ply so the search does not allocate
+					final WidePackedBoard[] stack = new WidePackedBoard[ MAX_DEPTH + MAX_EXTENSION + 2 ];
+					for ( int i = 0 ; i < stack.length ; i++ ) {
+						stack[i] = new WidePackedBoard( wideState.getColumnCount() , wideState.getRowCount() );
+					}
+					stack[0].copyFrom( wideState );
+					score = alphaBeta( stack , 0 , ctx.rootDepth , Integer.MIN_VALUE , Integer.MAX_VALUE , Player.RND , ctx );
+				} 
+				else if ( state == null ) {
+					score = alphaBeta( packedState , ctx.rootDepth , Integer.MIN_VALUE , Integer.MAX_VALUE , Player.RND , ctx );
+				} 
+				else 
+				{
+					final BoardState[] stack = new BoardState[ MAX_DEPTH + MAX_EXTENSION + 2 ];
+					for ( int i = 0 ; i < stack.length ; i++ ) {
+						stack[i] = new BoardState( state.getColumnCount() , state.getRowCount() );
+					}
+					stack[0].copyFrom( state );
+					score = alphaBeta( stack , 0 , ctx.rootDepth , Integer.MIN_VALUE , Integer.MAX_VALUE , Player.RND , ctx );
+				}
 //				score = miniMax( state , MAX_DEPTH , Player.RND );
 			} finally {
-				latch.countDown();
+				ctx.flush();
+				ctx.counters.busyNanos = System.nanoTime() - start;
+				ctx.counters.thread = Thread.currentThread().getName();
+				job.taskFinished();
 			}
 		}
 	}	
 
-	protected static final class DynamicLatch {
+	/*
+	 * Move ordering state of a single search, used to search the
+	 * moves most likely to cause a cutoff first. Not thread-safe.
+	 * 
+	 * Best moves found by previous searches are kept in the transposition table.
+	 */
+	protected static final class MoveOrdering 
+	{
+		private static final int NO_MOVE = TranspositionTable.NO_MOVE;
+
+		// per ply: direction that caused the last cutoff
+		private final int[] killers = new int[ MAX_DEPTH + MAX_EXTENSION + 2 ];
+
+		// per direction: accumulated weight of cutoffs
+		private final int[] history = new int[ BoardState.TILT_ACTIONS.length ];
+
+		// per ply: ordered directions and spawns
+		private final int[][] moves = new int[ MAX_DEPTH + MAX_EXTENSION + 2 ][ BoardState.TILT_ACTIONS.length ];
+		private final int[][] spawns = new int[ MAX_DEPTH + MAX_EXTENSION + 2 ][ 2 * BoardState.MAX_GRID_SIZE * BoardState.MAX_GRID_SIZE ];
+
+		public MoveOrdering() {
+			Arrays.fill( killers , NO_MOVE );
+		}
+
+		/**
+		 * Records a move that caused a beta cutoff.
+		 */
+		public void cutoff(int ply,int direction,int currentDepth) 
+		{
+			killers[ply] = direction;
+			final int depth = Math.max( 1 , currentDepth );
+			if ( ( history[direction] += depth*depth ) > (1<<24) ) 
+			{
+				for ( int i = 0 ; i < history.length ; i++ ) {
+					history[i] >>= 1;
+				}
+			}
+		}
+
+		/**
+		 * Orders legal moves: best move from the transposition table first, then the killer move for this ply and 
+		 * finally all other moves by their history score. 
+		 * 
+		 * @return number of moves written to {@link #getMoves(int)}
+		 */
+		public int orderMoves(int ply,int legalMoves,int bestMove) 
+		{
+			final int[] result = moves[ply];
+			int count = 0;
+			if ( bestMove != NO_MOVE && ( legalMoves & (1<<bestMove) ) != 0 ) 
+			{
+				result[count++] = bestMove;
+				legalMoves &= ~(1<<bestMove);
+			}
+			final int killer = killers[ply];
+			if ( killer != NO_MOVE && ( legalMoves & (1<<killer) ) != 0 ) 
+			{
+				result[count++] = killer;
+				legalMoves &= ~(1<<killer);
+			}
+			final int start = count;
+			for ( int dir = 0 ; dir < BoardState.TILT_ACTIONS.length ; dir++ ) 
+			{
+				if ( ( legalMoves & (1<<dir) ) == 0 ) {
+					continue;
+				}
+				int i = count++;
+				for ( ; i > start && history[ result[i-1] ] < history[dir] ; i-- ) {
+					result[i] = result[i-1];
+				}
+				result[i] = dir;
+			}
+			return count;
+		}
+
+		public int[] getMoves(int ply) {
+			return moves[ply];
+		}
+
+		public int[] getSpawns(int ply) {
+			return spawns[ply];
+		}
 
-		private int counter = 0;
+		/*
+		 * Spawns are encoded as (merge partners << 8 | (value == 2 ? 0 : 1) << 7 | cell index) and
+		 * searched in ascending order: Tiles that cannot merge with any neighbor are the most
+		 * threatening ones, 4s are worse than 2s.
+		 */
+		public static int getSpawnCell(int spawn) {
+			return spawn & 0x7f;
+		}
 
-		private final Object LOCK = new Object();
+		public static int getSpawnValue(int spawn) {
+			return ( spawn & 0x80 ) == 0 ? 2 : 1;
+		}
 
-		public void countDown() 
+		private static void addSpawns(int[] result,int count,int cell,int left,int right,int below,int above) 
 		{
-			synchronized( LOCK ) {
-				counter--;
-				LOCK.notifyAll();
+			for ( int value = 1 ; value <= 2 ; value++ ) 
+			{
+				final int partners = ( left == value ? 1 : 0 ) + ( right == value ? 1 : 0 ) + ( below == value ? 1 : 0 ) + ( above == value ? 1 : 0 );
+				final int spawn = partners << 8 | ( value == 2 ? 0 : 0x80 ) | cell;
+				int i = count++;
+				for ( ; i > 0 && result[i-1] > spawn ; i-- ) {
+					result[i] = result[i-1];
+				}
+				result[i] = spawn;
 			}
 		}
 
-		public void addThread() 
+		/**
+		 * @return number of spawns written to {@link #getSpawns(int)}
+		 */
+		public int orderSpawns(int ply,long board) 
 		{
-			synchronized( LOCK ) {
-				counter++;
+			final int[] result = spawns[ply];
+			int count = 0;
+			for ( int y = 0 ; y < PackedBoard.ROWS ; y++ ) 
+			{
+				for ( int x = 0 ; x < PackedBoard.COLS ; x++ ) 
+				{
+					if ( PackedBoard.getTile( board , x , y ) == BoardState.EMPTY_TILE ) 
+					{
+						addSpawns( result , count , x + y*PackedBoard.COLS ,
+								x > 0 ? PackedBoard.getTile( board , x-1 , y ) : BoardState.EMPTY_TILE ,
+								x < PackedBoard.COLS-1 ? PackedBoard.getTile( board , x+1 , y ) : BoardState.EMPTY_TILE ,
+								y > 0 ? PackedBoard.getTile( board , x , y-1 ) : BoardState.EMPTY_TILE ,
+								y < PackedBoard.ROWS-1 ? PackedBoard.getTile( board , x , y+1 ) : BoardState.EMPTY_TILE );
+						count += 2;
+					}
+				}
 			}
+			return count;
 		}
 
-		public void await() 
+		/**
+		 * @return number of spawns written to {@link #getSpawns(int)}
+		 */
+		public int orderSpawns(int ply,WidePackedBoard board) 
 		{
-			synchronized( LOCK ) 
+			final int[] result = spawns[ply];
+			final int cols = board.getColumnCount();
+			final int rows = board.getRowCount();
+			int count = 0;
+			for ( int y = 0 ; y < rows ; y++ ) 
 			{
-				while ( counter > 0 ) 
+				for ( int x = 0 ; x < cols ; x++ ) 
 				{
-					try {
-						LOCK.wait();
-					} 
-					catch (InterruptedException e) 
+					if ( board.getTile( x , y ) == BoardState.EMPTY_TILE ) 
 					{
-						e.printStackTrace();
-						Thread.currentThread().interrupt();
+						addSpawns( result , count , x + y*cols ,
+								x > 0 ? board.getTile( x-1 , y ) : BoardState.EMPTY_TILE ,
+								x < cols-1 ? board.getTile( x+1 , y ) : BoardState.EMPTY_TILE ,
+								y > 0 ? board.getTile( x , y-1 ) : BoardState.EMPTY_TILE ,
+								y < rows-1 ? board.getTile( x , y+1 ) : BoardState.EMPTY_TILE );
+						count += 2;
+					}
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * @return number of spawns written to {@link #getSpawns(int)}
+		 */
+		public int orderSpawns(int ply,BoardState board) 
+		{
+			final int[] result = spawns[ply];
+			final int cols = board.getColumnCount();
+			final int rows = board.getRowCount();
+			int count = 0;
+			for ( int y = 0 ; y < rows ; y++ ) 
+			{
+				for ( int x = 0 ; x < cols ; x++ ) 
+				{
+					if ( board.isEmpty( x , y ) ) 
+					{
+						addSpawns( result , count , x + y*cols ,
+								x > 0 ? board.getTile( x-1 , y ) : BoardState.EMPTY_TILE ,
+								x < cols-1 ? board.getTile( x+1 , y ) : BoardState.EMPTY_TILE ,
+								y > 0 ? board.getTile( x , y-1 ) : BoardState.EMPTY_TILE ,
+								y < rows-1 ? board.getTile( x , y+1 ) : BoardState.EMPTY_TILE );
+						count += 2;
+					}
+				}
+			}
+			return count;
+		}
+	}
+
+	/*
+	 * Per-task search state. Not thread-safe.
+	 */
+	protected static final class SearchContext 
+	{
+		// evaluated positions are published in batches to not contend on the shared counter
+		private static final int FLUSH_INTERVAL = 1024;
+
+		public final MoveOrdering ordering = new MoveOrdering();
+		public final SearchMetrics.Counters counters = new SearchMetrics.Counters();
+
+		private final SearchJob job;
+		private int unflushed;
+
+		public final int rootDepth;
+		public final int maxExtension;
+
+		// set once the job got cancelled, makes the search return as fast as possible
+		public boolean aborted;
+
+		public SearchContext(SearchJob job) 
+		{
+			this.job = job;
+			this.rootDepth = job.depth;
+			this.maxExtension = job.maxExtension;
+		}
+
+		public void evaluated() 
+		{
+			if ( ++unflushed >= FLUSH_INTERVAL ) {
+				flush();
+			}
+		}
+
+		public void flush() 
+		{
+			job.positions.addAndGet( unflushed );
+			unflushed = 0;
+			aborted = job.isCancelled();
+		}
+
+		public long getPositions() {
+			return job.positions.get() + unflushed;
+		}
+	}
+
+	/*
+	 * Search tasks for a single move. The result gets completed by whichever task finishes last.
+	 * 
+	 * Speculative (pondering) jobs only get recorded as a move once they have been adopted.
+	 */
+	protected final class SearchJob 
+	{
+		public final CompletableFuture<Action> result = new CompletableFuture<>();
+
+		// number of positions evaluated, updated in batches by the search tasks
+		public final AtomicLong positions = new AtomicLong();
+
+		private final List<CalcTask> tasks = new ArrayList<>();
+		private final AtomicInteger pending = new AtomicInteger();
+		private final long startTime = System.nanoTime();
+		private final int depth;
+		private final int maxExtension;
+
+		// @GuardedBy( this )
+		private boolean speculative;
+		private long requestTime = startTime;
+		private long finishTime;
+		private Action bestAction;
+		private Object event;
+
+		public SearchJob(boolean speculative) 
+		{
+			this( speculative , MAX_DEPTH , MAX_EXTENSION );
+		}
+
+		public SearchJob(boolean speculative,int depth,int maxExtension) 
+		{
+			this.speculative = speculative;
+			this.depth = depth;
+			this.maxExtension = maxExtension;
+			this.event = speculative ? null : FlightRecorderEvents.beginMove();
+		}
+
+		/**
+		 * Returns the scores of all legal moves, indexed like {@link BoardState#TILT_ACTIONS}, 
+		 * only valid once the job completed normally.
+		 */
+		public float[] getScores() 
+		{
+			final float[] result = new float[ BoardState.TILT_ACTIONS.length ];
+			Arrays.fill( result , Float.NaN );
+			for ( CalcTask task : tasks ) {
+				result[ Arrays.asList( BoardState.TILT_ACTIONS ).indexOf( task.action ) ] = task.score;
+			}
+			return result;
+		}
+
+		public void add(CalcTask task) 
+		{
+			tasks.add( task );
+			pending.incrementAndGet();
+		}
+
+		public boolean isCancelled() {
+			return result.isDone();
+		}
+
+		public void start() 
+		{
+			if ( tasks.isEmpty() ) {
+				finish();
+			} else {
+				tasks.forEach( executor::submit );
+			}
+		}
+
+		public void taskFinished() 
+		{
+			if ( pending.decrementAndGet() == 0 ) {
+				finish();
+			}
+		}
+
+		/**
+		 * Turns a speculative job into the search for the current move.
+		 */
+		public synchronized void adopt() 
+		{
+			speculative = false;
+			requestTime = System.nanoTime();
+			event = FlightRecorderEvents.beginMove();
+			if ( finishTime != 0 ) {
+				record();
+			}
+		}
+
+		private void finish() 
+		{
+			if ( result.isDone() ) {
+				return;
+			}
+			IInputProvider.Action bestAction = Action.NONE;
+			float bestScore = 0;
+			for ( CalcTask task : tasks ) 
+			{
+				if ( bestAction == Action.NONE || task.score > bestScore ) 
+				{
+					bestAction = task.action;
+					bestScore= task.score;
+				}
+			}
+			synchronized( this ) 
+			{
+				this.finishTime = System.nanoTime();
+				this.bestAction = bestAction;
+				if ( ! speculative ) {
+					record();
+				}
+			}
+			result.complete( bestAction );
+		}
+
+		// @GuardedBy( this )
+		private void record() 
+		{
+			final List<SearchMetrics.Counters> counters = new ArrayList<>( tasks.size() );
+			tasks.forEach( task -> counters.add( task.ctx.counters ) );
+			metrics.record( finishTime - startTime , executor.getMaximumPoolSize() , counters );
+			// latency as perceived by the caller
+			statistics.recordMoveLatency( Math.max( 0 , finishTime - requestTime ) );
+			if ( event != null ) 
+			{
+				// metrics may be shared with other players, use this move's counters
+				long nodes = 0;
+				int depth = 0;
+				for ( SearchMetrics.Counters c : counters ) 
+				{
+					nodes += c.nodes;
+					depth = Math.max( depth , c.maxPly );
+				}
+				FlightRecorderEvents.endMove( event , depth , nodes , bestAction );
+			}
+		}
+	}
+
+	/*
+	 * Iterative deepening search of a single position that runs until either its time budget is used up 
+	 * or the max. depth has been searched. Each iteration is a fixed-depth search without extensions, so 
+	 * short budgets still yield a result.
+	 */
+	private final class HintSearch 
+	{
+		public final CompletableFuture<Hint> result = new CompletableFuture<>();
+
+		private final BoardState state;
+
+		// @GuardedBy( this )
+		private SearchJob job;
+		private Hint best = Hint.NONE;
+
+		public HintSearch(BoardState state) {
+			this.state = state;
+		}
+
+		public void searchNextDepth() 
+		{
+			final int depth;
+			synchronized( this ) 
+			{
+				if ( result.isDone() ) {
+					return;
+				}
+				depth = best.getDepth() + 1;
+				if ( depth > MAX_HINT_DEPTH ) {
+					result.complete( best );
+					return;
+				}
+			}
+			// set up tasks without holding the lock so stop() never waits for us 
+			final SearchJob current = new SearchJob( true , depth , 0 );
+			createTasks( state , current );
+			synchronized( this ) 
+			{
+				if ( result.isDone() ) {
+					return;
+				}
+				job = current;
+			}
+			current.result.whenComplete( (action,error) -> 
+			{
+				if ( error == null ) 
+				{
+					synchronized( this ) {
+						best = new Hint( current.getScores() , depth );
 					}
+					searchNextDepth();
 				}
+			});
+			current.start();
+		}
+
+		public synchronized void stop() 
+		{
+			result.complete( best );
+			if ( job != null ) {
+				job.result.cancel( true );
 			}
 		}
 	}
+
+	/*
+	 * Speculative search of a position that may be reached after the next spawn.
+	 */
+	private static final class Ponder 
+	{
+		public final BoardState position;
+
+		// null until started
+		public SearchJob job;
+
+		public Ponder(BoardState position) {
+			this.position = position;
+		}
+	}
+
 	public AIPlayer() 
+	{
+		this( createExecutor() );
+	}
+
+	/**
+	 * Create instance.
+	 * 
+	 * @param executor executor to run searches on, may be shared by multiple <code>AIPlayer</code> instances
+	 * @see #createExecutor()
+	 */
+	public AIPlayer(ThreadPoolExecutor executor) 
+	{
+		this( executor , createTranspositionTable() );
+	}
+
+	/**
+	 * Create instance.
+	 * 
+	 * @param executor executor to run searches on, may be shared by multiple <code>AIPlayer</code> instances
+	 * @param transpositions transposition table to use, may be shared by multiple <code>AIPlayer</code> instances
+	 * @see #createExecutor()
+	 * @see #createTranspositionTable()
+	 */
+	public AIPlayer(ThreadPoolExecutor executor,TranspositionTable transpositions) 
+	{
+		this( executor , transpositions , null );
+	}
+
+	/**
+	 * Create instance.
+	 * 
+	 * @param executor executor to run searches on, may be shared by multiple <code>AIPlayer</code> instances
+	 * @param transpositions transposition table to use, may be shared by multiple <code>AIPlayer</code> instances
+	 * @param metrics metrics to record search statistics in, may be shared by multiple <code>AIPlayer</code> instances. If <code>null</code>,
+	 * this player registers its own instance that gets unregistered by {@link #close()}.
+	 * @see #createExecutor()
+	 * @see #createTranspositionTable()
+	 * @see SearchMetrics#register()
+	 */
+	public AIPlayer(ThreadPoolExecutor executor,TranspositionTable transpositions,SearchMetrics metrics) 
+	{
+		if ( executor == null || transpositions == null ) {
+			throw new IllegalArgumentException("executor and transposition table must not be NULL");
+		}
+		this.executor = executor;
+		this.transpositions = transpositions;
+		this.ownsMetrics = metrics == null;
+		this.metrics = metrics == null ? SearchMetrics.register() : metrics;
+	}
+
+	/**
+	 * Stops pondering and unregisters the search metrics owned by this player.
+	 * 
+	 * <p>The executor and transposition table are left untouched as they may be shared.</p>
+	 */
+	@Override
+	public void close() 
+	{
+		setPondering( false );
+		if ( ownsMetrics ) {
+			metrics.unregister();
+		}
+	}
+
+	/**
+	 * Returns the search statistics of this player.
+	 * 
+	 * @return
+	 */
+	public SearchMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Creates a transposition table suitable for searches run by this class.
+	 * 
+	 * <p>Each table takes up several megabytes of memory, applications running many players
+	 * at once should share a single table between them.</p>
+	 * 
+	 * @return
+	 */
+	public static TranspositionTable createTranspositionTable() {
+		return new TranspositionTable( TT_SIZE_LOG2 );
+	}
+
+	/**
+	 * Creates the thread pool used for running searches.
+	 * 
+	 * @return
+	 */
+	public static ThreadPoolExecutor createExecutor() 
 	{
 		final int threads = 1+Runtime.getRuntime().availableProcessors();
 		final ArrayBlockingQueue<Runnable> workQueue = new ArrayBlockingQueue<Runnable>(300);
@@ -130,103 +729,306 @@ public final class AIPlayer implements IInputProvider {
 				return t;
 			}
 		};
-		executor = new ThreadPoolExecutor(threads,threads,60,TimeUnit.SECONDS,
+		return new ThreadPoolExecutor(threads,threads,60,TimeUnit.SECONDS,
 				workQueue, threadFactory , new ThreadPoolExecutor.CallerRunsPolicy() );
 	}
 
 	@Override
 	public Action getAction(BoardState state) 
+	{
+		return getActionAsync( state ).join();
+	}
+
+	/**
+	 * Starts searching for the best action.
+	 *
+	 * <p>The board state is only read before this method returns, cancelling the returned future
+	 * stops the search.</p>
+	 */
+	@Override
+	public CompletableFuture<Action> getActionAsync(BoardState state) 
 	{
 		if ( state.isGameOver() ) 
 		{
-			final int highestTileValue = state.getHighestTileValue();
-			Integer existing = scores.get( highestTileValue );
-			if ( existing == null ) {
-				existing = 1;
-			} else {
-				existing = existing+1;
-			}
-			scores.put( highestTileValue , existing );
-			final int gameCount = scores.values().stream().mapToInt( Integer::intValue ).sum();
-			System.out.println("=========== Game "+gameCount+" =========");
-			scores.forEach( (value,count) -> 
+			statistics.recordGame( state.getHighestTileValue() , state.getScore() , moves );
+			moves = 0;
+			return CompletableFuture.completedFuture( Action.RESTART );
+		}
+		moves++;
+		final BoardState copy = pondering ? state.createCopy() : null;
+
+		SearchJob job = adoptPonder( state );
+		if ( job == null ) 
+		{
+			transpositions.nextGeneration();
+			job = new SearchJob( false );
+			createTasks( state , job );
+			job.start();
+		}
+		if ( copy != null ) 
+		{
+			job.result.thenAccept( action -> 
 			{
-				float percentage = 100.0f*(count/(float) gameCount);
-				System.out.println( value+": "+percentage+" % ("+count+" of out "+gameCount+")");
+				if ( action != Action.NONE && copy.tilt( action ) ) {
+					ponder( copy );
+				}
 			});
-			return Action.RESTART;
 		}
-		positions = 0;
-		long time;
-		if ( BENCHMARK ) {
-			time = -System.currentTimeMillis();
-		}
-		Action result = doGetAction(state);
-		if ( BENCHMARK ) {
-			time += System.currentTimeMillis();
-			float seconds = time/1000f;
-			System.out.println("time: "+time+" ms , "+positions+" positions (="+(positions/seconds)+" positions/s))");
+		return job.result;
+	}
+
+	/**
+	 * Searches a position for a limited amount of time.
+	 * 
+	 * <p>The result gets completed with the results of the deepest search that completed within the time budget (or {@link Hint#NONE}), 
+	 * cancelling it stops the search. The board state is only read before this method returns.</p>
+	 * 
+	 * @param state
+	 * @param budgetMillis max. time to search
+	 * @return
+	 */
+	public CompletableFuture<Hint> getHintAsync(BoardState state,long budgetMillis) 
+	{
+		if ( state.getLegalMoves() == 0 ) {
+			return CompletableFuture.completedFuture( Hint.NONE );
 		}
+		final HintSearch search = new HintSearch( state.createCopy() );
+		final ScheduledFuture<?> timeout = HINT_TIMER.schedule( search::stop , budgetMillis , TimeUnit.MILLISECONDS );
+		search.result.whenComplete( (hint,error) -> 
+		{
+			timeout.cancel( false );
+			// also invoked when the caller cancelled the result
+			search.stop();
+		});
+		// don't make the caller pay for setting up the search
+		HINT_TIMER.execute( search::searchNextDepth );
+		return search.result;
+	}
+
+	private static ScheduledThreadPoolExecutor createHintTimer() 
+	{
+		final ScheduledThreadPoolExecutor result = new ScheduledThreadPoolExecutor( 1 , r -> 
+		{
+			final Thread t = new Thread(r);
+			t.setName("hint-timer");
+			t.setDaemon(true);
+			return t;
+		});
+		result.setRemoveOnCancelPolicy( true );
 		return result;
 	}
 
-	private Action doGetAction(BoardState state) 
+	/**
+	 * Enables or disables pondering.
+	 * 
+	 * <p>When enabled, the player uses idle time after each move to search
+	 * the positions that may result from the next random tile (see {@link #ponder(BoardState)}).</p>
+	 * 
+	 * @param pondering
+	 */
+	public void setPondering(boolean pondering) 
 	{
-		BoardState copy = state.createCopy();
+		this.pondering = pondering;
+		if ( ! pondering ) 
+		{
+			synchronized( PONDER_LOCK ) {
+				cancelPonders();
+			}
+		}
+	}
+
+	/**
+	 * Speculatively searches all positions that may be reached by placing a random tile on a board, 
+	 * so a subsequent {@link #getActionAsync(BoardState)} call for one of them can be answered right away.
+	 * 
+	 * <p>Positions are searched one after another (the likely ones with a 2 being placed first) until the next 
+	 * call to {@link #getActionAsync(BoardState)} or this method. Even if the actual position has not been searched yet, 
+	 * the search for it benefits from the results that pondering added to the transposition table.</p>
+	 * 
+	 * @param board board after a move but before a random tile got placed, not accessed after this method returns
+	 */
+	public void ponder(BoardState board) 
+	{
+		final List<Ponder> positions = new ArrayList<>();
+		for ( int value = 1 ; value <= 2 ; value++ ) 
+		{
+			for ( int y = 0 ; y < board.getRowCount() ; y++ ) 
+			{
+				for ( int x = 0 ; x < board.getColumnCount() ; x++ ) 
+				{
+					if ( board.isEmpty( x , y ) ) 
+					{
+						final BoardState position = board.createCopy();
+						position.setTileValue( x , y , value );
+						positions.add( new Ponder( position ) );
+					}
+				}
+			}
+		}
+		synchronized( PONDER_LOCK ) 
+		{
+			cancelPonders();
+			ponders.addAll( positions );
+			ponderNext();
+		}
+	}
+
+	// @GuardedBy( PONDER_LOCK )
+	private void cancelPonders() 
+	{
+		// clear first, cancelling invokes ponderNext()
+		final List<Ponder> cancelled = new ArrayList<>( ponders );
+		ponders.clear();
+		for ( Ponder ponder : cancelled ) 
+		{
+			if ( ponder.job != null ) {
+				ponder.job.result.cancel( true );
+			}
+		}
+	}
 
-		final DynamicLatch latch = new DynamicLatch();
-		final List<CalcTask> tasks = new ArrayList<>();
-		if ( copy.tiltDown() ) 
+	/*
+	 * Starts searching the next position unless a speculative search is still running.
+	 */
+	private void ponderNext() 
+	{
+		synchronized( PONDER_LOCK ) 
 		{
-			tasks.add( new CalcTask( Action.TILT_DOWN , copy , latch ) );
-			copy = state.createCopy();
+			if ( ponderJob != null && ! ponderJob.result.isDone() ) {
+				return;
+			}
+			ponderJob = null;
+			for ( Ponder ponder : ponders ) 
+			{
+				if ( ponder.job == null ) 
+				{
+					ponder.job = ponderJob = new SearchJob( true );
+					createTasks( ponder.position , ponderJob );
+					break;
+				}
+			}
+			if ( ponderJob != null ) 
+			{
+				ponderJob.result.whenComplete( (action,error) -> ponderNext() );
+				ponderJob.start();
+			}
 		}
-		if ( copy.tiltUp() ) {
-			tasks.add( new CalcTask( Action.TILT_UP , copy , latch ) );
-			copy = state.createCopy();
-		}	
-		if ( copy.tiltLeft() ) {
-			tasks.add( new CalcTask( Action.TILT_LEFT , copy , latch ) );
-			copy = state.createCopy();
-		}	
-		if ( copy.tiltRight() ) {
-			tasks.add( new CalcTask( Action.TILT_RIGHT, copy , latch ) );
-		}			
+	}
 
-		tasks.forEach( executor::submit );
+	/*
+	 * Returns the speculative search for a position (if any) and cancels all others.
+	 */
+	private SearchJob adoptPonder(BoardState state) 
+	{
+		SearchJob result = null;
+		final boolean pondered;
+		synchronized( PONDER_LOCK ) 
+		{
+			pondered = ! ponders.isEmpty();
+			for ( Iterator<Ponder> it = ponders.iterator() ; it.hasNext() ; ) 
+			{
+				final Ponder ponder = it.next();
+				if ( ponder.job != null && ! ponder.job.result.isCancelled() && ponder.position.hasSameTiles( state ) ) 
+				{
+					result = ponder.job;
+					it.remove();
+					break;
+				}
+			}
+			cancelPonders();
+		}
+		if ( pondered ) {
+			metrics.recordPonder( result != null );
+		}
+		if ( result != null ) {
+			result.adopt();
+		}
+		return result;
+	}
 
-		latch.await();
+	private void createTasks(BoardState state,SearchJob job) 
+	{
+		if ( PackedBoard.canPack( state ) ) 
+		{
+			final long packed = PackedBoard.pack( state );
+			long moved;
+			if ( ( moved = PackedBoard.tiltDown( packed ) ) != packed ) {
+				job.add( new CalcTask( Action.TILT_DOWN , moved , job ) );
+			}
+			if ( ( moved = PackedBoard.tiltUp( packed ) ) != packed ) {
+				job.add( new CalcTask( Action.TILT_UP , moved , job ) );
+			}
+			if ( ( moved = PackedBoard.tiltLeft( packed ) ) != packed ) {
+				job.add( new CalcTask( Action.TILT_LEFT , moved , job ) );
+			}
+			if ( ( moved = PackedBoard.tiltRight( packed ) ) != packed ) {
+				job.add( new CalcTask( Action.TILT_RIGHT , moved , job ) );
+			}
+			return;
+		}
 
-		IInputProvider.Action bestAction = Action.NONE;
-		float bestScore = 0;
-		for ( CalcTask task : tasks ) 
+		if ( WidePackedBoard.canPack( state ) ) 
 		{
-			if ( bestAction == Action.NONE || task.score > bestScore ) 
+			final WidePackedBoard packed = new WidePackedBoard( state.getColumnCount() , state.getRowCount() );
+			packed.load( state );
+			for ( Action action : BoardState.TILT_ACTIONS ) 
 			{
-				bestAction = task.action;
-				bestScore= task.score;
+				final WidePackedBoard copy = new WidePackedBoard( state.getColumnCount() , state.getRowCount() );
+				copy.copyFrom( packed );
+				if ( tilt( copy , action ) ) {
+					job.add( new CalcTask( action , copy , job ) );
+				}
+			}
+			return;
+		}
+
+		final BoardState[] results = new BoardState[ BoardState.TILT_ACTIONS.length ];
+		for ( int i = 0 ; i < results.length ; i++ ) {
+			results[i] = new BoardState( state.getColumnCount() , state.getRowCount() );
+		}
+		final int legalMoves = state.getLegalMoves( results );
+		for ( int i = 0 ; i < results.length ; i++ ) 
+		{
+			if ( ( legalMoves & (1<<i) ) != 0 ) {
+				job.add( new CalcTask( BoardState.TILT_ACTIONS[i] , results[i] , job ) );
 			}
 		}
-		return bestAction;
 	}
 
-	private int alphaBeta(BoardState state,int currentDepth,int alpha,int beta,Player player) 
+	private static boolean isSearchExhausted(int currentDepth,SearchContext ctx) {
+		return ctx.aborted || currentDepth <= 0 && ( currentDepth <= -ctx.maxExtension || ctx.getPositions() > MAX_POSITIONS );
+	}
+
+	/*
+	 * The board to evaluate is stack[ply] , stack[ply+1] is used as scratch space for child positions.
+	 */
+	private int alphaBeta(BoardState[] stack,int ply,int currentDepth,int alpha,int beta,Player player,SearchContext ctx) 
 	{	
-		if ( state.isGameOver() || ( currentDepth <= 0 && positions > 2000000 ) ) {
-			return calcScore( state );
+		final BoardState state = stack[ply];
+		ctx.counters.enter( ply );
+		if ( state.isGameOver() || isSearchExhausted( currentDepth , ctx ) ) {
+			return calcScore( state , ctx );
 		}
+		ctx.counters.expanded++;
 		
+		final BoardState m = stack[ply+1];
 		int bestValue; 
 		if ( player == Player.AI ) 
 		{
 			bestValue = Integer.MIN_VALUE;
-
-			final List<BoardState> moves = generatePlayerMoves( state );			
-			for (int i = 0 , len = moves.size() ; i < len; i++) {
-				final BoardState m = moves.get(i);
-				bestValue = Math.max( bestValue , alphaBeta( m , currentDepth - 1 , alpha , beta,  Player.RND ) );
+			final int count = ctx.ordering.orderMoves( ply , state.getLegalMoves() , MoveOrdering.NO_MOVE );
+			final int[] moves = ctx.ordering.getMoves( ply );
+			for ( int i = 0 ; i < count ; i++ ) 
+			{
+				final int dir = moves[i];
+				m.copyFrom( state );
+				m.tilt( BoardState.TILT_ACTIONS[dir] );
+				bestValue = Math.max( bestValue , alphaBeta( stack , ply+1 , currentDepth - 1 , alpha , beta,  Player.RND , ctx ) );
 				alpha = Math.max( alpha ,bestValue );
-				if ( beta <= alpha ) {
+				if ( beta <= alpha ) 
+				{
+					ctx.ordering.cutoff( ply , dir , currentDepth );
+					ctx.counters.cutoffs++;
 					break;
 				}
 			}
@@ -234,59 +1036,232 @@ public final class AIPlayer implements IInputProvider {
 		else 
 		{
 			bestValue = Integer.MAX_VALUE;
-			final List<BoardState> moves = generateRandomMoves( state );
-			for (int i = 0 , len = moves.size() ; i < len ; i++) {
-				final BoardState m = moves.get(i);
-				bestValue = Math.min(bestValue ,  alphaBeta( m , currentDepth - 1 , alpha , beta , Player.AI ) );
+			final int cols = state.getColumnCount();
+			final int count = ctx.ordering.orderSpawns( ply , state );
+			final int[] spawns = ctx.ordering.getSpawns( ply );
+			for ( int i = 0 ; i < count ; i++ ) 
+			{
+				final int cell = MoveOrdering.getSpawnCell( spawns[i] );
+				m.copyFrom( state );
+				m.setTileValue( cell % cols , cell / cols , MoveOrdering.getSpawnValue( spawns[i] ) );
+				bestValue = Math.min(bestValue ,  alphaBeta( stack , ply+1 , currentDepth - 1 , alpha , beta , Player.AI , ctx ) );
 				beta = Math.min(beta , bestValue );
-				if ( beta <= alpha ) {
+				if ( beta <= alpha ) 
+				{
+					ctx.counters.cutoffs++;
 					break;
 				}
 			}
 		}
 		return bestValue;		
+	}
+
+	private static long tilt(long board,int direction) 
+	{
+		switch( direction ) 
+		{
+			case 0:  return PackedBoard.tiltDown( board );
+			case 1:  return PackedBoard.tiltUp( board );
+			case 2:  return PackedBoard.tiltLeft( board );
+			default: return PackedBoard.tiltRight( board );
+		}
+	}
+
+	/*
+	 * Same as alphaBeta(BoardState[],...) but operating on a packed 4x4 board.
+	 */
+	private int alphaBeta(long state,int currentDepth,int alpha,int beta,Player player,SearchContext ctx) 
+	{	
+		final int ply = ctx.rootDepth - currentDepth;
+		ctx.counters.enter( ply );
+		final int legalMoves = PackedBoard.getLegalMoves( state );
+		if ( legalMoves == 0 || isSearchExhausted( currentDepth , ctx ) ) {
+			return calcScore( state , ctx );
+		}
+
+		if ( player == Player.RND && SurvivalTablebase.isApplicable( state ) ) 
+		{
+			// nearly full board, weigh by exact survival probability instead of searching deeper
+			final float survival = tablebase.getSurvivalProbability( state );
+			if ( survival < 1 ) {
+				return (int) ( calcScore( state , ctx ) * survival );
+			}
+		}
 		
+		final boolean aiToMove = player == Player.AI;
+		// near the leaves the table lookup costs more than it saves
+		final boolean useTable = currentDepth >= MIN_TT_DEPTH;
+		final long entry = useTable ? transpositions.probe( state , aiToMove ) : 0;
+		if ( useTable ) {
+			ctx.counters.tableProbes++;
+		}
+		if ( entry != 0 && TranspositionTable.getDepth( entry ) >= currentDepth ) 
+		{
+			// count as evaluated position so the search budget does not grow
+			ctx.evaluated();
+			ctx.counters.tableHits++;
+			final int value = TranspositionTable.getValue( entry );
+			switch( TranspositionTable.getBound( entry ) ) 
+			{
+				case TranspositionTable.EXACT: 
+					return value;
+				case TranspositionTable.LOWER_BOUND: 
+					alpha = Math.max( alpha , value ); 
+					break;
+				default:
+					beta = Math.min( beta , value );
+			}
+			if ( beta <= alpha ) {
+				return value;
+			}
+		}
+		final int alphaOrig = alpha;
+		final int betaOrig = beta;
+
+		ctx.counters.expanded++;
+		int bestValue; 
+		int bestMove = MoveOrdering.NO_MOVE;
+		if ( aiToMove ) 
+		{
+			bestValue = Integer.MIN_VALUE;
+			final int ttMove = entry != 0 ? TranspositionTable.getBestMove( entry ) : MoveOrdering.NO_MOVE;
+			final int count = ctx.ordering.orderMoves( ply , legalMoves , ttMove );
+			final int[] moves = ctx.ordering.getMoves( ply );
+			for ( int i = 0 ; i < count ; i++ ) 
+			{
+				final int dir = moves[i];
+				final int value = alphaBeta( tilt( state , dir ) , currentDepth - 1 , alpha , beta,  Player.RND , ctx );
+				if ( bestMove == MoveOrdering.NO_MOVE || value > bestValue ) 
+				{
+					bestValue = value;
+					bestMove = dir;
+				}
+				alpha = Math.max( alpha ,bestValue );
+				if ( beta <= alpha ) 
+				{
+					ctx.ordering.cutoff( ply , dir , currentDepth );
+					ctx.counters.cutoffs++;
+					break;
+				}
+			}
+		} 
+		else 
+		{
+			bestValue = Integer.MAX_VALUE;
+			final int count = ctx.ordering.orderSpawns( ply , state );
+			final int[] spawns = ctx.ordering.getSpawns( ply );
+			for ( int i = 0 ; i < count ; i++ ) 
+			{
+				final long m = PackedBoard.setTile( state , MoveOrdering.getSpawnCell( spawns[i] ) , MoveOrdering.getSpawnValue( spawns[i] ) );
+				bestValue = Math.min(bestValue ,  alphaBeta( m , currentDepth - 1 , alpha , beta , Player.AI , ctx ) );
+				beta = Math.min(beta , bestValue );
+				if ( beta <= alpha ) 
+				{
+					ctx.counters.cutoffs++;
+					break;
+				}
+			}
+		}
+
+		final int bound = bestValue <= alphaOrig ? TranspositionTable.UPPER_BOUND : bestValue >= betaOrig ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+		// results of an aborted search are meaningless
+		if ( useTable && ! ctx.aborted ) {
+			transpositions.store( state , aiToMove , bestValue , currentDepth , bound , bestMove );
+		}
+		return bestValue;		
 	}
 
-	private List<BoardState> generatePlayerMoves(BoardState state)
+	private static boolean tilt(WidePackedBoard board,Action action) 
 	{
-		final List<BoardState> moves = new ArrayList<>();
-		BoardState copy = state.createCopy();
-		if ( copy.tiltDown() ) {
-			moves.add( copy );
-			copy = state.createCopy();
-		}
-		if ( copy.tiltUp() ) {
-			moves.add( copy );
-			copy = state.createCopy();
-		}	
-		if ( copy.tiltLeft() ) 
-		{
-			moves.add( copy );
-			copy = state.createCopy();
-		}	
-		if ( copy.tiltRight() ) {
-			moves.add( copy );
-		}		
-		return moves;
-	}
-
-	private int calcScore(BoardState state) 
+		switch( action ) 
+		{
+			case TILT_DOWN:  return board.tiltDown();
+			case TILT_UP:    return board.tiltUp();
+			case TILT_LEFT:  return board.tiltLeft();
+			case TILT_RIGHT: return board.tiltRight();
+			default:
+				throw new IllegalArgumentException("Not a tilt: "+action);
+		}
+	}
+
+	/*
+	 * Same as alphaBeta(BoardState[],...) but operating on 5-bit packed boards.
+	 * 
+	 * The board to evaluate is stack[ply] , stack[ply+1] is used as scratch space for child positions.
+	 */
+	private int alphaBeta(WidePackedBoard[] stack,int ply,int currentDepth,int alpha,int beta,Player player,SearchContext ctx) 
+	{	
+		final WidePackedBoard state = stack[ply];
+		ctx.counters.enter( ply );
+		if ( state.isGameOver() || isSearchExhausted( currentDepth , ctx ) ) {
+			return calcScore( state , ctx );
+		}
+		ctx.counters.expanded++;
+		
+		final WidePackedBoard m = stack[ply+1];
+		int bestValue; 
+		if ( player == Player.AI ) 
+		{
+			bestValue = Integer.MIN_VALUE;
+			// legality is only known after tilting
+			final int count = ctx.ordering.orderMoves( ply , (1<<BoardState.TILT_ACTIONS.length)-1 , MoveOrdering.NO_MOVE );
+			final int[] moves = ctx.ordering.getMoves( ply );
+			for ( int i = 0 ; i < count ; i++ ) 
+			{
+				final int dir = moves[i];
+				m.copyFrom( state );
+				if ( ! tilt( m , BoardState.TILT_ACTIONS[dir] ) ) {
+					continue;
+				}
+				bestValue = Math.max( bestValue , alphaBeta( stack , ply+1 , currentDepth - 1 , alpha , beta,  Player.RND , ctx ) );
+				alpha = Math.max( alpha ,bestValue );
+				if ( beta <= alpha ) 
+				{
+					ctx.ordering.cutoff( ply , dir , currentDepth );
+					ctx.counters.cutoffs++;
+					break;
+				}
+			}
+		} 
+		else 
+		{
+			bestValue = Integer.MAX_VALUE;
+			final int count = ctx.ordering.orderSpawns( ply , state );
+			final int[] spawns = ctx.ordering.getSpawns( ply );
+			for ( int i = 0 ; i < count ; i++ ) 
+			{
+				m.copyFrom( state );
+				m.setTile( MoveOrdering.getSpawnCell( spawns[i] ) , MoveOrdering.getSpawnValue( spawns[i] ) );
+				bestValue = Math.min(bestValue ,  alphaBeta( stack , ply+1 , currentDepth - 1 , alpha , beta , Player.AI , ctx ) );
+				beta = Math.min(beta , bestValue );
+				if ( beta <= alpha ) 
+				{
+					ctx.counters.cutoffs++;
+					break;
+				}
+			}
+		}
+		return bestValue;		
+	}
+
+	private static int calcScore(BoardState state,SearchContext ctx) 
 	{
-		positions++;
+		ctx.evaluated();
 		
-		final int freeSlotCount = BoardState.GRID_COLS*BoardState.GRID_ROWS - state.getTileCount();
+		final int cols = state.getColumnCount();
+		final int rows = state.getRowCount();
+		final int freeSlotCount = cols*rows - state.getTileCount();
 		if ( state.isGameOver() ) {
 			return 0;
 		}
 		// calculate sum around edges
 		int score = 0;
-		for ( int y = 0 ; y < BoardState.GRID_ROWS ;y++) 
+		for ( int y = 0 ; y < rows ;y++) 
 		{
-			for ( int x = 0 ; x < BoardState.GRID_COLS ;x++) 
+			for ( int x = 0 ; x < cols ;x++) 
 			{
 				int tile = state.getTile(x, y);
-				if ( x == 0 || y == 0 || x == BoardState.GRID_COLS-1 || y == BoardState.GRID_ROWS-1 ) {
+				if ( x == 0 || y == 0 || x == cols-1 || y == rows-1 ) {
 					score += 8*(1<< (tile & ~0xffffffff));
 				} else {
 					score += (1<< (tile & ~0xffffffff));
@@ -297,26 +1272,58 @@ public final class AIPlayer implements IInputProvider {
 		return score * freeSlotCount;
 	}
 
-	private List<BoardState> generateRandomMoves(BoardState state)
+	private static int calcScore(long state,SearchContext ctx) 
 	{
-		final List<BoardState> moves = new ArrayList<>();
-		for ( int y = 0 ; y < BoardState.GRID_ROWS ;y++) 
+		ctx.evaluated();
+		
+		final int freeSlotCount = PackedBoard.countEmpty( state );
+		if ( PackedBoard.isGameOver( state ) ) {
+			return 0;
+		}
+		// calculate sum around edges
+		int score = 0;
+		for ( int y = 0 ; y < PackedBoard.ROWS ;y++) 
 		{
-			for ( int x = 0 ; x < BoardState.GRID_COLS ;x++) 
+			for ( int x = 0 ; x < PackedBoard.COLS ;x++) 
 			{
-				if ( state.isEmpty(x, y ) ) 
-				{
-					BoardState copy1 = state.createCopy();
-					copy1.setTileValue(x, y, 1); // set 2
-					moves.add( copy1 );
-					
-					copy1 = state.createCopy();
-					copy1.setTileValue(x, y, 2); // set 4
-					moves.add( copy1 );
+				int tile = PackedBoard.getTile(state, x, y);
+				if ( x == 0 || y == 0 || x == PackedBoard.COLS-1 || y == PackedBoard.ROWS-1 ) {
+					score += 8*(1<< (tile & ~0xffffffff));
+				} else {
+					score += (1<< (tile & ~0xffffffff));
+				}
+			}
+		}
+
+		return score * freeSlotCount;
+	}
+
+	private static int calcScore(WidePackedBoard state,SearchContext ctx) 
+	{
+		ctx.evaluated();
+		
+		final int freeSlotCount = state.countEmpty();
+		if ( state.isGameOver() ) {
+			return 0;
+		}
+		// calculate sum around edges
+		final int cols = state.getColumnCount();
+		final int rows = state.getRowCount();
+		int score = 0;
+		for ( int y = 0 ; y < rows ;y++) 
+		{
+			for ( int x = 0 ; x < cols ;x++) 
+			{
+				int tile = state.getTile(x, y);
+				if ( x == 0 || y == 0 || x == cols-1 || y == rows-1 ) {
+					score += 8*(1<< (tile & ~0xffffffff));
+				} else {
+					score += (1<< (tile & ~0xffffffff));
 				}
 			}
 		}
-		return moves;
+
+		return score * freeSlotCount;
 	}
 
 	@Override
@@ -343,7 +1350,7 @@ outer:
 					continue outer;
 				case RESTART:
 					final float elapsed = (System.currentTimeMillis() - time)/1000f;
-					System.out.println("Actions/s = "+actions/elapsed);
+					System.out.println("Actions/s = "+actions/elapsed+" , "+GameStatistics.getDefault().snapshot());
 					state.reset();
 					state.placeRandomTile(rnd);					
 					continue outer;
@@ -17,44 +17,180 @@ package de.codesourcery.j2048;
 
 import java.util.Random;
 
+import de.codesourcery.j2048.IInputProvider.Action;
+
 /**
  * The game/board state.
  * 
  * <p>Instead of storing the tile value directly, the logarithm is stored so
  * if tile == 3 this is actually 2^3.</p>
  * 
- * <p>This class comes with various subclassing hooks that are used by the 
- * {@link BoardWithScreenState} class to generate animations for the board's 
- * state transitions.</p>
+ * <p>The grid size is configurable per instance (see {@link #MIN_GRID_SIZE} and {@link #MAX_GRID_SIZE}),
+ * the AI uses a specialized packed representation for the default 4x4 grid (see {@link PackedBoard}).</p>
+ * 
+ * <p>All state transitions are reported to an optional {@link IBoardListener}, this is
+ * used by the {@link BoardWithScreenState} class to generate animations. Boards without
+ * a listener (like the ones used by the AI) only pay for a <code>null</code> check and
+ * tilting does not allocate any objects.</p>
  *
  * @author tobias.gierke@code-sourcery.de
  */
-public class BoardState
+public final class BoardState
 {
-	// grid size
+	// default grid size
 	public static final int GRID_COLS = 4;
 	public static final int GRID_ROWS = 4;
 
+	// supported grid sizes
+	public static final int MIN_GRID_SIZE = 3;
+	public static final int MAX_GRID_SIZE = 8;
+
 	public static final int EMPTY_TILE =  0x000000;
 
-	public final int[] board=new int[ GRID_COLS * GRID_ROWS ];
+	// bit masks returned by getLegalMoves()
+	public static final int MOVE_DOWN  = 1<<0;
+	public static final int MOVE_UP    = 1<<1;
+	public static final int MOVE_LEFT  = 1<<2;
+	public static final int MOVE_RIGHT = 1<<3;
+
+	/**
+	 * Tilt actions, index <code>i</code> corresponds to legal move bit <code>1&lt;&lt;i</code>.
+	 * 
+	 * @see #getLegalMoves()
+	 * @see #getLegalMoves(BoardState[])
+	 */
+	public static final Action[] TILT_ACTIONS = { Action.TILT_DOWN , Action.TILT_UP , Action.TILT_LEFT , Action.TILT_RIGHT };
+
+	private static final int LEGAL_MOVES_UNKNOWN = -1;
+
+	private final int cols;
+	private final int rows;
+	private final IBoardListener listener;
+
+	public final int[] board;
 	private int score;
 	private boolean gameOver;
 	private int tileCount;
+	private int legalMoves = LEGAL_MOVES_UNKNOWN;
+
+	// nesting depth of startBatch()/close() calls, only maintained when there is a listener
+	private int batchDepth;
 
 	public BoardState() {
+		this(GRID_COLS,GRID_ROWS);
+	}
+
+	public BoardState(int cols,int rows) 
+	{
+		this(cols,rows,null);
+	}
+
+	/**
+	 * Create instance.
+	 * 
+	 * @param cols
+	 * @param rows
+	 * @param listener listener to notify about state transitions, may be <code>null</code>
+	 */
+	public BoardState(int cols,int rows,IBoardListener listener) 
+	{
+		if ( cols < MIN_GRID_SIZE || cols > MAX_GRID_SIZE || rows < MIN_GRID_SIZE || rows > MAX_GRID_SIZE ) {
+			throw new IllegalArgumentException("Unsupported grid size "+cols+"x"+rows+", must be in range "+MIN_GRID_SIZE+"..."+MAX_GRID_SIZE);
+		}
+		this.cols = cols;
+		this.rows = rows;
+		this.listener = listener;
+		this.board = new int[ cols * rows ];
 	}
 
 	public final BoardState createCopy() 
 	{
-		final BoardState copy = new BoardState();
-		System.arraycopy( this.board , 0 , copy.board , 0 , GRID_COLS * GRID_ROWS );
+		final BoardState copy = new BoardState(cols,rows);
+		System.arraycopy( this.board , 0 , copy.board , 0 , cols * rows );
 		copy.score = this.score;
 		copy.gameOver = this.gameOver;
 		copy.tileCount = this.tileCount;
+		copy.legalMoves = this.legalMoves;
 		return copy;
 	}	
 	
+	/**
+	 * Overwrites this board with the state of another board.
+	 * 
+	 * <p>Note that the {@link IBoardListener} of this board is <b>not</b> notified, a listener
+	 * tracking this board (like the one of {@link BoardWithScreenState}) will be out of sync
+	 * afterwards. Only use this on boards without a listener.</p>
+	 * 
+	 * @param other board to copy, must have the same grid size as this one
+	 */
+	public final void copyFrom(BoardState other) 
+	{
+		if ( other.cols != cols || other.rows != rows ) {
+			throw new IllegalArgumentException("Grid size mismatch: "+other.cols+"x"+other.rows+" <-> "+cols+"x"+rows);
+		}
+		System.arraycopy( other.board , 0 , this.board , 0 , cols * rows );
+		this.score = other.score;
+		this.gameOver = other.gameOver;
+		this.tileCount = other.tileCount;
+		this.legalMoves = other.legalMoves;
+	}
+
+	/**
+	 * Replaces the tiles of this board with those of a {@link PackedBoard} and adds to the score.
+	 * 
+	 * <p>Used to apply the results of the {@link PackedBoard} batch operations. Like {@link #copyFrom(BoardState)},
+	 * this does <b>not</b> notify the listener.</p>
+	 * 
+	 * @param packed board to load
+	 * @param scoreDelta value to add to the score
+	 * @throws IllegalArgumentException if this is not a 4x4 board
+	 */
+	public final void loadPacked(long packed,int scoreDelta) 
+	{
+		if ( cols != PackedBoard.COLS || rows != PackedBoard.ROWS ) {
+			throw new IllegalArgumentException("Grid size mismatch: "+PackedBoard.COLS+"x"+PackedBoard.ROWS+" <-> "+cols+"x"+rows);
+		}
+		int count = 0;
+		for ( int i = 0 ; i < PackedBoard.COLS*PackedBoard.ROWS ; i++ ) 
+		{
+			final int tile = PackedBoard.getTile( packed , i );
+			board[i] = tile;
+			count += tile != EMPTY_TILE ? 1 : 0;
+		}
+		this.tileCount = count;
+		this.score += scoreDelta;
+		this.gameOver = false;
+		this.legalMoves = LEGAL_MOVES_UNKNOWN;
+	}
+
+	/**
+	 * Checks whether another board has the same size and tiles as this one (ignoring the score).
+	 * 
+	 * @param other
+	 * @return
+	 */
+	public final boolean hasSameTiles(BoardState other) 
+	{
+		if ( other.cols != cols || other.rows != rows ) {
+			return false;
+		}
+		for ( int i = 0 , len = cols * rows ; i < len ; i++ ) 
+		{
+			if ( board[i] != other.board[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public final int getColumnCount() {
+		return cols;
+	}
+
+	public final int getRowCount() {
+		return rows;
+	}
+
 	public final int getTileCount() 
 	{
 		return tileCount;
@@ -63,9 +199,9 @@ public class BoardState
 	public final int getHighestTileValue() 
 	{
 		int result = 0;
-		for ( int y = 0 ; y < BoardState.GRID_ROWS ; y++ )
+		for ( int y = 0 ; y < rows ; y++ )
 		{
-			for ( int x = 0 ; x < BoardState.GRID_COLS ; x++ )
+			for ( int x = 0 ; x < cols ; x++ )
 			{
 				final int tile = getTile(x, y);
 				if ( tile != BoardState.EMPTY_TILE ) 
@@ -87,8 +223,8 @@ public class BoardState
 
 		int x,y;
 		do {
-			x = rnd.nextInt( BoardState.GRID_COLS );
-			y = rnd.nextInt( BoardState.GRID_ROWS );
+			x = rnd.nextInt( cols );
+			y = rnd.nextInt( rows );
 		}
 		while ( isOccupied(x,y) );
 		setTileValue(x,y,value);
@@ -101,21 +237,22 @@ public class BoardState
 		gameOver = false;
 		score = 0;
 		tileCount = 0;
+		legalMoves = LEGAL_MOVES_UNKNOWN;
 
-		for ( int i = 0 ; i < GRID_COLS*GRID_ROWS ; i++ )
+		for ( int i = 0 ; i < cols*rows ; i++ )
 		{
 			board[i] = EMPTY_TILE;
 		}
 	}
 
 	public final int getTile(int x,int y) {
-		final int ptr = x+y*GRID_COLS;
+		final int ptr = x+y*cols;
 		return board[ptr];
 	}
 
 	public final boolean isBoardFull()
 	{
-		return tileCount == GRID_COLS*GRID_ROWS;
+		return tileCount == cols*rows;
 	}
 
 	public final void setTileValue(int x,int y,int value)
@@ -126,36 +263,41 @@ public class BoardState
 
 	private void internalSetTileValue(int x,int y,int value)
 	{
-		final int ptr = x+y*GRID_COLS;
+		final int ptr = x+y*cols;
 		if ( board[ptr] == EMPTY_TILE ) 
 		{
 			tileCount++;
 		}
 		board[ptr] = value;
+		legalMoves = LEGAL_MOVES_UNKNOWN;
 	}
 
-	private void clearTile(int x,int y)
+	private void mergeTile(int srcX,int srcY,int dstX,int dstY,int value)
 	{
-		internalClearTile(x,y);
-		clearScreenState(x,y);
+		internalSetTileValue( dstX , dstY , value );
+		internalClearTile( srcX , srcY );
+		if ( listener != null ) {
+			listener.mergeTile( srcX , srcY , dstX , dstY , value );
+		}
 	}
 
 	private void internalClearTile(int x,int y)
 	{
-		final int ptr = x+y*GRID_COLS;
+		final int ptr = x+y*cols;
 		if ( board[ptr] != EMPTY_TILE ) {
 			tileCount--;
 		}
 		board[ptr] = EMPTY_TILE;
+		legalMoves = LEGAL_MOVES_UNKNOWN;
 	}
 
 	public final boolean isOccupied(int x,int y) {
-		final int ptr = x+y*GRID_COLS;
+		final int ptr = x+y*cols;
 		return board[ptr] != EMPTY_TILE;
 	}
 
 	public final boolean isEmpty(int x,int y) {
-		final int ptr = x+y*GRID_COLS;
+		final int ptr = x+y*cols;
 		return board[ptr] == EMPTY_TILE;
 	}
 
@@ -163,29 +305,14 @@ public class BoardState
 
 		startBatch();
 
-		final boolean[] moved = {false};
-		final Runnable run = () ->
-		{
-			for ( int y = 0 ; y < BoardState.GRID_ROWS ; y++ )
-			{
-				for ( int x = 0 ; x < BoardState.GRID_COLS ; x++ )
-				{
-					if ( isOccupied(x,y) )
-					{
-						moved[0] |= moveTileLeft(x, y);
-					}
-				}
-			}
-		};
-
-		run.run();
+		final boolean moved = compactLeft();
 		sync();
 
 		// merge left
 		boolean merged = false;
-		for ( int y = 0 ; y < BoardState.GRID_ROWS ; y++ )
+		for ( int y = 0 ; y < rows ; y++ )
 		{
-			for ( int x = 1 ; x < BoardState.GRID_COLS ; x++ )
+			for ( int x = 1 ; x < cols ; x++ )
 			{
 				final int tile = getTile(x,y);
 				if ( tile != BoardState.EMPTY_TILE )
@@ -194,8 +321,7 @@ public class BoardState
 					if ( neightbourTile == tile )
 					{
 						score += 1<<(tile+1);
-						setTileValue( x-1 , y , tile+1);
-						clearTile( x , y );
+						mergeTile( x , y , x-1 , y , tile+1 );
 						merged = true;
 					}
 				}
@@ -204,38 +330,40 @@ public class BoardState
 		sync();	
 
 		if ( merged ) {
-			run.run();
+			compactLeft();
 		}
 		close();
-		return moved[0] | merged;
+		return moved | merged;
 	}
 
-	public final boolean tiltRight()
+	private boolean compactLeft()
 	{
-		startBatch();
-
-		final boolean[] moved = { false} ;
-		final Runnable run = () ->
+		boolean moved = false;
+		for ( int y = 0 ; y < rows ; y++ )
 		{
-			for ( int y = 0 ; y < BoardState.GRID_ROWS ; y++ )
+			for ( int x = 0 ; x < cols ; x++ )
 			{
-				for ( int x = BoardState.GRID_COLS -2 ; x >= 0 ; x-- )
+				if ( isOccupied(x,y) )
 				{
-					if ( isOccupied(x,y) )
-					{
-						moved[0] |= moveTileRight(x, y);
-					}
+					moved |= moveTileLeft(x, y);
 				}
 			}
-		};
-		run.run();
+		}
+		return moved;
+	}
+
+	public final boolean tiltRight()
+	{
+		startBatch();
+
+		final boolean moved = compactRight();
 		sync();
 
 		// merge right
 		boolean merged = false;
-		for ( int y = 0 ; y < BoardState.GRID_ROWS ; y++ )
+		for ( int y = 0 ; y < rows ; y++ )
 		{
-			for ( int x = BoardState.GRID_COLS -2 ; x >= 0 ; x-- )
+			for ( int x = cols -2 ; x >= 0 ; x-- )
 			{
 				final int tile = getTile(x,y);
 				if ( tile != BoardState.EMPTY_TILE ) {
@@ -243,8 +371,7 @@ public class BoardState
 					if ( neightbourTile == tile )
 					{
 						score += 1<<(tile+1);
-						setTileValue( x+1 , y , tile+1 );
-						clearTile( x , y );
+						mergeTile( x , y , x+1 , y , tile+1 );
 						merged = true;
 					}
 				}
@@ -253,37 +380,40 @@ public class BoardState
 		sync();
 
 		if ( merged ) {
-			run.run();
+			compactRight();
 		}
 		close();		
-		return moved[0] | merged;
+		return moved | merged;
 	}
 
-	public final boolean tiltDown()
+	private boolean compactRight()
 	{
-		startBatch();
-
-		final boolean[] moved={false};
-		final Runnable run = () -> {
-			for ( int x = 0 ; x < BoardState.GRID_COLS ; x++ )
+		boolean moved = false;
+		for ( int y = 0 ; y < rows ; y++ )
+		{
+			for ( int x = cols -2 ; x >= 0 ; x-- )
 			{
-				for ( int y = 1 ; y < BoardState.GRID_ROWS ; y++ )
+				if ( isOccupied(x,y) )
 				{
-					if ( isOccupied(x,y) )
-					{
-						moved[0] |= moveTileDown(x, y);
-					}
+					moved |= moveTileRight(x, y);
 				}
 			}
-		};
-		run.run();
+		}
+		return moved;
+	}
+
+	public final boolean tiltDown()
+	{
+		startBatch();
+
+		final boolean moved = compactDown();
 		sync();
 
 		// merge downwards
 		boolean merged = false;
-		for ( int x = 0 ; x < BoardState.GRID_COLS ; x++ )
+		for ( int x = 0 ; x < cols ; x++ )
 		{
-			for ( int y = 1 ; y < BoardState.GRID_ROWS ; y++ )
+			for ( int y = 1 ; y < rows ; y++ )
 			{
 				final int tile = getTile(x,y);
 				if ( tile != BoardState.EMPTY_TILE ) {
@@ -291,8 +421,7 @@ public class BoardState
 					if ( neightbourTile == tile )
 					{
 						score += 1<<(tile+1);
-						setTileValue( x, y - 1  , tile+1 );
-						clearTile( x , y );
+						mergeTile( x , y , x , y-1 , tile+1 );
 						merged = true;
 					}
 				}
@@ -300,39 +429,41 @@ public class BoardState
 		}
 		sync();
 		if ( merged ) {
-			run.run();
+			compactDown();
 		}
 		close();
-		return moved[0] | merged;
+		return moved | merged;
 	}
 
-	public final boolean tiltUp()
+	private boolean compactDown()
 	{
-		startBatch();
-
-		// move tiles up
-		final boolean[] moved = {false};
-		final Runnable run = () -> {
-			for ( int x = 0 ; x < BoardState.GRID_COLS ; x++ )
+		boolean moved = false;
+		for ( int x = 0 ; x < cols ; x++ )
+		{
+			for ( int y = 1 ; y < rows ; y++ )
 			{
-				for ( int y = BoardState.GRID_ROWS-2 ; y >= 0 ; y-- )
+				if ( isOccupied(x,y) )
 				{
-					if ( isOccupied(x,y) )
-					{
-						moved[0] |= moveTileUp(x, y);
-					}
+					moved |= moveTileDown(x, y);
 				}
-			}		
-		};
+			}
+		}
+		return moved;
+	}
 
-		run.run();
+	public final boolean tiltUp()
+	{
+		startBatch();
+
+		// move tiles up
+		final boolean moved = compactUp();
 		sync();			
 
 		// merge adjacent tiles
 		boolean merged = false;
-		for ( int x = 0 ; x < BoardState.GRID_COLS ; x++ )
+		for ( int x = 0 ; x < cols ; x++ )
 		{
-			for ( int y = BoardState.GRID_ROWS-2 ; y >= 0  ; y-- )
+			for ( int y = rows-2 ; y >= 0  ; y-- )
 			{
 				final int tile = getTile(x,y);
 				if ( tile != BoardState.EMPTY_TILE ) {
@@ -340,8 +471,7 @@ public class BoardState
 					if ( neightbourTile == tile )
 					{
 						score += 1<<(tile+1);
-						setTileValue( x, y +1 , tile+1 );
-						clearTile( x , y );
+						mergeTile( x , y , x , y+1 , tile+1 );
 						merged = true;
 					}
 				}
@@ -351,11 +481,27 @@ public class BoardState
 		sync();
 		// try to move remaining tiles to fill gaps
 		if ( merged ) {
-			run.run();
+			compactUp();
 		}
 
 		close();
-		return moved[0] | merged;
+		return moved | merged;
+	}
+
+	private boolean compactUp()
+	{
+		boolean moved = false;
+		for ( int x = 0 ; x < cols ; x++ )
+		{
+			for ( int y = rows-2 ; y >= 0 ; y-- )
+			{
+				if ( isOccupied(x,y) )
+				{
+					moved |= moveTileUp(x, y);
+				}
+			}
+		}
+		return moved;
 	}
 
 	private boolean moveTileDown(int x,int y)
@@ -381,7 +527,7 @@ public class BoardState
 		boolean moved = false;
 		final int initialX = x;
 		final int initialY = y;
-		while ( y < BoardState.GRID_ROWS-1 && isEmpty(x, y+1 ) )
+		while ( y < rows-1 && isEmpty(x, y+1 ) )
 		{
 			moved = true;
 			internalSetTileValue( x,y+1, getTile(x, y) );
@@ -418,7 +564,7 @@ public class BoardState
 		boolean moved = false;
 		final int initialX = x;
 		final int initialY = y;
-		while ( x < BoardState.GRID_COLS-1 && isEmpty(x+1, y ) )
+		while ( x < cols-1 && isEmpty(x+1, y ) )
 		{
 			internalSetTileValue( x+1,y, getTile(x, y) );
 			internalClearTile(x,y);
@@ -439,63 +585,209 @@ public class BoardState
 		if ( ! isBoardFull() ) {
 			return false;
 		}
+		if ( getLegalMoves() == 0 ) {
+			gameOver = true;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the moves that would change this board.
+	 * 
+	 * <p>The result is cached until the board gets modified.</p>
+	 * 
+	 * @return bit mask of {@link #MOVE_DOWN},{@link #MOVE_UP},{@link #MOVE_LEFT} and {@link #MOVE_RIGHT} , 0 if no move is possible
+	 */
+	public final int getLegalMoves() 
+	{
+		if ( legalMoves == LEGAL_MOVES_UNKNOWN ) {
+			legalMoves = calcLegalMoves();
+		}
+		return legalMoves;
+	}
 
-		// board is full, check whether any two tiles can be merged
-		for ( int x = 0 ; x < BoardState.GRID_COLS ; x++ ) 
+	/**
+	 * Returns the moves that would change this board along with the resulting boards.
+	 * 
+	 * <p>For each legal move <code>TILT_ACTIONS[i]</code>, <code>results[i]</code> is overwritten
+	 * with the board after the move, results for illegal moves are left untouched. 
+	 * This method does not allocate any objects and does not modify this board.</p>
+	 * 
+	 * @param results boards receiving the results (indexed like {@link #TILT_ACTIONS}), must have the same grid size as this board.
+	 * <code>null</code> elements are skipped.
+	 * @return bit mask of legal moves, see {@link #getLegalMoves()}
+	 */
+	public final int getLegalMoves(BoardState[] results) 
+	{
+		final int moves = getLegalMoves();
+		for ( int i = 0 ; i < TILT_ACTIONS.length ; i++ ) 
 		{
-			for ( int y = 0 ; y < BoardState.GRID_ROWS ; y++ ) 
+			final BoardState result = results[i];
+			if ( result != null && ( moves & (1<<i) ) != 0 ) 
 			{
-				final int tile = getTile(x, y);
-				if ( x-1 >= 0 ) { // check left neighbor
-					if ( getTile(x-1,y) == tile ) {
-						return false;
-					}
+				result.copyFrom( this );
+				result.tilt( TILT_ACTIONS[i] );
+			}
+		}
+		return moves;
+	}
+
+	/**
+	 * Tilts the board in the direction of a tilt action.
+	 * 
+	 * @param action
+	 * @return <code>true</code> if any tile was moved or merged
+	 * @throws IllegalArgumentException if the action is no tilt
+	 */
+	public final boolean tilt(Action action) 
+	{
+		switch( action ) 
+		{
+			case TILT_DOWN:  return tiltDown();
+			case TILT_UP:    return tiltUp();
+			case TILT_LEFT:  return tiltLeft();
+			case TILT_RIGHT: return tiltRight();
+			default:
+				throw new IllegalArgumentException("Not a tilt: "+action);
+		}
+	}
+
+	/**
+	 * Performs a move: Tilts the board and places a random tile if the tilt changed the board.
+	 * 
+	 * <p>The listener of this board gets notified about the tilt and the new tile
+	 * within the same batch.</p>
+	 * 
+	 * @param action tilt action
+	 * @param rnd random number generator used to place the new tile
+	 * @return <code>true</code> if any tile was moved or merged
+	 * @throws IllegalArgumentException if the action is no tilt
+	 * @see #tilt(Action)
+	 * @see #placeRandomTile(Random)
+	 */
+	public final boolean move(Action action,Random rnd) 
+	{
+		if ( getMoveMask( action ) == 0 ) {
+			throw new IllegalArgumentException("Not a tilt: "+action);
+		}
+		startBatch();
+		final boolean moved = tilt( action );
+		if ( moved && ! isGameOver() ) 
+		{
+			sync();
+			placeRandomTile( rnd );
+		}
+		close();
+		return moved;
+	}
+
+	/**
+	 * Checks whether a given action would change this board.
+	 * 
+	 * @param action
+	 * @return
+	 */
+	public final boolean isLegalMove(Action action) 
+	{
+		return ( getLegalMoves() & getMoveMask( action ) ) != 0;
+	}
+
+	/**
+	 * Returns the legal move bit mask for a given tilt action.
+	 * 
+	 * @param action
+	 * @return bit mask, 0 if the action is no tilt
+	 * @see #getLegalMoves()
+	 */
+	public static int getMoveMask(Action action) 
+	{
+		switch( action ) 
+		{
+			case TILT_DOWN:  return MOVE_DOWN;
+			case TILT_UP:    return MOVE_UP;
+			case TILT_LEFT:  return MOVE_LEFT;
+			case TILT_RIGHT: return MOVE_RIGHT;
+			default:
+				return 0;
+		}
+	}
+
+	private int calcLegalMoves() 
+	{
+		/*
+		 * For each pair of adjacent tiles (a,b), b being to the right of / below a:
+		 * 
+		 * Tile b can move towards a if a is empty or has the same value, 
+		 * tile a can move towards b if b is empty or has the same value.
+		 */
+		int result = 0;
+		for ( int y = 0 ; y < rows ; y++ ) 
+		{
+			for ( int ptr = y*cols , end = ptr + cols - 1 ; ptr < end ; ptr++ ) 
+			{
+				final int a = board[ptr];
+				final int b = board[ptr+1];
+				if ( b != EMPTY_TILE && ( a == EMPTY_TILE || a == b ) ) {
+					result |= MOVE_LEFT;
 				}
-				if ( x+1 < BoardState.GRID_COLS ) { // check right neighbor
-					if ( getTile(x+1,y) == tile ) {
-						return false;
-					}
+				if ( a != EMPTY_TILE && ( b == EMPTY_TILE || a == b ) ) {
+					result |= MOVE_RIGHT;
 				}
-				if ( y-1 >= 0 ) { // check top neighbor
-					if ( getTile(x,y-1) == tile ) {
-						return false;
-					}
-				}		
-				if ( y+1 < BoardState.GRID_ROWS ) { // check bottom neighbor
-					if ( getTile(x,y+1) == tile ) {
-						return false;
-					}
-				}					
 			}
 		}
-		gameOver = true;
-		return true;
-	}	
-
+		for ( int ptr = 0 , end = (rows-1)*cols ; ptr < end ; ptr++ ) 
+		{
+			final int a = board[ptr];
+			final int b = board[ptr+cols];
+			if ( b != EMPTY_TILE && ( a == EMPTY_TILE || a == b ) ) {
+				result |= MOVE_DOWN;
+			}
+			if ( a != EMPTY_TILE && ( b == EMPTY_TILE || a == b ) ) {
+				result |= MOVE_UP;
+			}
+		}
+		return result;
+	}
 
 	public final int getScore() {
 		return score;
 	}
 
-	// overridable stuff
-	protected void resetScreenState() {
-	}	
-
-	protected void moveTile(int initialX,int initialY,int x,int y) {
+	// listener notifications
+	private void resetScreenState() {
+		if ( listener != null ) {
+			listener.reset();
+		}
 	}
 
-	protected void startBatch() {
+	private void moveTile(int initialX,int initialY,int x,int y) {
+		if ( listener != null ) {
+			listener.moveTile( initialX , initialY , x , y );
+		}
 	}
 
-	protected void sync() {
-	}	
+	private void startBatch() {
+		if ( listener != null && batchDepth++ == 0 ) {
+			listener.startBatch();
+		}
+	}
 
-	protected void close() {
+	private void sync() {
+		if ( listener != null ) {
+			listener.syncPoint();
+		}
 	}
 
-	protected void clearScreenState(int x,int y) {
+	private void close() {
+		if ( listener != null && --batchDepth == 0 ) {
+			listener.endBatch();
+		}
 	}
 
-	protected void setScreenState(int x, int y, int value) {
-	}	
-}
\ No newline at end of file
+	private void setScreenState(int x, int y, int value) {
+		if ( listener != null ) {
+			listener.setTile( x , y , value );
+		}
+	}
+}
@@ -18,57 +18,99 @@ package de.codesourcery.j2048;
 import de.codesourcery.j2048.ScreenState.Batch;
 
 /**
- * Subclass of {@link BoardState} that forwards operations
- * to a {@link ScreenState} instance so proper animations
- * can be rendered.
+ * Combines a {@link BoardState} with a {@link ScreenState}.
+ * 
+ * <p>All state transitions of the board are recorded as {@link MoveDiff}s and
+ * replayed on the screen state so proper animations can be rendered.</p>
  *
  * @author tobias.gierke@code-sourcery.de
  */
-public final class BoardWithScreenState extends BoardState
+public final class BoardWithScreenState
 {
 	public final ScreenState screenState;
-	protected Batch currentBatch;
-	
+
+	private final MoveDiffRecorder recorder;
+	private final BoardState board;
+
 	public BoardWithScreenState(ScreenState screenState)
 	{
-		super();
 		this.screenState = screenState;
-		reset();
+		this.recorder = new MoveDiffRecorder();
+		this.board = new BoardState( screenState.getColumnCount() , screenState.getRowCount() , recorder );
+		final ScreenStateUpdater updater = new ScreenStateUpdater( screenState );
+		recorder.addListener( diff -> diff.replay( updater ) );
+		board.reset();
 	}
-	
-	@Override
-	protected void resetScreenState() {
-		screenState.reset();
-	}	
-	
-	@Override
-	protected void moveTile(int initialX,int initialY,int x,int y) {
-		screenState.moveTile(initialX,initialY,x,y);
+
+	/**
+	 * Returns the board.
+	 * 
+	 * <p>All changes made to the returned board are reflected by the screen state.</p>
+	 * 
+	 * @return
+	 */
+	public BoardState getBoard() {
+		return board;
 	}
-	
-	@Override
-	protected void startBatch() {
-		currentBatch = screenState.startBatch();
+
+	/**
+	 * Registers a listener that gets notified about all state transitions of this board.
+	 * 
+	 * @param listener
+	 */
+	public void addMoveDiffListener(IMoveDiffListener listener) {
+		recorder.addListener( listener );
 	}
-	
-	@Override
-	protected void sync() {
-		currentBatch.syncPoint();
-	}	
-	
-	@Override
-	protected void close() {
-		currentBatch.close();
-		currentBatch = null;
+
+	public void removeMoveDiffListener(IMoveDiffListener listener) {
+		recorder.removeListener( listener );
 	}
-	
-	@Override
-	protected void clearScreenState(int x,int y) {
-		screenState.clear( x, y );
+
+	private static final class ScreenStateUpdater implements IBoardListener
+	{
+		private final ScreenState screenState;
+		private Batch currentBatch;
+
+		public ScreenStateUpdater(ScreenState screenState) {
+			this.screenState = screenState;
+		}
+
+		@Override
+		public void reset() {
+			screenState.reset();
+		}
+
+		@Override
+		public void moveTile(int initialX,int initialY,int x,int y) {
+			screenState.moveTile(initialX,initialY,x,y);
+		}
+
+		@Override
+		public void startBatch() {
+			currentBatch = screenState.startBatch();
+		}
+
+		@Override
+		public void syncPoint() {
+			currentBatch.syncPoint();
+		}
+
+		@Override
+		public void endBatch() {
+			currentBatch.close();
+			currentBatch = null;
+		}
+
+		@Override
+		public void mergeTile(int srcX,int srcY,int dstX,int dstY,int value)
+		{
+			screenState.setTileValue( dstX , dstY , value );
+			screenState.clear( srcX , srcY );
+		}
+
+		@Override
+		public void setTile(int x, int y, int value) {
+			screenState.setTileValue( x , y , value );
+		}
 	}
-	
-	@Override
-	protected void setScreenState(int x, int y, int value) {
-		screenState.setTileValue( x , y , value );
-	}	
-}
\ No newline at end of file
+}
@@ -0,0 +1,311 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Toolkit;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+
+import de.codesourcery.j2048.IInputProvider.Action;
+import de.codesourcery.j2048.ScreenState.Tile;
+
+/**
+ * Renders many concurrently running games in a single window.
+ *
+ * <p>All boards share a single tick/render loop and a single {@link TileSpriteCache}, tile sizes
+ * get scaled down so that all boards fit on the screen. Since input providers (most
+ * notably the {@link AIPlayer}) may take a considerable amount of time, actions
+ * are requested asynchronously while the board is still animating the last move.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class Dashboard extends JPanel
+{
+	private static final int PADDING = 4;
+
+	private static final Color COLOR_GAMEOVER = new Color( 255 , 0 , 0 , 96 );
+
+	private final TickListenerContainer tickListeners = new TickListenerContainer( Runtime.getRuntime().availableProcessors() );
+
+	private final List<Game> games = new ArrayList<>();
+
+	// grid size of each board
+	private final int gridCols;
+	private final int gridRows;
+
+	// layout
+	private final int boardCols;
+	private final int boardRows;
+	private final int headerHeight;
+	private final int cellWidth;
+	private final int cellHeight;
+	private final int tileWidth;
+	private final int tileHeight;
+	private final int borderThickness;
+
+	private final Font scoreFont;
+
+	// render state, only accessed by the game loop thread
+	private TileSpriteCache spriteCache;
+	private int renderOffsetX;
+	private int renderOffsetY;
+	private Graphics2D renderGfx;
+	private final Consumer<Tile> tileRenderer = tile ->
+	{
+		renderGfx.drawImage( spriteCache.getTileSprite( tile.value ) , renderOffsetX + tile.x , renderOffsetY + tile.y , null );
+	};
+
+	// off-screen buffers
+	private final Object BUFFER_LOCK = new Object();
+
+	// @GuardedBy( BUFFER_LOCK )
+	private final BufferedImage[] buffers = new BufferedImage[2];
+	// @GuardedBy( BUFFER_LOCK )
+	private final Graphics2D[] bufferGfxs = new Graphics2D[2];
+	// @GuardedBy( BUFFER_LOCK )
+	private int bufferIndex;
+
+	private final class Game
+	{
+		public final ScreenState screenState;
+		public final BoardState board;
+		public final IInputProvider inputProvider;
+		public final Random rnd;
+
+		// action currently being calculated
+		public CompletableFuture<Action> pendingAction;
+
+		public Game(IInputProvider inputProvider,long seed)
+		{
+			this.inputProvider = inputProvider;
+			this.rnd = new Random( seed );
+			this.screenState = new ScreenState( tickListeners , gridCols , gridRows , tileWidth , tileHeight , borderThickness );
+			this.board = new BoardWithScreenState( screenState ).getBoard();
+		}
+
+		public void restart()
+		{
+			board.reset();
+			board.placeRandomTile( rnd );
+		}
+
+		public void requestAction()
+		{
+			pendingAction = inputProvider.getActionAsync( board );
+		}
+
+		public void advance()
+		{
+			// only process input once screen state is in sync with board state
+			if ( pendingAction == null || ! pendingAction.isDone() || ! screenState.isInSyncWithBoardState() ) {
+				return;
+			}
+			final Action action = pendingAction.join();
+			pendingAction = null;
+
+			if (action == Action.RESTART)
+			{
+				restart();
+			}
+			else if ( ! board.isGameOver() )
+			{
+				Main.processInput( board , action , rnd );
+			}
+			requestAction();
+		}
+	}
+
+	/**
+	 * Create instance.
+	 *
+	 * @param inputProviders input providers, one for each board to display
+	 * @param seed seed used to derive the random seed of each board
+	 * @param gridCols number of columns of each board
+	 * @param gridRows number of rows of each board
+	 */
+	public Dashboard(List<IInputProvider> inputProviders,long seed,int gridCols,int gridRows)
+	{
+		this.gridCols = gridCols;
+		this.gridRows = gridRows;
+
+		final int count = inputProviders.size();
+		boardCols = (int) Math.ceil( Math.sqrt( count ) );
+		boardRows = (count + boardCols - 1) / boardCols;
+
+		// scale boards so that everything fits on the screen
+		final Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
+		final int maxCellWidth = (int) (screenSize.width * 0.9f) / boardCols;
+		final int maxCellHeight = (int) (screenSize.height * 0.85f) / boardRows;
+
+		final float defaultBoardWidth = gridCols * ScreenState.TILE_WIDTH + (gridCols+1) * GameScreen.BORDER_THICKNESS;
+		final float defaultBoardHeight = gridRows * ScreenState.TILE_HEIGHT + (gridRows+1) * GameScreen.BORDER_THICKNESS;
+		final float scale = Math.min( 1f , Math.min( (maxCellWidth - PADDING)/defaultBoardWidth , (maxCellHeight - PADDING)/(defaultBoardHeight + 20) ) );
+
+		tileWidth = Math.max( 8 , (int) (ScreenState.TILE_WIDTH * scale) );
+		tileHeight = Math.max( 8 , (int) (ScreenState.TILE_HEIGHT * scale) );
+		borderThickness = Math.max( 1 , Math.round( GameScreen.BORDER_THICKNESS * scale ) );
+		headerHeight = Math.max( 10 , (int) (20 * scale) );
+		cellWidth = PADDING + borderThickness + gridCols * ( tileWidth + borderThickness );
+		cellHeight = PADDING + headerHeight + borderThickness + gridRows * ( tileHeight + borderThickness );
+
+		scoreFont = getFont().deriveFont( Font.BOLD , headerHeight * 0.7f );
+
+		for ( int i = 0 ; i < count ; i++ ) {
+			games.add( new Game( inputProviders.get(i) , seed + i ) );
+		}
+
+		final Dimension size = new Dimension( PADDING + boardCols * cellWidth , PADDING + boardRows * cellHeight );
+		setBackground( GameScreen.COLOR_BACKGROUND );
+		setPreferredSize( size );
+		setMinimumSize( size );
+		setMaximumSize( size );
+	}
+
+	public void run()
+	{
+		final JFrame frame = new JFrame("j2048 (C) 2015 by tobias.gierke@code-sourcery.de - "+games.size()+" games");
+		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		frame.getContentPane().add( this );
+		frame.pack();
+		frame.setResizable(false);
+		frame.setVisible( true );
+		frame.setLocationRelativeTo( null );
+
+		spriteCache = new TileSpriteCache( tileWidth , tileHeight , borderThickness , getFont() );
+
+		for ( Game game : games )
+		{
+			game.restart();
+			game.requestAction();
+		}
+		mainLoop();
+	}
+
+	private void mainLoop()
+	{
+		long time = System.currentTimeMillis();
+		while ( true )
+		{
+			final long now = System.currentTimeMillis();
+			final float deltaSeconds = (now-time)/1000.0f;
+			time = now;
+			tickListeners.invokeTickListeners( deltaSeconds );
+
+			for ( int i = 0 , len = games.size() ; i < len ; i++ ) {
+				games.get(i).advance();
+			}
+
+			render();
+
+			// sleep some time to not burn all available CPU time
+			try
+			{
+				Thread.sleep( 12 );
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void render()
+	{
+		final Graphics2D gfx;
+		synchronized(BUFFER_LOCK)
+		{
+			final int backIdx = (bufferIndex+1) % 2;
+			if ( buffers[backIdx] == null || buffers[backIdx].getWidth() != getWidth() || buffers[backIdx].getHeight() != getHeight() )
+			{
+				if ( bufferGfxs[backIdx] != null ) {
+					bufferGfxs[backIdx].dispose();
+				}
+				buffers[backIdx] = new BufferedImage( Math.max(1,getWidth()) , Math.max(1,getHeight()) , BufferedImage.TYPE_INT_RGB );
+				bufferGfxs[backIdx] = buffers[backIdx].createGraphics();
+			}
+			gfx = bufferGfxs[backIdx];
+		}
+
+		gfx.setColor( getBackground() );
+		gfx.fillRect( 0 , 0 , getWidth() , getHeight() );
+		gfx.setFont( scoreFont );
+
+		final BufferedImage emptyBoard = spriteCache.getEmptyBoard( gridCols , gridRows );
+		renderGfx = gfx;
+		for ( int i = 0 , len = games.size() ; i < len ; i++ )
+		{
+			final Game game = games.get(i);
+			final int x0 = PADDING + (i % boardCols) * cellWidth;
+			final int y0 = PADDING + (i / boardCols) * cellHeight;
+
+			gfx.setColor( GameScreen.COLOR_SCORE );
+			gfx.drawString( Integer.toString( game.board.getScore() ) , x0 , y0 + (int) (headerHeight * 0.8f) );
+
+			renderOffsetX = x0;
+			renderOffsetY = y0 + headerHeight;
+			gfx.drawImage( emptyBoard , renderOffsetX , renderOffsetY , null );
+			game.screenState.visitOccupiedTiles( tileRenderer );
+
+			if ( game.board.isGameOver() )
+			{
+				gfx.setColor( COLOR_GAMEOVER );
+				gfx.fillRect( renderOffsetX , renderOffsetY , emptyBoard.getWidth() , emptyBoard.getHeight() );
+			}
+		}
+		renderGfx = null;
+
+		synchronized(BUFFER_LOCK)
+		{
+			bufferIndex = (bufferIndex+1) % 2;
+			repaint();
+			try {
+				// wait for paint but don't stall forever while the window is not visible
+				BUFFER_LOCK.wait( 100 );
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Override
+	protected void paintComponent(Graphics g)
+	{
+		synchronized(BUFFER_LOCK)
+		{
+			final BufferedImage front = buffers[bufferIndex];
+			if ( front != null ) {
+				g.drawImage( front , 0 , 0 , null );
+			} else {
+				super.paintComponent( g );
+			}
+			Toolkit.getDefaultToolkit().sync();
+			BUFFER_LOCK.notifyAll();
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import de.codesourcery.j2048.IInputProvider.Action;
+
+/**
+ * Emits Java Flight Recorder events for game activity.
+ *
+ * <p>The JFR event classes are not part of the Java 8 platform API, so they live in a separate source
+ * folder (<code>src/main/jfr</code>) that only gets compiled when building with Java 11 or later. They are 
+ * loaded reflectively when both the JFR API and the compiled classes are present, events are returned as opaque 
+ * handles so callers do not depend on them. When recording is disabled, <code>begin*()</code> methods 
+ * return <code>null</code> without allocating anything.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class FlightRecorderEvents
+{
+	// only one out of this many tilt batches gets recorded, must be a power of 2
+	static final int TILT_BATCH_SAMPLE_INTERVAL = 64;
+
+	// null if JFR is not available
+	private static final Recorder RECORDER = createRecorder();
+
+	private FlightRecorderEvents() {
+	}
+
+	private static Recorder createRecorder()
+	{
+		try 
+		{
+			Class.forName( "jdk.jfr.Event" );
+			return (Recorder) Class.forName( "de.codesourcery.j2048.JfrRecorder" ).getDeclaredConstructor().newInstance();
+		}
+		catch(ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/*
+	 * Implemented by JfrRecorder, which is only loaded when the JFR API is available.
+	 */
+	interface Recorder
+	{
+		public Object beginMove();
+
+		public void endMove(Object handle,int depth,long nodes,Action action);
+
+		public Object beginTiltBatch();
+
+		public void endTiltBatch(Object handle,int boards,int moved);
+
+		public Object beginFrame();
+
+		public void endFrame(Object handle,int tiles);
+	}
+
+	/**
+	 * Starts timing a move of the {@link AIPlayer}.
+	 *
+	 * @return event handle or <code>null</code> if the event is disabled
+	 */
+	public static Object beginMove() {
+		return RECORDER != null ? RECORDER.beginMove() : null;
+	}
+
+	/**
+	 * @param event handle returned by {@link #beginMove()}, may be <code>null</code>
+	 * @param depth max. search depth reached
+	 * @param nodes number of nodes searched
+	 * @param action chosen action
+	 */
+	public static void endMove(Object event,int depth,long nodes,Action action)
+	{
+		if ( event != null ) {
+			RECORDER.endMove( event , depth , nodes , action );
+		}
+	}
+
+	/**
+	 * Starts timing a batch of tilts (like the steps of a {@link GameServer} request or a move of a {@link SessionRunner} session), only every {@value #TILT_BATCH_SAMPLE_INTERVAL}th batch is recorded.
+	 *
+	 * @return event handle or <code>null</code> if the event is disabled or the batch is not sampled
+	 */
+	public static Object beginTiltBatch() {
+		return RECORDER != null ? RECORDER.beginTiltBatch() : null;
+	}
+
+	/**
+	 * @param event handle returned by {@link #beginTiltBatch()}, may be <code>null</code>
+	 * @param boards number of boards in the batch
+	 * @param moved number of boards that changed
+	 */
+	public static void endTiltBatch(Object event,int boards,int moved)
+	{
+		if ( event != null ) {
+			RECORDER.endTiltBatch( event , boards , moved );
+		}
+	}
+
+	/**
+	 * Starts timing the rendering of a frame.
+	 *
+	 * @return event handle or <code>null</code> if the event is disabled
+	 */
+	public static Object beginFrame() {
+		return RECORDER != null ? RECORDER.beginFrame() : null;
+	}
+
+	/**
+	 * @param event handle returned by {@link #beginFrame()}, may be <code>null</code>
+	 * @param tiles number of tiles drawn
+	 */
+	public static void endFrame(Object event,int tiles)
+	{
+		if ( event != null ) {
+			RECORDER.endFrame( event , tiles );
+		}
+	}
+}
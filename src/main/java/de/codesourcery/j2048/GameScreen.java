@@ -22,6 +22,7 @@ import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Polygon;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Stroke;
@@ -33,9 +34,11 @@ import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import javax.swing.JPanel;
 
+import de.codesourcery.j2048.IInputProvider.Action;
 import de.codesourcery.j2048.TickListenerContainer.ITickListener;
 
 /**
@@ -55,14 +58,23 @@ public final class GameScreen extends JPanel implements ITickListener
 
 	protected static final Color COLOR_GAMEOVER = Color.RED;
 
-	protected final Color[] colors = createGradient(Color.WHITE,Color.RED,15);
+	protected static final Color COLOR_HINT = new Color( 0 , 0 , 0 , 160 );
+	protected static final Color COLOR_HINT_BEST = new Color( 0 , 150 , 0 , 210 );
+
+	// tile colors, indexed by tile value - 1
+	private static final Color[] TILE_COLORS = createTileColors();
 
 	public static final int BORDER_THICKNESS = 4;
 
 	public static final int BOARD_Y_OFFSET = 40;
 
-	public static final int WIDTH  = BoardState.GRID_COLS * ScreenState.TILE_WIDTH  + (BoardState.GRID_COLS-1)*BORDER_THICKNESS + 2*BORDER_THICKNESS;
-	public static final int HEIGHT = BOARD_Y_OFFSET + BoardState.GRID_ROWS * ScreenState.TILE_HEIGHT + (BoardState.GRID_ROWS-1)*BORDER_THICKNESS + 2*BORDER_THICKNESS;
+	// grid size
+	private final int cols;
+	private final int rows;
+
+	// screen size
+	private final int width;
+	private final int height;
 
 	protected final RenderedButton restartButton;
 
@@ -80,11 +92,33 @@ public final class GameScreen extends JPanel implements ITickListener
 
 	private int bufferIndex;
 
-	public GameScreen()
+	// number of tiles drawn by the last doRender() call
+	// @GuardedBy( BUFFER_LOCK )
+	private int tilesDrawn;
+
+	// hint mode, only accessed by the game loop thread
+	private AIPlayer hintPlayer;
+	private long hintBudgetMillis;
+	private final Font hintFont;
+	// position the current hint is for
+	private BoardState hintPosition;
+	private CompletableFuture<Hint> hint;
+
+	public GameScreen() 
 	{
+		this(BoardState.GRID_COLS,BoardState.GRID_ROWS);
+	}
+
+	public GameScreen(int cols,int rows)
+	{
+		this.cols = cols;
+		this.rows = rows;
+		this.width  = cols * ScreenState.TILE_WIDTH  + (cols-1)*BORDER_THICKNESS + 2*BORDER_THICKNESS;
+		this.height = BOARD_Y_OFFSET + rows * ScreenState.TILE_HEIGHT + (rows-1)*BORDER_THICKNESS + 2*BORDER_THICKNESS;
+
 		setBackground(COLOR_BACKGROUND);
 
-		final Dimension windowSize = new Dimension(WIDTH,HEIGHT);
+		final Dimension windowSize = new Dimension(width,height);
 		setPreferredSize( windowSize );
 		setMinimumSize( windowSize );
 		setMaximumSize( windowSize );
@@ -92,7 +126,8 @@ public final class GameScreen extends JPanel implements ITickListener
 		numberFont = getFont().deriveFont( Font.BOLD , 24  );
 		textFont = getFont().deriveFont( Font.BOLD , 24  );
 		gameOverFont = getFont().deriveFont( Font.BOLD , 32  );
-		restartButton = new RenderedButton( "Restart" , numberFont , 210,5,105,30 );
+		hintFont = getFont().deriveFont( Font.BOLD , 14  );
+		restartButton = new RenderedButton( "Restart" , numberFont , width - 110 ,5,105,30 );
 
 		addMouseListener( new MouseAdapter() {
 			@Override
@@ -113,6 +148,67 @@ public final class GameScreen extends JPanel implements ITickListener
 		return restartButton;
 	}
 
+	/**
+	 * Enables or disables the hint overlay.
+	 *
+	 * <p>When enabled, each position gets searched in the background and the recommended move
+	 * along with the value of each legal move is shown once the search is done. Hints get discarded 
+	 * as soon as the board changes.</p>
+	 *
+	 * @param player player used to search positions, <code>null</code> disables hints
+	 * @param budgetMillis max. time to search each position
+	 */
+	public void setHintPlayer(AIPlayer player,long budgetMillis)
+	{
+		discardHint();
+		this.hintPlayer = player;
+		this.hintBudgetMillis = budgetMillis;
+	}
+
+	private void discardHint()
+	{
+		if ( hint != null ) {
+			hint.cancel( true );
+		}
+		hint = null;
+		hintPosition = null;
+	}
+
+	private void updateHint(BoardState state)
+	{
+		if ( hintPlayer == null || ( hintPosition != null && hintPosition.hasSameTiles( state ) ) ) {
+			return;
+		}
+		// player moved
+		discardHint();
+		if ( ! state.isGameOver() )
+		{
+			hintPosition = state.createCopy();
+			hint = hintPlayer.getHintAsync( state , hintBudgetMillis );
+		}
+	}
+
+	private static Color[] createTileColors()
+	{
+		// white to red up to 2^15, from there on towards magenta
+		final Color[] lower = createGradient(Color.WHITE,Color.RED,15);
+		final Color[] upper = createGradient(Color.RED,Color.MAGENTA,WidePackedBoard.MAX_TILE_VALUE - 15);
+		final Color[] result = new Color[ lower.length + upper.length ];
+		System.arraycopy( lower , 0 , result , 0 , lower.length );
+		System.arraycopy( upper , 0 , result , lower.length , upper.length );
+		return result;
+	}
+
+	/**
+	 * Returns the background color for a tile.
+	 *
+	 * @param value tile value (log2)
+	 * @return
+	 */
+	public static Color getTileColor(int value) {
+		return TILE_COLORS[ Math.max( 0 , Math.min( value , TILE_COLORS.length ) - 1 ) ];
+	}
+
 	private static Color[] createGradient(Color start,Color end,int steps)
 	{
 		float r1 = start.getRed()/255f;
@@ -206,8 +302,8 @@ public final class GameScreen extends JPanel implements ITickListener
 				gfx.dispose();
 			}
 		}
-		buffers[0] = new BufferedImage( WIDTH,HEIGHT, BufferedImage.TYPE_INT_RGB);
-		buffers[1] = new BufferedImage( WIDTH,HEIGHT, BufferedImage.TYPE_INT_RGB);
+		buffers[0] = new BufferedImage( width,height, BufferedImage.TYPE_INT_RGB);
+		buffers[1] = new BufferedImage( width,height, BufferedImage.TYPE_INT_RGB);
 		bufferGfxs[0] = buffers[0].createGraphics();
 		bufferGfxs[1] = buffers[1].createGraphics();
 
@@ -215,10 +311,10 @@ public final class GameScreen extends JPanel implements ITickListener
 		setHQ(bufferGfxs[1]);
 
 		bufferGfxs[0].setColor( getBackground() );
-		bufferGfxs[0].fillRect(0 , 0 , WIDTH , HEIGHT );
+		bufferGfxs[0].fillRect(0 , 0 , width , height );
 
 		bufferGfxs[1].setColor( getBackground() );
-		bufferGfxs[1].fillRect(0 , 0 , WIDTH , HEIGHT );
+		bufferGfxs[1].fillRect(0 , 0 , width , height );
 	}
 
 	@Override
@@ -234,9 +330,12 @@ public final class GameScreen extends JPanel implements ITickListener
 
 	public void render(BoardWithScreenState state)
 	{
+		updateHint( state.getBoard() );
 		synchronized(BUFFER_LOCK)
 		{
+			final Object event = FlightRecorderEvents.beginFrame();
 			doRender(state);
+			FlightRecorderEvents.endFrame( event , tilesDrawn );
 			repaint();
 			try {
 				BUFFER_LOCK.wait();
@@ -253,7 +352,7 @@ public final class GameScreen extends JPanel implements ITickListener
 
 		// clear screen
 		gfx.setColor( COLOR_GRID );
-		gfx.fillRect( 0 , 0 , WIDTH , HEIGHT );
+		gfx.fillRect( 0 , 0 , width , height );
 
 		// draw grid with blank tiles
 		gfx.setBackground( COLOR_GRID );
@@ -261,9 +360,9 @@ public final class GameScreen extends JPanel implements ITickListener
 		final Point p = new Point();
 		final Rectangle r = new Rectangle();
 		final int ARC = 20;
-		for ( int y = 0 ; y < BoardState.GRID_ROWS ; y++ )
+		for ( int y = 0 ; y < rows ; y++ )
 		{
-			for ( int x = 0 ; x < BoardState.GRID_COLS ; x++ )
+			for ( int x = 0 ; x < cols ; x++ )
 			{
 				ScreenState.getTileLocation( x , y , p );
 				final int px = p.x;
@@ -274,37 +373,44 @@ public final class GameScreen extends JPanel implements ITickListener
 
 		// draw tiles
 		gfx.setFont( numberFont );
+		tilesDrawn = 0;
 		state.screenState.visitOccupiedTiles( tile ->
 		{
+			tilesDrawn++;
 			r.x = tile.x;
 			r.y = BOARD_Y_OFFSET + tile.y;
 			r.width = ScreenState.TILE_WIDTH;
 			r.height = ScreenState.TILE_HEIGHT;
-			final int value = 1 << tile.value;
+			final long value = 1L << tile.value;
 
-			gfx.setColor( colors[tile.value-1] );
+			gfx.setColor( getTileColor( tile.value ) );
 			gfx.fillRoundRect( r.x , r.y , r.width, r.height , ARC , ARC  );
 
 			gfx.setColor(COLOR_TILE_FOREGROUND);
-			renderCenteredText( Integer.toString( value ) , r , gfx );
+			renderCenteredText( Long.toString( value ) , r , gfx );
 
 			gfx.setColor( COLOR_GRID );
 			gfx.drawRoundRect( r.x , r.y , r.width, r.height , ARC , ARC  );
 		});
 
+		// render hint once the board is no longer animating
+		if ( hint != null && hint.isDone() && ! hint.isCancelled() && state.screenState.isInSyncWithBoardState() ) {
+			renderHint( hint.join() , gfx );
+		}
+
 		// render score
 		gfx.setFont( textFont );
-		final String text = "Score: "+state.getScore();
+		final String text = "Score: "+state.getBoard().getScore();
 		gfx.setColor( Color.WHITE );
 		gfx.fillRect(0,0,getWidth(), BOARD_Y_OFFSET );
 		gfx.setColor(COLOR_SCORE);
 		gfx.drawString( text,5,30);
 
 		// render game over screen
-		if ( state.isGameOver() ) {
+		if ( state.getBoard().isGameOver() ) {
 			gfx.setColor(COLOR_GAMEOVER);
 			gfx.setFont( gameOverFont );
-			renderCenteredText( "GAME OVER !!!", new Rectangle(0,0,WIDTH,HEIGHT ), gfx );
+			renderCenteredText( "GAME OVER !!!", new Rectangle(0,0,width,height ), gfx );
 		}
 
 		// render button
@@ -313,6 +419,89 @@ public final class GameScreen extends JPanel implements ITickListener
 		swapBuffers();
 	}
 
+	private void renderHint(Hint hint,Graphics2D gfx)
+	{
+		if ( hint.getBestAction() == Action.NONE ) {
+			return;
+		}
+		gfx.setFont( hintFont );
+		final int boardHeight = height - BOARD_Y_OFFSET;
+		for ( Action action : BoardState.TILT_ACTIONS )
+		{
+			final float score = hint.getScore( action );
+			if ( Float.isNaN( score ) ) {
+				continue;
+			}
+			final String label = formatScore( score );
+			final int boxWidth = gfx.getFontMetrics().stringWidth( label ) + 26;
+			final int boxHeight = 22;
+			final int x,y;
+			switch( action )
+			{
+				case TILT_DOWN: // towards y=0 , top of the screen
+					x = (width - boxWidth)/2;
+					y = BOARD_Y_OFFSET + 4;
+					break;
+				case TILT_UP:
+					x = (width - boxWidth)/2;
+					y = height - boxHeight - 4;
+					break;
+				case TILT_LEFT:
+					x = 4;
+					y = BOARD_Y_OFFSET + (boardHeight - boxHeight)/2;
+					break;
+				default:
+					x = width - boxWidth - 4;
+					y = BOARD_Y_OFFSET + (boardHeight - boxHeight)/2;
+			}
+			gfx.setColor( action == hint.getBestAction() ? COLOR_HINT_BEST : COLOR_HINT );
+			gfx.fillRoundRect( x , y , boxWidth , boxHeight , 10 , 10 );
+			gfx.setColor( Color.WHITE );
+			renderArrow( action , x + 11 , y + boxHeight/2 , gfx );
+			renderCenteredText( label , new Rectangle( x + 20 , y , boxWidth - 24 , boxHeight ) , gfx );
+		}
+	}
+
+	private static void renderArrow(Action action,int centerX,int centerY,Graphics2D gfx)
+	{
+		final int s = 6;
+		final Polygon arrow = new Polygon();
+		switch( action )
+		{
+			case TILT_DOWN:
+				arrow.addPoint( centerX , centerY - s );
+				arrow.addPoint( centerX + s , centerY + s );
+				arrow.addPoint( centerX - s , centerY + s );
+				break;
+			case TILT_UP:
+				arrow.addPoint( centerX , centerY + s );
+				arrow.addPoint( centerX + s , centerY - s );
+				arrow.addPoint( centerX - s , centerY - s );
+				break;
+			case TILT_LEFT:
+				arrow.addPoint( centerX - s , centerY );
+				arrow.addPoint( centerX + s , centerY - s );
+				arrow.addPoint( centerX + s , centerY + s );
+				break;
+			default:
+				arrow.addPoint( centerX + s , centerY );
+				arrow.addPoint( centerX - s , centerY - s );
+				arrow.addPoint( centerX - s , centerY + s );
+		}
+		gfx.fillPolygon( arrow );
+	}
+
+	private static String formatScore(float score)
+	{
+		if ( Math.abs( score ) >= 1e6f ) {
+			return String.format( "%.1fM" , score / 1e6f );
+		}
+		if ( Math.abs( score ) >= 1e4f ) {
+			return String.format( "%.1fk" , score / 1e3f );
+		}
+		return Integer.toString( Math.round( score ) );
+	}
+
 	public static final class RenderedButton implements ITickListener
 	{
 		private final Rectangle rect;
@@ -329,6 +518,10 @@ public final class GameScreen extends JPanel implements ITickListener
 		// @GuardedBy(listeners)
 		private float timeUntilRelease;
 
+		// state the image was last rendered with, used to skip re-rendering when nothing changed
+		private boolean imageValid;
+		private boolean imagePressed;
+
 		private final Rectangle tempRect = new Rectangle();
 
 		public RenderedButton(String label,Font font,int x,int y,int width, int height)
@@ -378,8 +571,7 @@ public final class GameScreen extends JPanel implements ITickListener
 		@Override
 		public boolean tick(float deltaSeconds)
 		{
-			final Color front;
-			final Color back;
+			final boolean pressed;
 			synchronized(listeners)
 			{
 				if ( isPressed)
@@ -387,9 +579,16 @@ public final class GameScreen extends JPanel implements ITickListener
 					timeUntilRelease -= deltaSeconds;
 					isPressed = timeUntilRelease > 0;
 				}
-				front = isPressed ? Color.WHITE : Color.BLACK;
-				back  = isPressed ? Color.BLACK : Color.WHITE;
+				pressed = isPressed;
+			}
+			if ( imageValid && imagePressed == pressed ) {
+				return true;
 			}
+			imageValid = true;
+			imagePressed = pressed;
+
+			final Color front = pressed ? Color.WHITE : Color.BLACK;
+			final Color back  = pressed ? Color.BLACK : Color.WHITE;
 			// fill background
 			graphics.setColor( back );
 			graphics.fillRect( 0 , 0 , rect.width , rect.height );
@@ -0,0 +1,587 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import de.codesourcery.j2048.IInputProvider.Action;
+
+/**
+ * Hosts games that are driven by external agents over a localhost TCP connection.
+ *
+ * <p>A single thread serves all connections using non-blocking I/O. Each connection may open any number of
+ * sessions (games), session IDs are only valid on the connection that opened them and all sessions of a connection 
+ * are discarded when it is closed.</p>
+ *
+ * <h3>Protocol</h3>
+ *
+ * <p>All numbers are big-endian. Each request is a frame <code>(int length, byte opcode, payload)</code> with 
+ * <code>length</code> counting the bytes following the length field. Requests get answered in order with 
+ * a frame <code>(int length, byte status, payload)</code>, an error response carries an UTF-8 message as payload.
+ * Requests are validated completely before they get executed, a request that fails does not change any session.</p>
+ *
+ * <table>
+ * <tr><th>Opcode</th><th>Request payload</th><th>Response payload</th></tr>
+ * <tr><td>{@link #OP_OPEN}</td><td>int count, byte cols, byte rows, long seed</td><td>count * int sessionId</td></tr>
+ * <tr><td>{@link #OP_RESET}</td><td>int count, count * int sessionId</td><td>count * observation</td></tr>
+ * <tr><td>{@link #OP_STEP}</td><td>int count, count * (int sessionId, byte action)</td><td>count * observation</td></tr>
+ * <tr><td>{@link #OP_OBSERVE}</td><td>int count, count * int sessionId</td><td>count * observation</td></tr>
+ * <tr><td>{@link #OP_CLOSE}</td><td>int count, count * int sessionId</td><td>(none)</td></tr>
+ * </table>
+ *
+ * <p>Actions are the indices of {@link BoardState#TILT_ACTIONS} (0 = down, 1 = up, 2 = left, 3 = right). A step applies the
+ * action and places a random tile if the board changed, just like the interactive game does.
+ * Observations are <code>(byte flags, byte legal moves, int score, cols*rows * byte tile)</code> with flags being
+ * a combination of {@link #FLAG_MOVED} and {@link #FLAG_GAME_OVER}, legal moves being a bit mask (see {@link BoardState#getLegalMoves()}) 
+ * and tiles being given row by row as logarithms of the tile values (0 = empty).</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class GameServer implements Runnable
+{
+	public static final int DEFAULT_PORT = 2048;
+
+	public static final byte OP_OPEN = 1;
+	public static final byte OP_RESET = 2;
+	public static final byte OP_STEP = 3;
+	public static final byte OP_OBSERVE = 4;
+	public static final byte OP_CLOSE = 5;
+
+	public static final byte STATUS_OK = 0;
+	public static final byte STATUS_ERROR = 1;
+
+	/**
+	 * Observation flag: The last step changed the board.
+	 */
+	public static final int FLAG_MOVED = 1;
+
+	/**
+	 * Observation flag: The game is over.
+	 */
+	public static final int FLAG_GAME_OVER = 2;
+
+	private static final int MAX_FRAME_SIZE = 1 << 20;
+
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	private final ServerSocketChannel serverChannel;
+	private final Selector selector;
+
+	private volatile boolean terminate;
+
+	// number of step requests processed so far
+	private long stepCount;
+
+	private static final class Session
+	{
+		public final BoardState board;
+		public final Random rnd;
+		public boolean moved;
+		// number of the last step request this session was part of
+		public long lastStep;
+
+		public Session(int cols,int rows,long seed)
+		{
+			this.board = new BoardState( cols , rows );
+			this.rnd = new Random( seed );
+			reset();
+		}
+
+		public void reset()
+		{
+			board.reset();
+			board.placeRandomTile( rnd );
+			moved = false;
+		}
+
+		public void step(Action action) {
+			moved = Main.processInput( board , action , rnd );
+		}
+
+		public int getObservationSize() {
+			return 6 + board.getColumnCount() * board.getRowCount();
+		}
+
+		public void writeObservation(ByteBuffer out) {
+			writeObservation( out , board.getLegalMoves() , board.isGameOver() );
+		}
+
+		public void writeObservation(ByteBuffer out,int legalMoves,boolean gameOver)
+		{
+			final int flags = ( moved ? FLAG_MOVED : 0 ) | ( gameOver ? FLAG_GAME_OVER : 0 );
+			out.put( (byte) flags );
+			out.put( (byte) legalMoves );
+			out.putInt( board.getScore() );
+			for ( int y = 0 , rows = board.getRowCount() ; y < rows ; y++ )
+			{
+				for ( int x = 0 , cols = board.getColumnCount() ; x < cols ; x++ ) {
+					out.put( (byte) board.getTile( x , y ) );
+				}
+			}
+		}
+	}
+
+	private static final class Connection
+	{
+		public final SocketChannel channel;
+		public final List<Session> sessions = new ArrayList<>();
+		public ByteBuffer in = ByteBuffer.allocateDirect( INITIAL_BUFFER_SIZE );
+		public ByteBuffer out = ByteBuffer.allocateDirect( INITIAL_BUFFER_SIZE );
+
+		public Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		public Session getSession(int id)
+		{
+			final Session result = id >= 0 && id < sessions.size() ? sessions.get( id ) : null;
+			if ( result == null ) {
+				throw new IllegalArgumentException("Unknown session: "+id);
+			}
+			return result;
+		}
+
+		public int openSession(Session session)
+		{
+			final int free = sessions.indexOf( null );
+			if ( free != -1 ) {
+				sessions.set( free , session );
+				return free;
+			}
+			sessions.add( session );
+			return sessions.size()-1;
+		}
+
+		public void ensureCapacity(int bytes)
+		{
+			if ( out.remaining() < bytes )
+			{
+				final ByteBuffer larger = ByteBuffer.allocateDirect( Math.max( 2*out.capacity() , out.position() + bytes ) );
+				out.flip();
+				larger.put( out );
+				out = larger;
+			}
+		}
+	}
+
+	/**
+	 * Create instance listening on a given port of the loopback interface.
+	 *
+	 * @param port port number, 0 to pick any free port
+	 * @throws IOException
+	 */
+	public GameServer(int port) throws IOException
+	{
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind( new InetSocketAddress( InetAddress.getLoopbackAddress() , port ) );
+		serverChannel.configureBlocking( false );
+		serverChannel.register( selector , SelectionKey.OP_ACCEPT );
+	}
+
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Stops the server, {@link #run()} returns shortly afterwards.
+	 */
+	public void terminate()
+	{
+		terminate = true;
+		selector.wakeup();
+	}
+
+	@Override
+	public void run()
+	{
+		try
+		{
+			while ( ! terminate )
+			{
+				selector.select();
+				final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while ( it.hasNext() )
+				{
+					final SelectionKey key = it.next();
+					it.remove();
+					if ( ! key.isValid() ) {
+						continue;
+					}
+					if ( key.isAcceptable() ) {
+						accept();
+						continue;
+					}
+					final Connection connection = (Connection) key.attachment();
+					try
+					{
+						if ( key.isWritable() ) {
+							flush( connection , key );
+						}
+						if ( key.isValid() && key.isReadable() ) {
+							read( connection , key );
+						}
+					}
+					catch(IOException e)
+					{
+						System.err.println("Closing connection "+connection.channel+": "+e.getMessage());
+						close( key );
+					}
+				}
+			}
+		}
+		catch(IOException e) {
+			throw new RuntimeException( e );
+		}
+		finally
+		{
+			for ( SelectionKey key : selector.keys() ) {
+				close( key );
+			}
+			try {
+				selector.close();
+			} catch (IOException e) { /* ignore */ }
+		}
+	}
+
+	private void accept() throws IOException
+	{
+		final SocketChannel channel = serverChannel.accept();
+		if ( channel != null )
+		{
+			channel.configureBlocking( false );
+			channel.socket().setTcpNoDelay( true );
+			channel.register( selector , SelectionKey.OP_READ , new Connection( channel ) );
+		}
+	}
+
+	private static void close(SelectionKey key)
+	{
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) { /* ignore */ }
+	}
+
+	private void read(Connection connection,SelectionKey key) throws IOException
+	{
+		if ( connection.channel.read( connection.in ) == -1 ) {
+			close( key );
+			return;
+		}
+
+		final ByteBuffer in = connection.in;
+		in.flip();
+		final int dataEnd = in.limit();
+		while ( in.remaining() >= 4 )
+		{
+			final int length = in.getInt( in.position() );
+			if ( length < 1 || length > MAX_FRAME_SIZE ) {
+				throw new IOException("Invalid frame length: "+length);
+			}
+			if ( in.remaining() < 4 + length ) 
+			{
+				if ( in.capacity() < 4 + length ) 
+				{
+					final ByteBuffer larger = ByteBuffer.allocateDirect( 4 + length );
+					larger.put( in );
+					larger.flip();
+					connection.in = larger;
+				}
+				break;
+			}
+			final int end = in.position() + 4 + length;
+			in.position( in.position() + 4 );
+			in.limit( end );
+			process( connection , in );
+			in.limit( dataEnd ).position( end );
+		}
+		compact( connection , in );
+		flush( connection , key );
+	}
+
+	private static void compact(Connection connection,ByteBuffer in) 
+	{
+		if ( connection.in == in ) {
+			in.compact();
+		} else {
+			// buffer got replaced by a larger one
+			connection.in.position( connection.in.limit() ).limit( connection.in.capacity() );
+		}
+	}
+
+	private void flush(Connection connection,SelectionKey key) throws IOException
+	{
+		final ByteBuffer out = connection.out;
+		out.flip();
+		connection.channel.write( out );
+		out.compact();
+		// stop reading requests until the client has picked up all responses
+		key.interestOps( out.position() > 0 ? SelectionKey.OP_WRITE : SelectionKey.OP_READ );
+	}
+
+	private void process(Connection connection,ByteBuffer request)
+	{
+		final int start = connection.out.position();
+		try
+		{
+			connection.ensureCapacity( 5 );
+			connection.out.position( start + 5 );
+			final byte opcode = request.get();
+			switch( opcode )
+			{
+				case OP_OPEN:    open( connection , request ); break;
+				case OP_RESET:   reset( connection , request ); break;
+				case OP_STEP:    step( connection , request ); break;
+				case OP_OBSERVE: observe( connection , request ); break;
+				case OP_CLOSE:   closeSessions( connection , request ); break;
+				default:
+					throw new IllegalArgumentException("Unknown opcode: "+opcode);
+			}
+			final ByteBuffer out = connection.out;
+			out.putInt( start , out.position() - start - 4 );
+			out.put( start + 4 , STATUS_OK );
+		}
+		catch(IllegalArgumentException | BufferUnderflowException e)
+		{
+			final String msg = e instanceof BufferUnderflowException ? "Truncated request" : e.getMessage();
+			final byte[] bytes = ( msg == null ? e.getClass().getName() : msg ).getBytes( StandardCharsets.UTF_8 );
+			connection.out.position( start );
+			connection.ensureCapacity( 5 + bytes.length );
+			connection.out.putInt( 1 + bytes.length ).put( STATUS_ERROR ).put( bytes );
+		}
+	}
+
+	private static int readCount(ByteBuffer request,int bytesPerItem)
+	{
+		final int count = request.getInt();
+		if ( count < 0 || (long) count * bytesPerItem > request.remaining() ) {
+			throw new IllegalArgumentException("Invalid count: "+count);
+		}
+		return count;
+	}
+
+	/*
+	 * Must be called after parsing a request and before executing it.
+	 */
+	private static void checkFullyRead(ByteBuffer request) 
+	{
+		if ( request.hasRemaining() ) {
+			throw new IllegalArgumentException("Trailing bytes in request");
+		}
+	}
+
+	private static Session[] readSessions(Connection connection,ByteBuffer request)
+	{
+		final Session[] result = new Session[ readCount( request , 4 ) ];
+		for ( int i = 0 ; i < result.length ; i++ ) {
+			result[i] = connection.getSession( request.getInt() );
+		}
+		checkFullyRead( request );
+		return result;
+	}
+
+	private void open(Connection connection,ByteBuffer request)
+	{
+		final int count = request.getInt();
+		final int cols = request.get();
+		final int rows = request.get();
+		final long seed = request.getLong();
+		if ( count < 0 || count > MAX_FRAME_SIZE / 4 ) {
+			throw new IllegalArgumentException("Invalid count: "+count);
+		}
+		if ( cols < BoardState.MIN_GRID_SIZE || cols > BoardState.MAX_GRID_SIZE || rows < BoardState.MIN_GRID_SIZE || rows > BoardState.MAX_GRID_SIZE ) {
+			throw new IllegalArgumentException("Unsupported grid size "+cols+"x"+rows);
+		}
+		checkFullyRead( request );
+		connection.ensureCapacity( 4 * count );
+		for ( int i = 0 ; i < count ; i++ ) {
+			connection.out.putInt( connection.openSession( new Session( cols , rows , seed + i ) ) );
+		}
+	}
+
+	private void reset(Connection connection,ByteBuffer request)
+	{
+		for ( Session session : readSessions( connection , request ) )
+		{
+			session.reset();
+			connection.ensureCapacity( session.getObservationSize() );
+			session.writeObservation( connection.out );
+		}
+	}
+
+	private void step(Connection connection,ByteBuffer request)
+	{
+		final int count = readCount( request , 5 );
+		final Session[] sessions = new Session[ count ];
+		final Action[] actions = new Action[ count ];
+		for ( int i = 0 ; i < count ; i++ )
+		{
+			sessions[i] = connection.getSession( request.getInt() );
+			final int action = request.get();
+			if ( action < 0 || action >= BoardState.TILT_ACTIONS.length ) {
+				throw new IllegalArgumentException("Invalid action: "+action);
+			}
+			actions[i] = BoardState.TILT_ACTIONS[action];
+		}
+		checkFullyRead( request );
+
+		final Object event = FlightRecorderEvents.beginTiltBatch();
+		final int moved = isSteppedOnce( sessions ) ? stepBatched( connection , sessions , actions ) : stepSequentially( connection , sessions , actions );
+		FlightRecorderEvents.endTiltBatch( event , count , moved );
+	}
+
+	private boolean isSteppedOnce(Session[] sessions) 
+	{
+		final long step = ++stepCount;
+		boolean result = true;
+		for ( Session session : sessions ) 
+		{
+			if ( session.lastStep == step ) {
+				result = false;
+			}
+			session.lastStep = step;
+		}
+		return result;
+	}
+
+	private static int stepSequentially(Connection connection,Session[] sessions,Action[] actions) 
+	{
+		int moved = 0;
+		for ( int i = 0 ; i < sessions.length ; i++ )
+		{
+			final Session session = sessions[i];
+			session.step( actions[i] );
+			if ( session.moved ) {
+				moved++;
+			}
+			connection.ensureCapacity( session.getObservationSize() );
+			session.writeObservation( connection.out );
+		}
+		return moved;
+	}
+
+	/*
+	 * Steps sessions that occur only once in the request, so the order of the steps does not matter.
+	 * 
+	 * 4x4 boards that can be packed are tilted using the PackedBoard batch operations (one batch per 
+	 * direction), all other boards get stepped one by one.
+	 */
+	private static int stepBatched(Connection connection,Session[] sessions,Action[] actions) 
+	{
+		final int count = sessions.length;
+		final long[] boards = new long[ count ];
+		final long[] results = new long[ count ];
+		final int[] scores = new int[ count ];
+		final int[] indices = new int[ count ];
+		final boolean[] packed = new boolean[ count ];
+
+		int moved = 0;
+		for ( Action action : BoardState.TILT_ACTIONS ) 
+		{
+			int batchSize = 0;
+			for ( int i = 0 ; i < count ; i++ ) 
+			{
+				if ( actions[i] == action && PackedBoard.canPack( sessions[i].board ) ) 
+				{
+					packed[i] = true;
+					indices[ batchSize ] = i;
+					boards[ batchSize++ ] = PackedBoard.pack( sessions[i].board );
+				}
+			}
+			moved += PackedBoard.tilt( action , boards , results , batchSize );
+			PackedBoard.getScore( action , boards , scores , batchSize );
+			for ( int j = 0 ; j < batchSize ; j++ ) 
+			{
+				final Session session = sessions[ indices[j] ];
+				session.moved = results[j] != boards[j];
+				if ( session.moved ) 
+				{
+					// same as BoardState#move(), a board that changed cannot be full
+					session.board.loadPacked( results[j] , scores[j] );
+					session.board.placeRandomTile( session.rnd );
+				}
+			}
+		}
+
+		int batchSize = 0;
+		for ( int i = 0 ; i < count ; i++ ) 
+		{
+			if ( packed[i] ) {
+				boards[ batchSize++ ] = PackedBoard.pack( sessions[i].board );
+			} 
+			else 
+			{
+				sessions[i].step( actions[i] );
+				if ( sessions[i].moved ) {
+					moved++;
+				}
+			}
+		}
+		final int[] legalMoves = scores;
+		final boolean[] gameOver = new boolean[ batchSize ];
+		PackedBoard.getLegalMoves( boards , legalMoves , batchSize );
+		PackedBoard.isGameOver( boards , gameOver , batchSize );
+
+		for ( int i = 0 , j = 0 ; i < count ; i++ )
+		{
+			final Session session = sessions[i];
+			connection.ensureCapacity( session.getObservationSize() );
+			if ( packed[i] ) {
+				session.writeObservation( connection.out , legalMoves[j] , gameOver[j++] );
+			} else {
+				session.writeObservation( connection.out );
+			}
+		}
+		return moved;
+	}
+
+	private void observe(Connection connection,ByteBuffer request)
+	{
+		for ( Session session : readSessions( connection , request ) )
+		{
+			connection.ensureCapacity( session.getObservationSize() );
+			session.writeObservation( connection.out );
+		}
+	}
+
+	private void closeSessions(Connection connection,ByteBuffer request)
+	{
+		final int[] ids = new int[ readCount( request , 4 ) ];
+		for ( int i = 0 ; i < ids.length ; i++ ) 
+		{
+			ids[i] = request.getInt();
+			connection.getSession( ids[i] );
+		}
+		checkFullyRead( request );
+		for ( int id : ids ) {
+			connection.sessions.set( id , null );
+		}
+	}
+}
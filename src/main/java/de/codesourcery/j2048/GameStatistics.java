@@ -0,0 +1,453 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Statistics about finished games (highest tile, score and number of moves), move latencies and
+ * input latencies (time between a key press and the first frame showing its outcome).
+ *
+ * <p>Instances are thread-safe and may be updated by many games in parallel: Counters are striped across
+ * several arrays (selected by the id of the updating thread) and only merged when taking a {@link #snapshot()}, so
+ * concurrent updates rarely touch the same cache line.</p>
+ *
+ * <p>Scores, move counts and latencies are recorded in log-linear histograms: Values are grouped by their 
+ * highest set bit and each such range is further split into {@link #SUB_BUCKETS} equally sized buckets, limiting the 
+ * relative error to <code>1/{@value #SUB_BUCKETS}</code> (like HdrHistogram does).</p>
+ *
+ * <p>If the {@link #FILE_PROPERTY} system property is set, the statistics of the {@link #getDefault() default instance} 
+ * get written to that file when the JVM shuts down, as JSON if the file name ends with '.json' and CSV otherwise.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class GameStatistics
+{
+	/**
+	 * System property holding the file the default statistics get exported to on shutdown.
+	 */
+	public static final String FILE_PROPERTY = "j2048.statistics.file";
+
+	private static final int SUB_BUCKET_BITS = 4;
+
+	/**
+	 * Number of buckets each power of two is split into.
+	 */
+	public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	// values >= 2^MAX_EXPONENT end up in the last bucket
+	private static final int MAX_EXPONENT = 40;
+
+	/**
+	 * Number of buckets of each histogram.
+	 */
+	public static final int BUCKETS = ( MAX_EXPONENT - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS;
+
+	// layout of each stripe
+	private static final int GAMES = 0;
+	private static final int TOTAL_SCORE = 1;
+	private static final int TOTAL_MOVES = 2;
+	private static final int TOTAL_LATENCY = 3;
+	private static final int TOTAL_INPUT_LATENCY = 4;
+	private static final int MAX_TILE = 5;
+	private static final int SCORE = MAX_TILE + WidePackedBoard.MAX_TILE_VALUE + 1;
+	private static final int MOVES = SCORE + BUCKETS;
+	private static final int LATENCY = MOVES + BUCKETS;
+	private static final int INPUT_LATENCY = LATENCY + BUCKETS;
+	private static final int STRIPE_SIZE = INPUT_LATENCY + BUCKETS;
+
+	private static GameStatistics defaultInstance;
+
+	private final AtomicLongArray[] stripes;
+
+	public GameStatistics()
+	{
+		final int cpus = Runtime.getRuntime().availableProcessors();
+		stripes = new AtomicLongArray[ Integer.highestOneBit( Math.max( 1 , 2*cpus - 1 ) ) << 1 ];
+		for ( int i = 0 ; i < stripes.length ; i++ ) {
+			stripes[i] = new AtomicLongArray( STRIPE_SIZE );
+		}
+	}
+
+	/**
+	 * Returns the instance shared by all {@link AIPlayer}s.
+	 *
+	 * @return
+	 */
+	public static synchronized GameStatistics getDefault()
+	{
+		if ( defaultInstance == null )
+		{
+			defaultInstance = new GameStatistics();
+			final String file = System.getProperty( FILE_PROPERTY );
+			if ( file != null )
+			{
+				final GameStatistics stats = defaultInstance;
+				Runtime.getRuntime().addShutdownHook( new Thread( () -> 
+				{
+					try {
+						stats.snapshot().export( new File( file ) );
+					} 
+					catch (IOException e) {
+						System.err.println("Failed to write statistics to "+file+": "+e.getMessage());
+					}
+				}, "statistics-export" ) );
+			}
+		}
+		return defaultInstance;
+	}
+
+	private AtomicLongArray stripe()
+	{
+		// Fibonacci hashing so consecutive thread IDs end up in different stripes
+		final long hash = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+		return stripes[ (int) ( hash >>> 32 ) & (stripes.length-1) ];
+	}
+
+	/**
+	 * Records a finished game.
+	 *
+	 * @param highestTile highest tile value (as returned by {@link BoardState#getHighestTileValue()})
+	 * @param score
+	 * @param moves number of moves made
+	 */
+	public void recordGame(int highestTile,int score,int moves)
+	{
+		final AtomicLongArray stripe = stripe();
+		stripe.incrementAndGet( GAMES );
+		stripe.addAndGet( TOTAL_SCORE , score );
+		stripe.addAndGet( TOTAL_MOVES , moves );
+		stripe.incrementAndGet( MAX_TILE + ( highestTile <= 0 ? 0 : 31 - Integer.numberOfLeadingZeros( highestTile ) ) );
+		stripe.incrementAndGet( SCORE + getBucket( score ) );
+		stripe.incrementAndGet( MOVES + getBucket( moves ) );
+	}
+
+	/**
+	 * Records the time it took to determine a move.
+	 *
+	 * @param nanos
+	 */
+	public void recordMoveLatency(long nanos)
+	{
+		final AtomicLongArray stripe = stripe();
+		final long micros = nanos / 1000;
+		stripe.addAndGet( TOTAL_LATENCY , micros );
+		stripe.incrementAndGet( LATENCY + getBucket( micros ) );
+	}
+
+	/**
+	 * Records the time between a key press and the first frame showing its outcome.
+	 *
+	 * @param nanos
+	 */
+	public void recordInputLatency(long nanos)
+	{
+		final AtomicLongArray stripe = stripe();
+		final long micros = Math.max( 0 , nanos / 1000 );
+		stripe.addAndGet( TOTAL_INPUT_LATENCY , micros );
+		stripe.incrementAndGet( INPUT_LATENCY + getBucket( micros ) );
+	}
+
+	/**
+	 * Returns the histogram bucket a value belongs to.
+	 *
+	 * @param value
+	 * @return
+	 */
+	public static int getBucket(long value)
+	{
+		if ( value < SUB_BUCKETS ) {
+			return (int) Math.max( 0 , value );
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros( value );
+		if ( exponent >= MAX_EXPONENT ) {
+			return BUCKETS-1;
+		}
+		final int shift = exponent - SUB_BUCKET_BITS;
+		return ( ( shift + 1 ) << SUB_BUCKET_BITS ) + (int) ( ( value >>> shift ) & (SUB_BUCKETS-1) );
+	}
+
+	/**
+	 * Returns the smallest value that belongs to a bucket.
+	 *
+	 * @param bucket
+	 * @return
+	 */
+	public static long getBucketLowerBound(int bucket)
+	{
+		if ( bucket < SUB_BUCKETS ) {
+			return bucket;
+		}
+		final int shift = ( bucket >>> SUB_BUCKET_BITS ) - 1;
+		return (long) ( SUB_BUCKETS | ( bucket & (SUB_BUCKETS-1) ) ) << shift;
+	}
+
+	/**
+	 * Returns the smallest value larger than all values that belong to a bucket.
+	 *
+	 * @param bucket
+	 * @return
+	 */
+	public static long getBucketUpperBound(int bucket) {
+		return bucket == BUCKETS-1 ? Long.MAX_VALUE : getBucketLowerBound( bucket+1 );
+	}
+
+	/**
+	 * Merges all stripes into an immutable snapshot.
+	 *
+	 * <p>Updates that happen concurrently may or may not be included.</p>
+	 *
+	 * @return
+	 */
+	public Snapshot snapshot()
+	{
+		final long[] sum = new long[ STRIPE_SIZE ];
+		for ( AtomicLongArray stripe : stripes )
+		{
+			for ( int i = 0 ; i < STRIPE_SIZE ; i++ ) {
+				sum[i] += stripe.get( i );
+			}
+		}
+		return new Snapshot( sum );
+	}
+
+	/**
+	 * Immutable copy of the statistics.
+	 */
+	public static final class Snapshot
+	{
+		private final long[] data;
+
+		private Snapshot(long[] data) {
+			this.data = data;
+		}
+
+		public long getGameCount() {
+			return data[GAMES];
+		}
+
+		public long getMoveLatencyCount() {
+			return sum( LATENCY );
+		}
+
+		public long getInputLatencyCount() {
+			return sum( INPUT_LATENCY );
+		}
+
+		public double getAverageScore() {
+			return average( TOTAL_SCORE , getGameCount() );
+		}
+
+		public double getAverageMoves() {
+			return average( TOTAL_MOVES , getGameCount() );
+		}
+
+		public double getAverageMoveLatencyMicros() {
+			return average( TOTAL_LATENCY , getMoveLatencyCount() );
+		}
+
+		public double getAverageInputLatencyMicros() {
+			return average( TOTAL_INPUT_LATENCY , getInputLatencyCount() );
+		}
+
+		private double average(int index,long count) {
+			return count == 0 ? 0 : data[index] / (double) count;
+		}
+
+		private long sum(int offset)
+		{
+			long result = 0;
+			for ( int i = 0 ; i < BUCKETS ; i++ ) {
+				result += data[offset+i];
+			}
+			return result;
+		}
+
+		/**
+		 * Returns the number of games that ended with a given highest tile.
+		 *
+		 * @param tileValue tile value (log2)
+		 * @return
+		 */
+		public long getHighestTileCount(int tileValue) {
+			return tileValue < 0 || tileValue > WidePackedBoard.MAX_TILE_VALUE ? 0 : data[ MAX_TILE + tileValue ];
+		}
+
+		public long getScoreCount(int bucket) {
+			return data[ SCORE + bucket ];
+		}
+
+		public long getMovesCount(int bucket) {
+			return data[ MOVES + bucket ];
+		}
+
+		public long getMoveLatencyCount(int bucket) {
+			return data[ LATENCY + bucket ];
+		}
+
+		public long getInputLatencyCount(int bucket) {
+			return data[ INPUT_LATENCY + bucket ];
+		}
+
+		/**
+		 * Returns the (upper bound of the bucket holding the) score that the given percentage of games did not exceed.
+		 */
+		public long getScorePercentile(double percent) {
+			return percentile( SCORE , getGameCount() , percent );
+		}
+
+		/**
+		 * Returns the (upper bound of the bucket holding the) move latency in microseconds that the given percentage of moves did not exceed.
+		 */
+		public long getMoveLatencyPercentileMicros(double percent) {
+			return percentile( LATENCY , getMoveLatencyCount() , percent );
+		}
+
+		/**
+		 * Returns the (upper bound of the bucket holding the) input latency in microseconds that the given percentage of key presses did not exceed.
+		 */
+		public long getInputLatencyPercentileMicros(double percent) {
+			return percentile( INPUT_LATENCY , getInputLatencyCount() , percent );
+		}
+
+		private long percentile(int offset,long total,double percent)
+		{
+			final long threshold = (long) Math.ceil( total * percent / 100.0 );
+			long count = 0;
+			for ( int i = 0 ; i < BUCKETS ; i++ )
+			{
+				count += data[offset+i];
+				if ( count > 0 && count >= threshold ) {
+					return getBucketUpperBound( i ) - 1;
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * Writes the snapshot to a file, as JSON if the file name ends with '.json' and as CSV otherwise.
+		 *
+		 * @param file
+		 * @throws IOException
+		 */
+		public void export(File file) throws IOException
+		{
+			try ( Writer writer = new FileWriter( file ) )
+			{
+				if ( file.getName().toLowerCase(Locale.ROOT).endsWith(".json") ) {
+					writeJson( writer );
+				} else {
+					writeCsv( writer );
+				}
+			}
+		}
+
+		/**
+		 * Writes all non-empty histogram buckets as CSV lines (histogram,from,to,count), 
+		 * value ranges are inclusive. Latencies are given in microseconds.
+		 *
+		 * @param writer
+		 * @throws IOException
+		 */
+		public void writeCsv(Writer writer) throws IOException
+		{
+			writer.write("histogram,from,to,count\n");
+			for ( int i = 0 ; i <= WidePackedBoard.MAX_TILE_VALUE ; i++ ) 
+			{
+				if ( getHighestTileCount( i ) != 0 ) {
+					final long value = 1L << i;
+					writer.write( "highest_tile,"+value+","+value+","+getHighestTileCount( i )+"\n" );
+				}
+			}
+			writeCsv( "score" , SCORE , writer );
+			writeCsv( "moves" , MOVES , writer );
+			writeCsv( "move_latency_us" , LATENCY , writer );
+			writeCsv( "input_latency_us" , INPUT_LATENCY , writer );
+		}
+
+		private void writeCsv(String name,int offset,Writer writer) throws IOException
+		{
+			for ( int i = 0 ; i < BUCKETS ; i++ ) 
+			{
+				if ( data[offset+i] != 0 ) {
+					writer.write( name+","+getBucketLowerBound( i )+","+(getBucketUpperBound( i )-1)+","+data[offset+i]+"\n" );
+				}
+			}
+		}
+
+		/**
+		 * Writes the snapshot as a JSON object. Latencies are given in microseconds.
+		 *
+		 * @param writer
+		 * @throws IOException
+		 */
+		public void writeJson(Writer writer) throws IOException
+		{
+			writer.write("{\n");
+			writer.write("  \"games\": "+getGameCount()+",\n");
+			writer.write("  \"averageScore\": "+getAverageScore()+",\n");
+			writer.write("  \"averageMoves\": "+getAverageMoves()+",\n");
+			writer.write("  \"averageMoveLatencyMicros\": "+getAverageMoveLatencyMicros()+",\n");
+			writer.write("  \"averageInputLatencyMicros\": "+getAverageInputLatencyMicros()+",\n");
+			writer.write("  \"highestTile\": {");
+			boolean first = true;
+			for ( int i = 0 ; i <= WidePackedBoard.MAX_TILE_VALUE ; i++ ) 
+			{
+				if ( getHighestTileCount( i ) != 0 ) 
+				{
+					writer.write( ( first ? " " : ", " )+"\""+(1L << i)+"\": "+getHighestTileCount( i ) );
+					first = false;
+				}
+			}
+			writer.write(" },\n");
+			writeJson( "score" , SCORE , writer );
+			writer.write(",\n");
+			writeJson( "moves" , MOVES , writer );
+			writer.write(",\n");
+			writeJson( "moveLatencyMicros" , LATENCY , writer );
+			writer.write(",\n");
+			writeJson( "inputLatencyMicros" , INPUT_LATENCY , writer );
+			writer.write("\n}\n");
+		}
+
+		private void writeJson(String name,int offset,Writer writer) throws IOException
+		{
+			writer.write("  \""+name+"\": [");
+			boolean first = true;
+			for ( int i = 0 ; i < BUCKETS ; i++ ) 
+			{
+				if ( data[offset+i] != 0 ) 
+				{
+					writer.write( ( first ? "\n" : ",\n" )+"    { \"from\": "+getBucketLowerBound( i )+", \"to\": "+(getBucketUpperBound( i )-1)+", \"count\": "+data[offset+i]+" }" );
+					first = false;
+				}
+			}
+			writer.write( first ? "]" : "\n  ]" );
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format( "%d games , avg. score %.0f , avg. moves %.0f , move latency p50/p99 %d/%d us" ,
+					getGameCount() , getAverageScore() , getAverageMoves() , getMoveLatencyPercentileMicros( 50 ) , getMoveLatencyPercentileMicros( 99 ) );
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import de.codesourcery.j2048.IInputProvider.Action;
+
+/**
+ * Recommendation for the next move, as calculated by {@link AIPlayer#getHintAsync(BoardState, long)}.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class Hint
+{
+	/**
+	 * Hint for a position without any information (no legal moves or no search completed in time).
+	 */
+	public static final Hint NONE = new Hint( new float[ BoardState.TILT_ACTIONS.length ] , 0 );
+
+	private final float[] scores;
+	private final int depth;
+	private final Action bestAction;
+
+	/**
+	 * Create instance.
+	 *
+	 * @param scores search results indexed like {@link BoardState#TILT_ACTIONS}, <code>NaN</code> for illegal moves 
+	 * @param depth search depth the scores were calculated with
+	 */
+	public Hint(float[] scores,int depth)
+	{
+		this.scores = scores.clone();
+		this.depth = depth;
+		Action best = Action.NONE;
+		for ( int i = 0 ; i < scores.length ; i++ )
+		{
+			if ( ! Float.isNaN( scores[i] ) && ( best == Action.NONE || scores[i] > getScore( best ) ) ) {
+				best = BoardState.TILT_ACTIONS[i];
+			}
+		}
+		this.bestAction = depth > 0 ? best : Action.NONE;
+	}
+
+	/**
+	 * Returns the recommended move.
+	 *
+	 * @return recommended move or {@link Action#NONE}
+	 */
+	public Action getBestAction() {
+		return bestAction;
+	}
+
+	/**
+	 * Returns the minimax value of a move.
+	 *
+	 * @param action
+	 * @return value or <code>NaN</code> if the move is not legal or unknown
+	 */
+	public float getScore(Action action)
+	{
+		for ( int i = 0 ; i < BoardState.TILT_ACTIONS.length ; i++ )
+		{
+			if ( BoardState.TILT_ACTIONS[i] == action ) {
+				return depth > 0 ? scores[i] : Float.NaN;
+			}
+		}
+		return Float.NaN;
+	}
+
+	/**
+	 * Returns the search depth (in plies) the hint is based on.
+	 *
+	 * @return depth, 0 if nothing is known
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	@Override
+	public String toString() {
+		return "Hint[ best: "+bestAction+" , depth: "+depth+" ]";
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+/**
+ * Receives the state transitions of a {@link BoardState}.
+ *
+ * <p>Each tilt is reported as a batch ({@link #startBatch()} ... {@link #endBatch()})
+ * of tile events, separated into phases (moving, merging, moving again) by {@link #syncPoint()}.
+ * When the tilt is part of a {@link BoardState#move(de.codesourcery.j2048.IInputProvider.Action, java.util.Random) move},
+ * the tile placed afterwards is reported as the last phase of the same batch.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public interface IBoardListener
+{
+	/**
+	 * Invoked when the board got cleared.
+	 */
+	public void reset();
+
+	/**
+	 * Invoked when a tilt starts.
+	 */
+	public void startBatch();
+
+	/**
+	 * Invoked after each phase of a tilt, all events of the current phase
+	 * need to be processed before any event of the next phase.
+	 */
+	public void syncPoint();
+
+	/**
+	 * Invoked when a tilt is finished.
+	 */
+	public void endBatch();
+
+	/**
+	 * Invoked when a tile moved to an empty location.
+	 *
+	 * @param initialX
+	 * @param initialY
+	 * @param x
+	 * @param y
+	 */
+	public void moveTile(int initialX,int initialY,int x,int y);
+
+	/**
+	 * Invoked when a tile moved onto a tile with the same value.
+	 *
+	 * @param srcX
+	 * @param srcY
+	 * @param dstX
+	 * @param dstY
+	 * @param value value (log2) of the merged tile
+	 */
+	public void mergeTile(int srcX,int srcY,int dstX,int dstY,int value);
+
+	/**
+	 * Invoked when a tile got placed onto the board.
+	 *
+	 * @param x
+	 * @param y
+	 * @param value (log2)
+	 */
+	public void setTile(int x,int y,int value);
+}
@@ -16,6 +16,7 @@
 package de.codesourcery.j2048;
 
 import java.awt.Component;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Abstraction for receiving either input from either the user or the AI,
@@ -41,6 +42,55 @@ public interface IInputProvider
 	 * @return
 	 */
 	public Action getAction(BoardState state);
+
+	/**
+	 * Returns the current action for a given board state without blocking the caller.
+	 * 
+	 * <p>Implementations must not access the board state after this method returned, cancelling
+	 * the returned future indicates that the action is no longer needed.</p>
+	 * 
+	 * <p>The default implementation simply invokes {@link #getAction(BoardState)}, input providers 
+	 * that may block for a considerable amount of time should override this method.</p>
+	 * 
+	 * @param state
+	 * @return
+	 */
+	public default CompletableFuture<Action> getActionAsync(BoardState state) {
+		return CompletableFuture.completedFuture( getAction( state ) );
+	}
+	
+	/**
+	 * Returns whether this input provider buffers actions that were triggered independently of the game loop.
+	 * 
+	 * <p>The game loop applies buffered actions right away, skipping any animations still in progress. Actions
+	 * of all other input providers are only requested once the previous move has been displayed completely.</p>
+	 * 
+	 * <p>The default implementation returns <code>false</code>.</p>
+	 * 
+	 * @return
+	 */
+	public default boolean isBuffering() {
+		return false;
+	}
+
+	/**
+	 * Invoked by the game loop when an action returned by this input provider 
+	 * changed the game (a legal move or a restart).
+	 * 
+	 * <p>The default implementation does nothing.</p>
+	 * 
+	 * @param action
+	 */
+	public default void actionApplied(Action action) {
+	}
+
+	/**
+	 * Invoked by the game loop each time a frame has been put on screen.
+	 * 
+	 * <p>The default implementation does nothing.</p>
+	 */
+	public default void frameDisplayed() {
+	}
 	
 	/**
 	 * Attaches this input provider to its UI peer. 
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.codesourcery.j2048.IInputProvider.Action;
+
+/**
+ * Bounded, lock-free queue of timestamped actions for exactly one producer thread 
+ * (for example the AWT event dispatch thread) and one consumer thread (the game loop).
+ *
+ * <p>Actions are stored in a ring buffer, the producer and the consumer each only ever write their own
+ * position counter and publish it with an ordered store so neither side needs to take any locks.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class InputQueue
+{
+	private final Action[] actions;
+	private final long[] timestamps;
+	private final int mask;
+
+	// index of the next slot to read, only written by the consumer
+	private final AtomicLong head = new AtomicLong();
+	// index of the next slot to write, only written by the producer
+	private final AtomicLong tail = new AtomicLong();
+
+	// producer's copy of head, only refreshed when the queue seems to be full
+	private long cachedHead;
+	// timestamp of the action last returned by poll(), only accessed by the consumer
+	private long polledTimestamp;
+
+	/**
+	 * Create instance.
+	 *
+	 * @param capacity max. number of queued actions, rounded up to the next power of two
+	 */
+	public InputQueue(int capacity)
+	{
+		if ( capacity < 1 || capacity > 1<<30 ) {
+			throw new IllegalArgumentException("Invalid capacity: "+capacity);
+		}
+		final int size = Integer.highestOneBit( capacity - 1 ) << 1;
+		this.actions = new Action[ Math.max( 1 , size ) ];
+		this.timestamps = new long[ actions.length ];
+		this.mask = actions.length - 1;
+	}
+
+	/**
+	 * Enqueues an action, must only be called by the producer thread.
+	 *
+	 * @param action
+	 * @param timestampNanos time the action was triggered (as returned by {@link System#nanoTime()})
+	 * @return <code>false</code> if the queue is full and the action was discarded
+	 */
+	public boolean offer(Action action,long timestampNanos)
+	{
+		final long t = tail.get();
+		if ( t - cachedHead >= actions.length )
+		{
+			cachedHead = head.get();
+			if ( t - cachedHead >= actions.length ) {
+				return false;
+			}
+		}
+		final int index = (int) t & mask;
+		actions[index] = action;
+		timestamps[index] = timestampNanos;
+		// publish slot
+		tail.lazySet( t+1 );
+		return true;
+	}
+
+	/**
+	 * Dequeues the oldest action, must only be called by the consumer thread.
+	 *
+	 * @return action or {@link Action#NONE} if the queue is empty
+	 * @see #getPolledTimestamp()
+	 */
+	public Action poll()
+	{
+		final long h = head.get();
+		if ( h == tail.get() ) {
+			return Action.NONE;
+		}
+		final int index = (int) h & mask;
+		final Action result = actions[index];
+		polledTimestamp = timestamps[index];
+		actions[index] = null;
+		// hand slot back to producer
+		head.lazySet( h+1 );
+		return result;
+	}
+
+	/**
+	 * Returns the timestamp of the action last returned by {@link #poll()}, must only be called by the consumer thread.
+	 *
+	 * @return
+	 */
+	public long getPolledTimestamp() {
+		return polledTimestamp;
+	}
+
+	/**
+	 * Returns the number of queued actions.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return (int) ( tail.get() - head.get() );
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public int getCapacity() {
+		return actions.length;
+	}
+
+	/**
+	 * Discards all queued actions, must only be called by the consumer thread.
+	 */
+	public void clear()
+	{
+		while ( poll() != Action.NONE ) {
+			// drain
+		}
+	}
+}
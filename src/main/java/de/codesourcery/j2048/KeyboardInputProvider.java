@@ -16,6 +16,8 @@
 package de.codesourcery.j2048;
 
 import java.awt.Component;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.util.HashSet;
@@ -24,45 +26,88 @@ import java.util.Set;
 /**
  * Input provider that listens to AWT keyboard events.
  *
+ * <p>Key presses are translated to actions on the event dispatch thread and handed to the game loop
+ * through a lock-free {@link InputQueue}, so moves made while the game loop is busy (for example 
+ * while tiles are still moving) are neither lost nor seen twice. The time between a key press that changed the
+ * game and the first frame showing its outcome is recorded as input latency in the {@link GameStatistics#getDefault() default statistics}.</p>
+ *
  * @author tobias.gierke@code-sourcery.de
  */
 public final class KeyboardInputProvider extends KeyAdapter implements IInputProvider  {
 
-	public final Set<Integer> pressed = new HashSet<>();
-	
+	/**
+	 * Max. number of key presses that are buffered.
+	 */
+	public static final int QUEUE_CAPACITY = 16;
+
+	private final InputQueue queue = new InputQueue( QUEUE_CAPACITY );
+
+	private final GameStatistics statistics;
+
+	// keys currently held down, only accessed by the EDT
+	private final Set<Integer> pressed = new HashSet<>();
+
+	// key release events get lost when the focus changes while a key is held down
+	private final FocusAdapter focusListener = new FocusAdapter() 
+	{
+		@Override
+		public void focusLost(FocusEvent e) {
+			pressed.clear();
+		}
+	};
+
+	// time the last returned action was triggered (only accessed by the game loop)
+	private long polledTimestamp;
+
+	// time the first applied action since the last frame was triggered, 0 once it has been displayed (only accessed by the game loop)
+	private long undisplayedTimestamp;
+
+	public KeyboardInputProvider() {
+		this( GameStatistics.getDefault() );
+	}
+
+	public KeyboardInputProvider(GameStatistics statistics) {
+		this.statistics = statistics;
+	}
+
 	@Override
 	public Action getAction(BoardState state) 
 	{
-		try 
+		final Action result = queue.poll();
+		if ( result != Action.NONE ) {
+			polledTimestamp = queue.getPolledTimestamp();
+		}
+		return result;
+	}
+
+	@Override
+	public boolean isBuffering() {
+		return true;
+	}
+
+	@Override
+	public void actionApplied(Action action) 
+	{
+		if ( undisplayedTimestamp == 0 ) {
+			undisplayedTimestamp = polledTimestamp;
+		}
+	}
+
+	@Override
+	public void frameDisplayed() 
+	{
+		if ( undisplayedTimestamp != 0 ) 
 		{
-			if ( isPressed( KeyEvent.VK_ENTER ) ) {
-				return Action.RESTART;
-			}
-			if ( isPressed( KeyEvent.VK_A ) || isPressed( KeyEvent.VK_LEFT ) )
-			{
-				return Action.TILT_LEFT;
-			}
-			if ( isPressed( KeyEvent.VK_D ) || isPressed( KeyEvent.VK_RIGHT ) )
-			{
-				return Action.TILT_RIGHT;
-			}
-			if ( isPressed( KeyEvent.VK_W ) || isPressed( KeyEvent.VK_UP ) )
-			{
-				return Action.TILT_DOWN;
-			}
-			if ( isPressed( KeyEvent.VK_S ) || isPressed( KeyEvent.VK_DOWN ) )
-			{
-				return Action.TILT_UP;
-			}
-			return Action.NONE;
-		} finally {
-			clearInput();
+			statistics.recordInputLatency( System.nanoTime() - undisplayedTimestamp );
+			undisplayedTimestamp = 0;
 		}
 	}
 
 	@Override
-	public void attach(Component peer) {
+	public void attach(Component peer) 
+	{
 		peer.addKeyListener( this );
+		peer.addFocusListener( focusListener );
 	}
 	
 	@Override 
@@ -71,11 +116,39 @@ public final class KeyboardInputProvider extends KeyAdapter implements IInputPro
 	}
 	
 	@Override 
-	public void keyPressed(KeyEvent e) { 
-		pressed.add( e.getKeyCode() ); 
+	public void keyPressed(KeyEvent e) 
+	{ 
+		// ignore auto-repeat of keys that are held down
+		if ( ! pressed.add( e.getKeyCode() ) ) {
+			return;
+		}
+		final Action action = toAction( e.getKeyCode() );
+		if ( action != Action.NONE ) {
+			// drops the key press if the game loop is too far behind
+			queue.offer( action , System.nanoTime() );
+		}
 	}
-	
-	private boolean isPressed(int keyCode) { return pressed.contains(keyCode); }
-	
-	private void clearInput() { pressed.clear(); }	
-}
\ No newline at end of file
+
+	private static Action toAction(int keyCode) 
+	{
+		switch( keyCode ) 
+		{
+			case KeyEvent.VK_ENTER:
+				return Action.RESTART;
+			case KeyEvent.VK_A:
+			case KeyEvent.VK_LEFT:
+				return Action.TILT_LEFT;
+			case KeyEvent.VK_D:
+			case KeyEvent.VK_RIGHT:
+				return Action.TILT_RIGHT;
+			case KeyEvent.VK_W:
+			case KeyEvent.VK_UP:
+				return Action.TILT_DOWN;
+			case KeyEvent.VK_S:
+			case KeyEvent.VK_DOWN:
+				return Action.TILT_UP;
+			default:
+				return Action.NONE;
+		}
+	}
+}
@@ -15,7 +15,12 @@
  */
 package de.codesourcery.j2048;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import javax.swing.JFrame;
 
@@ -29,40 +34,184 @@ import de.codesourcery.j2048.IInputProvider.Action;
 public class Main
 {
 	public static boolean USE_AI = false;
+
+	/**
+	 * Max. time (in milliseconds) spent searching for a hint.
+	 */
+	public static final long HINT_BUDGET_MILLIS = 250;
+
+	/**
+	 * Max. number of actions of a {@link IInputProvider#isBuffering() buffering} input provider processed per frame.
+	 */
+	public static final int MAX_ACTIONS_PER_FRAME = 16;
 	
 	private final TickListenerContainer tickListeners = new TickListenerContainer();
 	private final Random rnd = new Random(System.currentTimeMillis());
 	private final IInputProvider inputProvider;
+	private final int gridCols;
+	private final int gridRows;
+	private AIPlayer hintPlayer;
 	
 	private volatile IInputProvider.Action uiAction = IInputProvider.Action.NONE;
 	
 	public static void main(String[] args) 
 	{
-		if ( args.length < 1 || ! args[0].equalsIgnoreCase("-ai" ) ) 
+		boolean useAI = false;
+		boolean showHints = false;
+		int dashboardGames = 0;
+		int serverPort = -1;
+		int simulatedGames = 0;
+		int gridSize = BoardState.GRID_COLS;
+		for ( int i = 0 ; i < args.length ; i++ ) 
+		{
+			final String arg = args[i];
+			if ( arg.equalsIgnoreCase("-ai") ) {
+				useAI = true;
+			} 
+			else if ( arg.equalsIgnoreCase("-hints") ) {
+				showHints = true;
+			} 
+			else if ( arg.equalsIgnoreCase("-dashboard") ) 
+			{
+				dashboardGames = 16;
+				if ( i+1 < args.length && ! args[i+1].startsWith("-") ) {
+					dashboardGames = Integer.parseInt( args[++i] );
+				}
+			} 
+			else if ( arg.equalsIgnoreCase("-server") ) 
+			{
+				serverPort = GameServer.DEFAULT_PORT;
+				if ( i+1 < args.length && ! args[i+1].startsWith("-") ) {
+					serverPort = Integer.parseInt( args[++i] );
+				}
+			} 
+			else if ( arg.equalsIgnoreCase("-simulate") ) 
+			{
+				simulatedGames = 16;
+				if ( i+1 < args.length && ! args[i+1].startsWith("-") ) {
+					simulatedGames = Integer.parseInt( args[++i] );
+				}
+			} 
+			else if ( arg.equalsIgnoreCase("-size") && i+1 < args.length ) {
+				gridSize = Integer.parseInt( args[++i] );
+			} 
+			else {
+				System.err.println("Usage: [-ai] [-hints] [-dashboard [number of games]] [-server [port]] [-simulate [number of games]] [-size <"+BoardState.MIN_GRID_SIZE+"..."+BoardState.MAX_GRID_SIZE+">]");
+				System.exit(1);
+			}
+		}
+
+		if ( serverPort != -1 ) 
+		{
+			runServer( serverPort );
+		}
+		else if ( simulatedGames > 0 ) 
+		{
+			runSimulation( simulatedGames , gridSize );
+		}
+		else if ( dashboardGames > 0 ) 
+		{
+			runDashboard( dashboardGames , gridSize );
+		} 
+		else if ( ! useAI ) 
 		{
-			new Main(new KeyboardInputProvider() ).run();
+			final Main main = new Main(new KeyboardInputProvider() , gridSize , gridSize );
+			if ( showHints ) {
+				main.setHintPlayer( new AIPlayer() );
+			}
+			main.run();
 		} else {
 			USE_AI = true;
-			new Main(new AIPlayer() ).run();
+			final AIPlayer player = new AIPlayer();
+			// search ahead while moves are being animated
+			player.setPondering( true );
+			new Main( player , gridSize , gridSize ).run();
 		}
 	}
 
+	private static void runServer(int port) 
+	{
+		final GameServer server;
+		try {
+			server = new GameServer( port );
+		} 
+		catch (IOException e) 
+		{
+			System.err.println("Failed to listen on port "+port+": "+e.getMessage());
+			System.exit(1);
+			return;
+		}
+		System.out.println("Listening on localhost:"+server.getPort());
+		server.run();
+	}
+
+	private static void runSimulation(int gameCount,int gridSize) 
+	{
+		final ThreadPoolExecutor executor = AIPlayer.createExecutor();
+		final TranspositionTable transpositions = AIPlayer.createTranspositionTable();
+		final SearchMetrics metrics = SearchMetrics.register();
+		final SessionRunner runner = new SessionRunner();
+		final long seed = System.currentTimeMillis();
+		for ( int i = 0 ; i < gameCount ; i++ ) {
+			runner.submit( new AIPlayer( executor , transpositions , metrics ) , gridSize , gridSize , seed + i , -1 );
+		}
+		System.out.println("Running "+gameCount+" games on "+( runner.isUsingVirtualThreads() ? "virtual" : "platform" )+" threads");
+		while ( true ) 
+		{
+			try {
+				Thread.sleep( 10000 );
+			} 
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			System.out.println( runner.getStatistics().snapshot() );
+		}
+	}
+
+	private static void runDashboard(int gameCount,int gridSize) 
+	{
+		final ThreadPoolExecutor executor = AIPlayer.createExecutor();
+		final TranspositionTable transpositions = AIPlayer.createTranspositionTable();
+		final SearchMetrics metrics = SearchMetrics.register();
+		final List<IInputProvider> players = new ArrayList<>();
+		for ( int i = 0 ; i < gameCount ; i++ ) {
+			players.add( new AIPlayer( executor , transpositions , metrics ) );
+		}
+		new Dashboard( players , System.currentTimeMillis() , gridSize , gridSize ).run();
+	}
+
 	public Main(IInputProvider keyListener) {
+		this(keyListener,BoardState.GRID_COLS,BoardState.GRID_ROWS);
+	}
+
+	public Main(IInputProvider keyListener,int gridCols,int gridRows) {
 		this.inputProvider = keyListener;
+		this.gridCols = gridCols;
+		this.gridRows = gridRows;
+	}
+
+	/**
+	 * Sets the player used to show hints for the current position.
+	 *
+	 * @param hintPlayer player or <code>null</code> to not show any hints
+	 */
+	public void setHintPlayer(AIPlayer hintPlayer) {
+		this.hintPlayer = hintPlayer;
 	}
 
 	public void run()
 	{
-		final ScreenState screenState = new ScreenState( tickListeners );
+		final ScreenState screenState = new ScreenState( tickListeners , gridCols , gridRows );
 		final BoardWithScreenState state = new BoardWithScreenState( screenState );
 		
-		restartGame(state);
+		restartGame( state.getBoard() );
 
 		final JFrame frame = new JFrame("j2048 (C) 2015 by tobias.gierke@code-sourcery.de");
 		inputProvider.attach( frame );
 		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-		final GameScreen panel = new GameScreen();
+		final GameScreen panel = new GameScreen( gridCols , gridRows );
 		panel.getRestartButton().addListener( () -> {
 			uiAction = Action.RESTART;
 		});
@@ -76,12 +225,17 @@ public class Main
 		frame.setLocationRelativeTo( null );
 		panel.requestFocus();
 
-		tickListeners.addTickListener( panel );
+		panel.setHintPlayer( hintPlayer , HINT_BUDGET_MILLIS );
+		tickListeners.addTickListener( panel , true );
 		mainLoop(state, screenState , panel);
 	}
 
 	private void mainLoop(final BoardWithScreenState state, final ScreenState screenState, final GameScreen panel)
 	{
+		// action currently being calculated, the game loop keeps rendering while waiting for it
+		CompletableFuture<Action> pendingAction = null;
+		final BoardState board = state.getBoard();
+
 		long time = System.currentTimeMillis();
 		while ( true )
 		{
@@ -90,37 +244,61 @@ public class Main
 			time = now;
 			tickListeners.invokeTickListeners( deltaSeconds );
 
-			// process input and advance game state
-			if ( screenState.isInSyncWithBoardState() ) // only process input once screen state is in sync with board state
+			// process input and advance game state, buffered moves made while tiles are still moving 
+			// skip the remaining animations so bursts of input don't have to wait for each other. 
+			// Other input is only processed once the screen state is in sync with the board state.
+			final int maxActions = inputProvider.isBuffering() ? MAX_ACTIONS_PER_FRAME : screenState.isInSyncWithBoardState() ? 1 : 0;
+			for ( int i = 0 ; i < maxActions ; i++ )
 			{
-				final IInputProvider.Action action;
+				IInputProvider.Action action = Action.NONE;
+				boolean fromProvider = false;
 				if ( uiAction != Action.NONE ) 
 				{
 					action = uiAction;
 					uiAction = Action.NONE;
-				} else {
-					action = inputProvider.getAction( state );
-				}
-				
-				if ( action != Action.NONE) 
-				{
-					if (action == Action.RESTART) 
+					if ( pendingAction != null ) 
 					{
-						restartGame(state);
-					} 
-					else if ( ! state.isGameOver() )
+						pendingAction.cancel( true );
+						pendingAction = null;
+					}
+				} 
+				else 
+				{
+					if ( pendingAction == null ) {
+						pendingAction = inputProvider.getActionAsync( board );
+					}
+					if ( pendingAction.isDone() ) 
 					{
-						final boolean validMove = processInput( state , action );
-						if ( validMove && ! state.isGameOver() )
-						{
-							state.placeRandomTile(rnd);
-						}
+						action = pendingAction.join();
+						pendingAction = null;
+						fromProvider = true;
 					}
 				}
+
+				if ( action == Action.NONE) {
+					break;
+				}
+				if ( ! screenState.isInSyncWithBoardState() ) {
+					screenState.fastForward();
+				}
+				boolean applied = false;
+				if (action == Action.RESTART) 
+				{
+					restartGame(board);
+					applied = true;
+				} 
+				else if ( ! board.isGameOver() )
+				{
+					applied = processInput( board , action , rnd );
+				}
+				if ( applied && fromProvider ) {
+					inputProvider.actionApplied( action );
+				}
 			}
 
 			// render
 			panel.render( state );
+			inputProvider.frameDisplayed();
 			
 			// sleep some time to not burn all available CPU time
 			try
@@ -134,25 +312,16 @@ public class Main
 		}
 	}
 
-	private boolean processInput(BoardState board,IInputProvider.Action action)
+	static boolean processInput(BoardState board,IInputProvider.Action action,Random rnd)
 	{
 		if ( board.isGameOver() ) {
 			return false;
 		}
-		
-		if (action == Action.TILT_DOWN) {
-			return board.tiltDown();
-		} 
-		if (action == Action.TILT_LEFT) {
-			return board.tiltLeft();
-		} 
-		if (action == Action.TILT_RIGHT) {
-			return board.tiltRight(); 
-		} 
-		if (action == Action.TILT_UP) {
-			return board.tiltUp();
+		// reject illegal moves without touching the board (and its animations)
+		if ( ! board.isLegalMove( action ) ) {
+			return false;
 		}
-		return false;
+		return board.move( action , rnd );
 	}
 
 	private void restartGame(BoardState state)
@@ -0,0 +1,209 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import java.util.Arrays;
+
+/**
+ * Compact record of the changes a single state transition (a tilt, placing a tile or resetting the board)
+ * applied to a {@link BoardState}.
+ *
+ * <p>Events are stored in a flat <code>int</code> array in the order they happened, a tilt consists of
+ * one or more phases separated by {@link #SYNC} events, the diff of a move ends with the {@link #SPAWN}
+ * of the new tile. Instances are reused by {@link MoveDiffRecorder},
+ * consumers that need to keep a diff around must create a copy using {@link #copyFrom(MoveDiff)}.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class MoveDiff
+{
+	// event types
+	public static final int RESET = 1;
+	public static final int MOVE = 2;
+	public static final int MERGE = 3;
+	public static final int SPAWN = 4;
+	public static final int SYNC = 5;
+
+	// type, srcX, srcY, dstX, dstY, value
+	private static final int EVENT_SIZE = 6;
+
+	private int[] events = new int[ 32 * EVENT_SIZE ];
+	private int eventCount;
+	private boolean tilt;
+	private int scoreDelta;
+
+	/**
+	 * Removes all events.
+	 *
+	 * @param tilt whether the events to be recorded are the result of a tilt
+	 */
+	public void clear(boolean tilt)
+	{
+		this.eventCount = 0;
+		this.scoreDelta = 0;
+		this.tilt = tilt;
+	}
+
+	public void copyFrom(MoveDiff other)
+	{
+		if ( events.length < other.eventCount * EVENT_SIZE ) {
+			events = new int[ other.events.length ];
+		}
+		System.arraycopy( other.events , 0 , this.events , 0 , other.eventCount * EVENT_SIZE );
+		this.eventCount = other.eventCount;
+		this.tilt = other.tilt;
+		this.scoreDelta = other.scoreDelta;
+	}
+
+	public void add(int type,int srcX,int srcY,int dstX,int dstY,int value)
+	{
+		int ptr = eventCount * EVENT_SIZE;
+		if ( ptr + EVENT_SIZE > events.length ) {
+			events = Arrays.copyOf( events , events.length * 2 );
+		}
+		final int[] e = events;
+		e[ptr++] = type;
+		e[ptr++] = srcX;
+		e[ptr++] = srcY;
+		e[ptr++] = dstX;
+		e[ptr++] = dstY;
+		e[ptr] = value;
+		eventCount++;
+		if ( type == MERGE ) {
+			scoreDelta += 1 << value;
+		}
+	}
+
+	/**
+	 * Returns whether this diff describes a tilt.
+	 *
+	 * @return
+	 */
+	public boolean isTilt() {
+		return tilt;
+	}
+
+	public boolean isEmpty() {
+		return eventCount == 0;
+	}
+
+	public int getEventCount() {
+		return eventCount;
+	}
+
+	/**
+	 * Returns the number of points scored by this transition.
+	 *
+	 * @return
+	 */
+	public int getScoreDelta() {
+		return scoreDelta;
+	}
+
+	public int getType(int event) {
+		return events[ event * EVENT_SIZE ];
+	}
+
+	public int getSrcX(int event) {
+		return events[ event * EVENT_SIZE + 1 ];
+	}
+
+	public int getSrcY(int event) {
+		return events[ event * EVENT_SIZE + 2 ];
+	}
+
+	/**
+	 * Returns the X coordinate a tile got moved/merged to or the location of a spawned tile.
+	 *
+	 * @param event
+	 * @return
+	 */
+	public int getDstX(int event) {
+		return events[ event * EVENT_SIZE + 3 ];
+	}
+
+	/**
+	 * Returns the Y coordinate a tile got moved/merged to or the location of a spawned tile.
+	 *
+	 * @param event
+	 * @return
+	 */
+	public int getDstY(int event) {
+		return events[ event * EVENT_SIZE + 4 ];
+	}
+
+	/**
+	 * Returns the value (log2) of a merged or spawned tile.
+	 *
+	 * @param event
+	 * @return
+	 */
+	public int getValue(int event) {
+		return events[ event * EVENT_SIZE + 5 ];
+	}
+
+	/**
+	 * Feeds all events of this diff to a listener.
+	 *
+	 * @param listener
+	 */
+	public void replay(IBoardListener listener)
+	{
+		if ( tilt ) {
+			listener.startBatch();
+		}
+		final int[] e = events;
+		for ( int i = 0 , ptr = 0 ; i < eventCount ; i++ , ptr += EVENT_SIZE )
+		{
+			switch( e[ptr] )
+			{
+				case RESET: listener.reset(); break;
+				case MOVE:  listener.moveTile( e[ptr+1] , e[ptr+2] , e[ptr+3] , e[ptr+4] ); break;
+				case MERGE: listener.mergeTile( e[ptr+1] , e[ptr+2] , e[ptr+3] , e[ptr+4] , e[ptr+5] ); break;
+				case SPAWN: listener.setTile( e[ptr+3] , e[ptr+4] , e[ptr+5] ); break;
+				case SYNC:  listener.syncPoint(); break;
+				default:
+					throw new IllegalStateException("Unknown event type "+e[ptr]);
+			}
+		}
+		if ( tilt ) {
+			listener.endBatch();
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder buffer = new StringBuilder( tilt ? "Tilt[" : "Diff[" );
+		for ( int i = 0 ; i < eventCount ; i++ )
+		{
+			if ( i > 0 ) {
+				buffer.append(",");
+			}
+			switch( getType(i) )
+			{
+				case RESET: buffer.append("reset"); break;
+				case MOVE:  buffer.append("move ").append( getSrcX(i) ).append("/").append( getSrcY(i) ).append(" -> ").append( getDstX(i) ).append("/").append( getDstY(i) ); break;
+				case MERGE: buffer.append("merge ").append( getSrcX(i) ).append("/").append( getSrcY(i) ).append(" -> ").append( getDstX(i) ).append("/").append( getDstY(i) ).append(" = ").append( 1L << getValue(i) ); break;
+				case SPAWN: buffer.append("spawn ").append( getDstX(i) ).append("/").append( getDstY(i) ).append(" = ").append( 1L << getValue(i) ); break;
+				case SYNC:  buffer.append("sync"); break;
+				default:
+					buffer.append("?");
+			}
+		}
+		return buffer.append("]").toString();
+	}
+}
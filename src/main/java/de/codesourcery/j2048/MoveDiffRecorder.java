@@ -0,0 +1,108 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the state transitions of a {@link BoardState} as {@link MoveDiff}s and publishes
+ * them to any number of {@link IMoveDiffListener}s.
+ *
+ * <p>A diff is published after each tilt, each tile placed outside of a tilt and each reset. A
+ * {@link BoardState#move(de.codesourcery.j2048.IInputProvider.Action, java.util.Random) move} publishes
+ * a single diff that ends with the tile spawned after the tilt. The same
+ * {@link MoveDiff} instance is reused for every transition so recording does not allocate.</p>
+ *
+ * <p>Instances are not thread-safe.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class MoveDiffRecorder implements IBoardListener
+{
+	private final MoveDiff diff = new MoveDiff();
+	private final List<IMoveDiffListener> listeners = new ArrayList<>();
+
+	private boolean inBatch;
+
+	public void addListener(IMoveDiffListener listener)
+	{
+		if ( listener == null ) {
+			throw new IllegalArgumentException("listener must not be NULL");
+		}
+		listeners.add( listener );
+	}
+
+	public void removeListener(IMoveDiffListener listener) {
+		listeners.remove( listener );
+	}
+
+	private void publish()
+	{
+		for ( int i = 0 , len = listeners.size() ; i < len ; i++ ) {
+			listeners.get(i).boardChanged( diff );
+		}
+	}
+
+	@Override
+	public void reset()
+	{
+		diff.clear( false );
+		diff.add( MoveDiff.RESET , 0 , 0 , 0 , 0 , 0 );
+		publish();
+	}
+
+	@Override
+	public void startBatch()
+	{
+		diff.clear( true );
+		inBatch = true;
+	}
+
+	@Override
+	public void syncPoint() {
+		diff.add( MoveDiff.SYNC , 0 , 0 , 0 , 0 , 0 );
+	}
+
+	@Override
+	public void endBatch()
+	{
+		inBatch = false;
+		publish();
+	}
+
+	@Override
+	public void moveTile(int initialX, int initialY, int x, int y) {
+		diff.add( MoveDiff.MOVE , initialX , initialY , x , y , 0 );
+	}
+
+	@Override
+	public void mergeTile(int srcX, int srcY, int dstX, int dstY, int value) {
+		diff.add( MoveDiff.MERGE , srcX , srcY , dstX , dstY , value );
+	}
+
+	@Override
+	public void setTile(int x, int y, int value)
+	{
+		if ( inBatch ) {
+			diff.add( MoveDiff.SPAWN , x , y , x , y , value );
+			return;
+		}
+		diff.clear( false );
+		diff.add( MoveDiff.SPAWN , x , y , x , y , value );
+		publish();
+	}
+}
@@ -0,0 +1,468 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import de.codesourcery.j2048.IInputProvider.Action;
+
+/**
+ * Packed representation of a 4x4 board, used as a fast path by the AI.
+ *
+ * <p>The whole board is stored in a single <code>long</code>, with each tile using 4 bits
+ * (holding the logarithm of the tile value, just like {@link BoardState}). The tile at
+ * (x,y) is stored at bit offset <code>4*(x+4*y)</code> so each row occupies 16 consecutive bits.</p>
+ *
+ * <p>Tilting the board uses pre-computed lookup tables indexed by row value, columns are
+ * handled by transposing the board. Tiles with values greater than {@link #MAX_TILE_VALUE} cannot
+ * be represented, merging two tiles of that value is therefore not supported.</p>
+ *
+ * <p>Besides operating on single boards, this class offers batch methods that apply the same
+ * operation to whole arrays of boards (see {@link #tilt(Action, long[], long[], int)}), used by
+ * {@link GameServer} to step many games with one request. The batch methods are plain scalar loops
+ * on purpose: the JDK Vector API is an incubator module that needs JDK 16+ and <code>--add-modules jdk.incubator.vector</code>
+ * when compiling and running, while the game itself targets Java 8. Besides that, all operations are row
+ * lookups in tables, which would turn into gathers that gain little from vector lanes.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class PackedBoard
+{
+	public static final int COLS = 4;
+	public static final int ROWS = 4;
+
+	/**
+	 * Max. value (log2) a tile may have.
+	 */
+	public static final int MAX_TILE_VALUE = 15;
+
+	private static final long ROW_MASK = 0xffffL;
+	private static final long LOW_NIBBLES = 0x1111111111111111L;
+
+	// lookup tables indexed by row value
+	private static final char[] ROW_LEFT = new char[ 65536 ];
+	private static final char[] ROW_RIGHT = new char[ 65536 ];
+	private static final int[] ROW_SCORE_LEFT = new int[ 65536 ];
+	private static final int[] ROW_SCORE_RIGHT = new int[ 65536 ];
+	// legal moves of a row, using BoardState.MOVE_LEFT/MOVE_RIGHT
+	private static final byte[] ROW_MOVES = new byte[ 65536 ];
+
+	static
+	{
+		final int[] cells = new int[4];
+		final int[] score = new int[1];
+		for ( int row = 0 ; row < 65536 ; row++ )
+		{
+			unpackRow( row , cells );
+			slideLeft( cells , score );
+			ROW_LEFT[row] = (char) packRow( cells );
+			ROW_SCORE_LEFT[row] = score[0];
+
+			unpackRow( row , cells );
+			reverse( cells );
+			slideLeft( cells , score );
+			reverse( cells );
+			ROW_RIGHT[row] = (char) packRow( cells );
+			ROW_SCORE_RIGHT[row] = score[0];
+
+			ROW_MOVES[row] = (byte) ( ( ROW_LEFT[row] != row ? BoardState.MOVE_LEFT : 0 ) | ( ROW_RIGHT[row] != row ? BoardState.MOVE_RIGHT : 0 ) );
+		}
+	}
+
+	private PackedBoard() {
+	}
+
+	private static void unpackRow(int row,int[] cells)
+	{
+		for ( int x = 0 ; x < 4 ; x++ ) {
+			cells[x] = (row >>> (4*x)) & 0x0f;
+		}
+	}
+
+	private static int packRow(int[] cells)
+	{
+		int result = 0;
+		for ( int x = 0 ; x < 4 ; x++ ) {
+			result |= cells[x] << (4*x);
+		}
+		return result;
+	}
+
+	private static void reverse(int[] cells)
+	{
+		int tmp = cells[0];
+		cells[0] = cells[3];
+		cells[3] = tmp;
+		tmp = cells[1];
+		cells[1] = cells[2];
+		cells[2] = tmp;
+	}
+
+	/*
+	 * Slides a row towards index 0, mirroring what BoardState#tiltLeft() does.
+	 */
+	private static void slideLeft(int[] cells,int[] score)
+	{
+		score[0] = 0;
+		compact( cells );
+		boolean merged = false;
+		for ( int x = 1 ; x < 4 ; x++ )
+		{
+			final int tile = cells[x];
+			if ( tile != BoardState.EMPTY_TILE && tile == cells[x-1] && tile < MAX_TILE_VALUE )
+			{
+				score[0] += 1 << (tile+1);
+				cells[x-1] = tile+1;
+				cells[x] = BoardState.EMPTY_TILE;
+				merged = true;
+			}
+		}
+		if ( merged ) {
+			compact( cells );
+		}
+	}
+
+	private static void compact(int[] cells)
+	{
+		int dst = 0;
+		for ( int x = 0 ; x < 4 ; x++ )
+		{
+			if ( cells[x] != BoardState.EMPTY_TILE ) {
+				cells[dst++] = cells[x];
+			}
+		}
+		while ( dst < 4 ) {
+			cells[dst++] = BoardState.EMPTY_TILE;
+		}
+	}
+
+	/**
+	 * Checks whether a board can be represented using this class.
+	 *
+	 * <p>Boards are only accepted if there is no tile larger than <code>{@link #MAX_TILE_VALUE}-1</code>,
+	 * so that merges during a search of reasonable depth cannot exceed the supported range.</p>
+	 *
+	 * @param state
+	 * @return
+	 */
+	public static boolean canPack(BoardState state)
+	{
+		if ( state.getColumnCount() != COLS || state.getRowCount() != ROWS ) {
+			return false;
+		}
+		for ( int i = 0 , len = state.board.length ; i < len ; i++ )
+		{
+			if ( state.board[i] >= MAX_TILE_VALUE ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static long pack(BoardState state)
+	{
+		long result = 0;
+		for ( int i = 0 ; i < COLS*ROWS ; i++ ) {
+			result |= ((long) state.board[i]) << (4*i);
+		}
+		return result;
+	}
+
+	public static int getTile(long board,int x,int y) {
+		return (int) (board >>> (4*(x+COLS*y))) & 0x0f;
+	}
+
+	public static int getTile(long board,int index) {
+		return (int) (board >>> (4*index)) & 0x0f;
+	}
+
+	public static long setTile(long board,int x,int y,int value) {
+		return setTile(board, x+COLS*y, value);
+	}
+
+	public static long setTile(long board,int index,int value)
+	{
+		final int shift = 4*index;
+		return (board & ~(0x0fL << shift)) | (((long) value) << shift);
+	}
+
+	/**
+	 * Returns the number of empty tiles.
+	 *
+	 * @param board
+	 * @return
+	 */
+	public static int countEmpty(long board)
+	{
+		board |= (board >>> 2) & 0x3333333333333333L;
+		board |= (board >>> 1);
+		return Long.bitCount( ~board & LOW_NIBBLES );
+	}
+
+	public static int getTileCount(long board) {
+		return COLS*ROWS - countEmpty( board );
+	}
+
+	public static long transpose(long board)
+	{
+		final long a1 = board & 0xF0F00F0FF0F00F0FL;
+		final long a2 = board & 0x0000F0F00000F0F0L;
+		final long a3 = board & 0x0F0F00000F0F0000L;
+		final long a = a1 | (a2 << 12) | (a3 >>> 12);
+		final long b1 = a & 0xFF00FF0000FF00FFL;
+		final long b2 = a & 0x00FF00FF00000000L;
+		final long b3 = a & 0x00000000FF00FF00L;
+		return b1 | (b2 >>> 24) | (b3 << 24);
+	}
+
+	private static long applyRows(long board,char[] table)
+	{
+		return    ((long) table[ (int) ( board         & ROW_MASK) ])
+				| ((long) table[ (int) ((board >>> 16) & ROW_MASK) ] << 16)
+				| ((long) table[ (int) ((board >>> 32) & ROW_MASK) ] << 32)
+				| ((long) table[ (int) ((board >>> 48) & ROW_MASK) ] << 48);
+	}
+
+	private static int sumRows(long board,int[] table)
+	{
+		return    table[ (int) ( board         & ROW_MASK) ]
+				+ table[ (int) ((board >>> 16) & ROW_MASK) ]
+				+ table[ (int) ((board >>> 32) & ROW_MASK) ]
+				+ table[ (int) ((board >>> 48) & ROW_MASK) ];
+	}
+
+	/**
+	 * Moves all tiles towards x=0.
+	 *
+	 * @param board
+	 * @return resulting board, identical to the input if no tile could be moved
+	 */
+	public static long tiltLeft(long board) {
+		return applyRows( board , ROW_LEFT );
+	}
+
+	/**
+	 * Moves all tiles towards x=3.
+	 *
+	 * @param board
+	 * @return resulting board, identical to the input if no tile could be moved
+	 */
+	public static long tiltRight(long board) {
+		return applyRows( board , ROW_RIGHT );
+	}
+
+	/**
+	 * Moves all tiles towards y=0.
+	 *
+	 * @param board
+	 * @return resulting board, identical to the input if no tile could be moved
+	 */
+	public static long tiltDown(long board) {
+		return transpose( applyRows( transpose( board ) , ROW_LEFT ) );
+	}
+
+	/**
+	 * Moves all tiles towards y=3.
+	 *
+	 * @param board
+	 * @return resulting board, identical to the input if no tile could be moved
+	 */
+	public static long tiltUp(long board) {
+		return transpose( applyRows( transpose( board ) , ROW_RIGHT ) );
+	}
+
+	public static int scoreLeft(long board) {
+		return sumRows( board , ROW_SCORE_LEFT );
+	}
+
+	public static int scoreRight(long board) {
+		return sumRows( board , ROW_SCORE_RIGHT );
+	}
+
+	public static int scoreDown(long board) {
+		return sumRows( transpose( board ) , ROW_SCORE_LEFT );
+	}
+
+	public static int scoreUp(long board) {
+		return sumRows( transpose( board ) , ROW_SCORE_RIGHT );
+	}
+
+	/**
+	 * Returns the moves that would change a board.
+	 *
+	 * @param board
+	 * @return bit mask of {@link BoardState#MOVE_DOWN},{@link BoardState#MOVE_UP},{@link BoardState#MOVE_LEFT} and {@link BoardState#MOVE_RIGHT}
+	 * @see BoardState#getLegalMoves()
+	 */
+	public static int getLegalMoves(long board)
+	{
+		final int horizontal = ROW_MOVES[ (int) ( board         & ROW_MASK) ]
+				| ROW_MOVES[ (int) ((board >>> 16) & ROW_MASK) ]
+				| ROW_MOVES[ (int) ((board >>> 32) & ROW_MASK) ]
+				| ROW_MOVES[ (int) ((board >>> 48) & ROW_MASK) ];
+		final long transposed = transpose( board );
+		final int vertical = ROW_MOVES[ (int) ( transposed         & ROW_MASK) ]
+				| ROW_MOVES[ (int) ((transposed >>> 16) & ROW_MASK) ]
+				| ROW_MOVES[ (int) ((transposed >>> 32) & ROW_MASK) ]
+				| ROW_MOVES[ (int) ((transposed >>> 48) & ROW_MASK) ];
+		// rows of the transposed board are columns, left = towards y=0
+		return horizontal
+				| ( (vertical & BoardState.MOVE_LEFT) != 0 ? BoardState.MOVE_DOWN : 0 )
+				| ( (vertical & BoardState.MOVE_RIGHT) != 0 ? BoardState.MOVE_UP : 0 );
+	}
+
+	public static boolean isGameOver(long board)
+	{
+		return countEmpty( board ) == 0 && getLegalMoves( board ) == 0;
+	}
+
+	/**
+	 * Tilts a batch of boards in the same direction.
+	 *
+	 * @param action direction to tilt the boards in
+	 * @param boards boards to tilt
+	 * @param results array receiving the resulting boards, may be the same array as <code>boards</code>
+	 * @param count number of boards to process, starting at index 0
+	 * @return number of boards that changed
+	 * @throws IllegalArgumentException if the action is no tilt
+	 */
+	public static int tilt(Action action,long[] boards,long[] results,int count)
+	{
+		switch( action )
+		{
+			case TILT_LEFT:  return applyRows( boards , results , count , ROW_LEFT , false );
+			case TILT_RIGHT: return applyRows( boards , results , count , ROW_RIGHT , false );
+			case TILT_DOWN:  return applyRows( boards , results , count , ROW_LEFT , true );
+			case TILT_UP:    return applyRows( boards , results , count , ROW_RIGHT , true );
+			default:
+				throw new IllegalArgumentException("Not a tilt: "+action);
+		}
+	}
+
+	private static int applyRows(long[] boards,long[] results,int count,char[] table,boolean transpose)
+	{
+		int moved = 0;
+		if ( transpose )
+		{
+			for ( int i = 0 ; i < count ; i++ )
+			{
+				final long board = boards[i];
+				final long result = transpose( applyRows( transpose( board ) , table ) );
+				results[i] = result;
+				moved += result != board ? 1 : 0;
+			}
+		}
+		else
+		{
+			for ( int i = 0 ; i < count ; i++ )
+			{
+				final long board = boards[i];
+				final long result = applyRows( board , table );
+				results[i] = result;
+				moved += result != board ? 1 : 0;
+			}
+		}
+		return moved;
+	}
+
+	/**
+	 * Calculates the score gained by tilting a batch of boards in the same direction.
+	 *
+	 * @param action direction to tilt the boards in
+	 * @param boards boards before tilting
+	 * @param results array receiving the score gained by each board
+	 * @param count number of boards to process, starting at index 0
+	 * @throws IllegalArgumentException if the action is no tilt
+	 */
+	public static void getScore(Action action,long[] boards,int[] results,int count)
+	{
+		switch( action )
+		{
+			case TILT_LEFT:  sumRows( boards , results , count , ROW_SCORE_LEFT , false ); break;
+			case TILT_RIGHT: sumRows( boards , results , count , ROW_SCORE_RIGHT , false ); break;
+			case TILT_DOWN:  sumRows( boards , results , count , ROW_SCORE_LEFT , true ); break;
+			case TILT_UP:    sumRows( boards , results , count , ROW_SCORE_RIGHT , true ); break;
+			default:
+				throw new IllegalArgumentException("Not a tilt: "+action);
+		}
+	}
+
+	private static void sumRows(long[] boards,int[] results,int count,int[] table,boolean transpose)
+	{
+		if ( transpose )
+		{
+			for ( int i = 0 ; i < count ; i++ ) {
+				results[i] = sumRows( transpose( boards[i] ) , table );
+			}
+		}
+		else
+		{
+			for ( int i = 0 ; i < count ; i++ ) {
+				results[i] = sumRows( boards[i] , table );
+			}
+		}
+	}
+
+	/**
+	 * Counts the non-empty tiles of a batch of boards.
+	 *
+	 * @param boards
+	 * @param results array receiving the tile count of each board
+	 * @param count number of boards to process, starting at index 0
+	 */
+	public static void getTileCount(long[] boards,int[] results,int count)
+	{
+		for ( int i = 0 ; i < count ; i++ )
+		{
+			long board = boards[i];
+			board |= (board >>> 2) & 0x3333333333333333L;
+			board |= (board >>> 1);
+			results[i] = Long.bitCount( board & LOW_NIBBLES );
+		}
+	}
+
+	/**
+	 * Calculates the legal moves of a batch of boards.
+	 *
+	 * @param boards
+	 * @param results array receiving the legal moves of each board, see {@link #getLegalMoves(long)}
+	 * @param count number of boards to process, starting at index 0
+	 */
+	public static void getLegalMoves(long[] boards,int[] results,int count)
+	{
+		for ( int i = 0 ; i < count ; i++ ) {
+			results[i] = getLegalMoves( boards[i] );
+		}
+	}
+
+	/**
+	 * Checks a batch of boards for being game over.
+	 *
+	 * @param boards
+	 * @param results array receiving whether the corresponding board is game over
+	 * @param count number of boards to process, starting at index 0
+	 * @return number of boards that are game over
+	 */
+	public static int isGameOver(long[] boards,boolean[] results,int count)
+	{
+		int gameOver = 0;
+		for ( int i = 0 ; i < count ; i++ )
+		{
+			final boolean result = isGameOver( boards[i] );
+			results[i] = result;
+			gameOver += result ? 1 : 0;
+		}
+		return gameOver;
+	}
+}
@@ -17,6 +17,7 @@ package de.codesourcery.j2048;
 
 import java.awt.Point;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.function.Consumer;
 
@@ -24,10 +25,14 @@ import de.codesourcery.j2048.TickListenerContainer.ITickListener;
 
 /**
  * Represents the current screen state.
- * 
+ *
  * <p>This classes main responsibility is keeping track of the various
  * tile positions on the screen and their animations.</p>
  *
+ * <p>Board mutations are recorded as primitive commands in a reusable buffer
+ * and tiles as well as their animations are pooled, so once warmed up
+ * playing the game does not allocate any objects.</p>
+ *
  * @author tobias.gierke@code-sourcery.de
  */
 public class ScreenState implements ITickListener
@@ -35,64 +40,127 @@ public class ScreenState implements ITickListener
 	public static final int TILE_WIDTH = 75;
 	public static final int TILE_HEIGHT = 75;
 
-	private final List<Tile> tilesToRemove = new ArrayList<Tile>();	
+	// batch command opcodes
+	private static final int CMD_CLEAR = 1;
+	private static final int CMD_SET_VALUE = 2;
+	private static final int CMD_MOVE = 3;
+
+	// opcode + 4 arguments
+	private static final int CMD_SIZE = 5;
+
+	private final List<Tile> tilesToRemove = new ArrayList<Tile>();
 	private final List<Tile> tiles = new ArrayList<Tile>();
-	
-	public final List<List<Runnable>> batches = new ArrayList<>();
-	
+
+	/*
+	 * Index of tiles by their (logical) grid location, kept in sync with Tile#tileX/Tile#tileY.
+	 *
+	 * Slots are updated at the same time a tile's location changes (which is
+	 * when its queued animation completes), so lookups performed by batch commands
+	 * always see the same state a linear search through 'tiles' would have seen.
+	 */
+	private final Tile[] grid;
+
+	// object pools
+	private final List<Tile> freeTiles = new ArrayList<>();
+	private final List<TileMovingTickListener> freeAnimations = new ArrayList<>();
+
+	// command buffer
+	private int[] commands = new int[ 64 * CMD_SIZE ];
+	private int writePtr; // offset where the next command gets written
+	private int readPtr; // offset of the next command to execute
+	private int pendingStart; // offset of the first command not yet part of a batch
+
+	// offsets of the (exclusive) end of each batch in the command buffer
+	private int[] batchEnds = new int[ 16 ];
+	private int batchHead;
+	private int batchTail;
+
+	private final Batch batch = new Batch(false);
+	private final Batch autoCommitBatch = new Batch(true);
+
 	private Batch currentBatch = null;
-	
-	public final class Batch implements AutoCloseable 
+
+	// grid size
+	private final int cols;
+	private final int rows;
+
+	// screen geometry
+	private final int tileWidth;
+	private final int tileHeight;
+	private final int borderThickness;
+
+	public final class Batch implements AutoCloseable
 	{
-		private final List<Runnable> members = new ArrayList<>();
-		
 		private final boolean autoCommit;
-		
-		public Batch(boolean autoCommit) {
+
+		private Batch(boolean autoCommit) {
 			this.autoCommit = autoCommit;
 		}
-		
-		public void add(Runnable r) {
-			members.add( r );
+
+		protected void add(int opcode,int arg0,int arg1,int arg2,int arg3)
+		{
+			if ( writePtr + CMD_SIZE > commands.length ) {
+				commands = Arrays.copyOf( commands , commands.length * 2 );
+			}
+			final int[] cmds = commands;
+			int ptr = writePtr;
+			cmds[ptr++] = opcode;
+			cmds[ptr++] = arg0;
+			cmds[ptr++] = arg1;
+			cmds[ptr++] = arg2;
+			cmds[ptr++] = arg3;
+			writePtr = ptr;
 			if ( autoCommit ) {
 				syncPoint();
 			}
 		}
-		
-		public void syncPoint() 
+
+		public void syncPoint()
 		{
-			if ( ! members.isEmpty() ) 
+			if ( writePtr > pendingStart )
 			{
-				batches.add( new ArrayList<>(members ) );
-				members.clear();
+				if ( batchTail == batchEnds.length ) {
+					batchEnds = Arrays.copyOf( batchEnds , batchEnds.length * 2 );
+				}
+				batchEnds[ batchTail++ ] = writePtr;
+				pendingStart = writePtr;
 			}
 		}
-		
+
+		@Override
 		public void close() {
 			syncPoint();
 			currentBatch = null;
 		}
 	}
-	
-	public Batch startBatch() 
+
+	public Batch startBatch()
 	{
 		if ( currentBatch != null ) {
 			currentBatch.close();
 		}
-		currentBatch = new Batch(false);
+		currentBatch = batch;
 		return currentBatch;
 	}
-	
-	private Batch currentBatch() 
+
+	private Batch currentBatch()
 	{
 		if ( currentBatch == null ) {
-			currentBatch = new Batch(true);
+			currentBatch = autoCommitBatch;
 		}
 		return currentBatch;
 	}
-	
+
 	public final class Tile implements ITickListener
 	{
+			// tile opcodes
+			private static final int OP_MOVE = 1;
+			private static final int OP_SET_VALUE = 2;
+			private static final int OP_DESTROY = 3;
+
+			// opcode + 2 arguments
+			private static final int OP_SIZE = 3;
+
 			public int tileX;
 			public int tileY;
 			public int value;
@@ -100,55 +168,97 @@ public class ScreenState implements ITickListener
 			public int x;
 			public int y;
 
-			private final List<ITickListener> delegates=new ArrayList<>();
+			// index of this tile in ScreenState#tiles
+			private int listIndex;
+
+			// queue of pending operations
+			private int[] ops = new int[ 4 * OP_SIZE ];
+			private int opsHead;
+			private int opsTail;
+
+			// animation for the move operation currently being executed (if any)
+			private TileMovingTickListener animation;
 
-			protected Tile(int tileX, int tileY, int value)
+			protected Tile() {
+			}
+
+			protected void init(int tileX, int tileY, int value)
 			{
 				this.tileX = tileX;
 				this.tileY = tileY;
 				this.value = value;
+				this.opsHead = this.opsTail = 0;
 				updateScreenLocation( tileX , tileY );
 			}
-			
+
+			private int slot() {
+				return tileX + tileY * cols;
+			}
+
+			private void link() {
+				grid[ slot() ] = this;
+			}
+
+			private void unlink()
+			{
+				// another tile may already have moved into our old slot
+				final int slot = slot();
+				if ( grid[ slot ] == this ) {
+					grid[ slot ] = null;
+				}
+			}
+
 			protected boolean hasPendingChanges() {
-				return ! delegates.isEmpty();
+				return opsHead != opsTail;
 			}
 
 			public void moveTo(int dstX,int dstY)
 			{
-				queue( new TileMovingTickListener( this , dstX , dstY ) );
-				queue( ctx -> 
-				{
-					this.tileX = dstX;
-					this.tileY = dstY;					
-					return false;
-				} );
+				queue( OP_MOVE , dstX , dstY );
 			}
-			
+
 			public boolean isOccupied() {
 				return value != BoardState.EMPTY_TILE;
 			}
 
 			private void updateScreenLocation(int tileX,int tileY)
 			{
-				final int xBorderOffset = tileX*GameScreen.BORDER_THICKNESS;
-				final int yBorderOffset = tileY*GameScreen.BORDER_THICKNESS;
-				this.x = GameScreen.BORDER_THICKNESS + this.tileX * TILE_WIDTH  + xBorderOffset;
-				this.y = GameScreen.BORDER_THICKNESS + this.tileY * TILE_HEIGHT + yBorderOffset;
+				this.x = getScreenX( tileX );
+				this.y = getScreenY( tileY );
+			}
+
+			public ScreenState getScreenState() {
+				return ScreenState.this;
+			}
+
+			public void destroy()
+			{
+				queue( OP_DESTROY , 0 , 0 );
 			}
-			
-			public void destroy() 
+
+			private void queue(int opcode,int arg0,int arg1)
 			{
-				queue( ctx -> 
+				if ( opsTail + OP_SIZE > ops.length )
 				{
-					tilesToRemove.add( this );				
-					this.delegates.clear();					
-					return false;
-				});				
+					// compact or grow
+					final int len = opsTail - opsHead;
+					final int[] dst = len + OP_SIZE > ops.length ? new int[ ops.length * 2 ] : ops;
+					System.arraycopy( ops , opsHead , dst , 0 , len );
+					ops = dst;
+					opsHead = 0;
+					opsTail = len;
+				}
+				ops[ opsTail++ ] = opcode;
+				ops[ opsTail++ ] = arg0;
+				ops[ opsTail++ ] = arg1;
 			}
 
-			private void queue(ITickListener l) {
-				this.delegates.add( l );
+			private void popOp()
+			{
+				opsHead += OP_SIZE;
+				if ( opsHead == opsTail ) {
+					opsHead = opsTail = 0;
+				}
 			}
 
 			@Override
@@ -159,27 +269,73 @@ public class ScreenState implements ITickListener
 			@Override
 			public boolean tick(float deltaSeconds)
 			{
-				final ITickListener tmp = delegates.isEmpty() ? null : delegates.get( 0 );
-				if ( tmp!= null )
+				if ( opsHead == opsTail ) {
+					return false;
+				}
+				switch( ops[ opsHead ] )
 				{
-					if ( ! tmp.tick( deltaSeconds ) )
-					{
-						delegates.remove(tmp);
-					}
-					return true;
+					case OP_MOVE:
+						final int dstX = ops[ opsHead+1 ];
+						final int dstY = ops[ opsHead+2 ];
+						if ( animation == null ) {
+							animation = acquireAnimation( this , dstX , dstY );
+						}
+						if ( ! animation.tick( deltaSeconds ) )
+						{
+							releaseAnimation( animation );
+							animation = null;
+							unlink();
+							this.tileX = dstX;
+							this.tileY = dstY;
+							link();
+							popOp();
+						}
+						break;
+					case OP_SET_VALUE:
+						value = ops[ opsHead+1 ];
+						popOp();
+						break;
+					case OP_DESTROY:
+						unlink();
+						tilesToRemove.add( this );
+						opsHead = opsTail = 0;
+						break;
+					default:
+						throw new IllegalStateException("Unknown tile opcode "+ops[ opsHead ]);
 				}
-				return false;
+				return true;
 			}
 
 			public void setValue(int tileValue) {
-				queue( ctx -> 
+				queue( OP_SET_VALUE , tileValue , 0 );
+			}
+
+			/*
+			 * Instantly executes all pending operations.
+			 */
+			private void finish()
+			{
+				while ( opsHead != opsTail )
 				{
-					value = tileValue;
-					return false;
-				});
+					if ( ops[ opsHead ] == OP_MOVE )
+					{
+						if ( animation != null ) {
+							releaseAnimation( animation );
+							animation = null;
+						}
+						unlink();
+						this.tileX = ops[ opsHead+1 ];
+						this.tileY = ops[ opsHead+2 ];
+						link();
+						updateScreenLocation( tileX , tileY );
+						popOp();
+					} else {
+						tick( 0 );
+					}
+				}
 			}
 	}
-	
+
 	public static void getTileLocation(int tileX,int tileY,Point point)
 	{
 		final int xBorderOffset = tileX*GameScreen.BORDER_THICKNESS;
@@ -190,18 +346,101 @@ public class ScreenState implements ITickListener
 
 	public ScreenState(TickListenerContainer container)
 	{
-		container.addTickListener(this);
+		this(container,BoardState.GRID_COLS,BoardState.GRID_ROWS);
+	}
+
+	public ScreenState(TickListenerContainer container,int cols,int rows)
+	{
+		this(container,cols,rows,TILE_WIDTH,TILE_HEIGHT,GameScreen.BORDER_THICKNESS);
+	}
+
+	public ScreenState(TickListenerContainer container,int cols,int rows,int tileWidth,int tileHeight,int borderThickness)
+	{
+		this.cols = cols;
+		this.rows = rows;
+		this.grid = new Tile[ cols * rows ];
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+		this.borderThickness = borderThickness;
+		container.addTickListener(this,true);
+	}
+
+	public int getColumnCount() {
+		return cols;
+	}
+
+	public int getRowCount() {
+		return rows;
+	}
+
+	public int getTileWidth() {
+		return tileWidth;
+	}
+
+	public int getTileHeight() {
+		return tileHeight;
+	}
+
+	public int getBorderThickness() {
+		return borderThickness;
+	}
+
+	/**
+	 * Returns the screen X coordinate of a given tile column, relative to the top-left corner of the board.
+	 * 
+	 * @param tileX
+	 * @return
+	 */
+	public int getScreenX(int tileX) {
+		return borderThickness + tileX * ( tileWidth + borderThickness );
+	}
+
+	/**
+	 * Returns the screen Y coordinate of a given tile row, relative to the top-left corner of the board.
+	 * 
+	 * @param tileY
+	 * @return
+	 */
+	public int getScreenY(int tileY) {
+		return borderThickness + tileY * ( tileHeight + borderThickness );
+	}
+
+	/**
+	 * Returns the width of the board in pixels.
+	 * 
+	 * @return
+	 */
+	public int getBoardWidth() {
+		return getScreenX( cols );
+	}
+
+	/**
+	 * Returns the height of the board in pixels.
+	 * 
+	 * @return
+	 */
+	public int getBoardHeight() {
+		return getScreenY( rows );
 	}
 
 	public void reset()
 	{
+		for (int i = 0 , len = tiles.size() ; i < len ; i++) {
+			releaseTile( tiles.get(i) );
+		}
 		tilesToRemove.clear();
 		tiles.clear();
+		Arrays.fill( grid , null );
+
+		// discard pending commands, they refer to tiles that no longer exist
+		readPtr = writePtr = pendingStart = 0;
+		batchHead = batchTail = 0;
+		currentBatch = null;
 	}
 
 	public void clear(int tileX,int tileY)
 	{
-		currentBatch().add( () -> getTile(tileX,tileY,true).destroy() );
+		currentBatch().add( CMD_CLEAR , tileX , tileY , 0 , 0 );
 	}
 
 	private Tile getTile(int x,int y)
@@ -211,12 +450,9 @@ public class ScreenState implements ITickListener
 
 	private Tile getTile(int x,int y,boolean failOnMissing)
 	{
-		for (int i = 0; i < tiles.size(); i++) {
-			final Tile t = tiles.get(i);
-			if ( t.tileX == x && t.tileY == y )
-			{
-				return t;
-			}
+		final Tile t = grid[ x + y * cols ];
+		if ( t != null ) {
+			return t;
 		}
 		if ( failOnMissing ) {
 			throw new IllegalStateException("No tile "+x+","+y);
@@ -226,21 +462,60 @@ public class ScreenState implements ITickListener
 
 	public void setTileValue(int tileX,int tileY,int tileValue)
 	{
-		currentBatch().add( () -> 
-		{
-			Tile t = getTile(tileX,tileY,false);
-			if ( t == null ) 
-			{
-				tiles.add( new Tile(tileX,tileY,tileValue) );
-			} else {
-				t.setValue( tileValue );
-			}
-		});
+		currentBatch().add( CMD_SET_VALUE , tileX , tileY , tileValue , 0 );
+	}
+
+	private void addTile(int tileX,int tileY,int tileValue)
+	{
+		final Tile t = freeTiles.isEmpty() ? new Tile() : freeTiles.remove( freeTiles.size()-1 );
+		t.init( tileX , tileY , tileValue );
+		t.listIndex = tiles.size();
+		tiles.add( t );
+		t.link();
+	}
+
+	private void removeTile(Tile t)
+	{
+		// swap-remove, O(1)
+		final int idx = t.listIndex;
+		final int lastIdx = tiles.size()-1;
+		if ( idx < 0 || idx > lastIdx || tiles.get( idx ) != t ) {
+			return; // already removed
+		}
+		final Tile last = tiles.remove( lastIdx );
+		if ( last != t ) {
+			tiles.set( idx , last );
+			last.listIndex = idx;
+		}
+		releaseTile( t );
+	}
+
+	private void releaseTile(Tile t)
+	{
+		if ( t.animation != null ) {
+			releaseAnimation( t.animation );
+			t.animation = null;
+		}
+		t.listIndex = -1;
+		freeTiles.add( t );
+	}
+
+	private TileMovingTickListener acquireAnimation(Tile t,int dstX,int dstY)
+	{
+		final TileMovingTickListener result = freeAnimations.isEmpty() ? new TileMovingTickListener() : freeAnimations.remove( freeAnimations.size()-1 );
+		result.init( t , dstX , dstY );
+		return result;
+	}
+
+	private void releaseAnimation(TileMovingTickListener animation)
+	{
+		animation.init( null , 0 , 0 );
+		freeAnimations.add( animation );
 	}
 
 	public void visitOccupiedTiles(Consumer<Tile> visitor)
 	{
-		for (int i = 0; i < tiles.size(); i++) 
+		for (int i = 0; i < tiles.size(); i++)
 		{
 			visitor.accept( tiles.get(i)  );
 		}
@@ -248,37 +523,110 @@ public class ScreenState implements ITickListener
 
 	public void moveTile(int srcX,int srcY,int dstX,int dstY)
 	{
-		currentBatch().add( () -> getTile(srcX,srcY).moveTo( dstX , dstY ) );
+		currentBatch().add( CMD_MOVE , srcX , srcY , dstX , dstY );
+	}
+
+	private void executeNextBatch()
+	{
+		final int end = batchEnds[ batchHead++ ];
+		final int[] cmds = commands;
+		for ( int ptr = readPtr ; ptr < end ; ptr += CMD_SIZE )
+		{
+			final int arg0 = cmds[ptr+1];
+			final int arg1 = cmds[ptr+2];
+			switch( cmds[ptr] )
+			{
+				case CMD_CLEAR:
+					getTile( arg0 , arg1 ).destroy();
+					break;
+				case CMD_SET_VALUE:
+					final Tile t = getTile( arg0 , arg1 , false );
+					if ( t == null ) {
+						addTile( arg0 , arg1 , cmds[ptr+3] );
+					} else {
+						t.setValue( cmds[ptr+3] );
+					}
+					break;
+				case CMD_MOVE:
+					getTile( arg0 , arg1 ).moveTo( cmds[ptr+3] , cmds[ptr+4] );
+					break;
+				default:
+					throw new IllegalStateException("Unknown command opcode "+cmds[ptr]);
+			}
+		}
+		readPtr = end;
+
+		// rewind buffers once everything has been consumed
+		if ( batchHead == batchTail )
+		{
+			batchHead = batchTail = 0;
+			if ( readPtr == writePtr ) {
+				readPtr = writePtr = pendingStart = 0;
+			}
+		}
 	}
 
 	@Override
-	public boolean tick(float deltaSeconds) 
+	public boolean tick(float deltaSeconds)
 	{
 		boolean tilesBusy = false;
-		for ( Tile t : tiles ) {
-			tilesBusy |= t.tick( deltaSeconds );
+		for (int i = 0 , len = tiles.size() ; i < len ; i++) {
+			tilesBusy |= tiles.get(i).tick( deltaSeconds );
 		}
-		if ( ! tilesToRemove.isEmpty() ) {
-			tiles.removeAll( tilesToRemove );
+		if ( ! tilesToRemove.isEmpty() )
+		{
+			for (int i = 0 , len = tilesToRemove.size() ; i < len ; i++) {
+				removeTile( tilesToRemove.get(i) );
+			}
 			tilesToRemove.clear();
 		}
-		if ( ! tilesBusy && ! batches.isEmpty() ) 
+		if ( ! tilesBusy && batchHead != batchTail )
 		{
-			batches.remove(0).forEach( Runnable::run );
+			executeNextBatch();
 		}
 		return true;
 	}
-	
-	public boolean isInSyncWithBoardState() 
+
+	/**
+	 * Instantly completes all running animations and executes all queued batches,
+	 * so that the screen state is in sync with the board state afterwards.
+	 *
+	 * <p>Used to coalesce moves that are made faster than they can be animated, only the 
+	 * animations of the last move are played.</p>
+	 */
+	public void fastForward()
+	{
+		finishTiles();
+		while ( batchHead != batchTail )
+		{
+			executeNextBatch();
+			finishTiles();
+		}
+	}
+
+	private void finishTiles()
+	{
+		// no need to keep the order tiles get ticked in, grid slots are only
+		// ever cleared by the tile occupying them
+		for (int i = 0 , len = tiles.size() ; i < len ; i++) {
+			tiles.get(i).finish();
+		}
+		for (int i = 0 , len = tilesToRemove.size() ; i < len ; i++) {
+			removeTile( tilesToRemove.get(i) );
+		}
+		tilesToRemove.clear();
+	}
+
+	public boolean isInSyncWithBoardState()
 	{
-		if ( ! batches.isEmpty() ) {
+		if ( batchHead != batchTail ) {
 			return false;
 		}
-		for ( Tile t : tiles ) {
-			if ( t.hasPendingChanges() ) {
+		for (int i = 0 , len = tiles.size() ; i < len ; i++) {
+			if ( tiles.get(i).hasPendingChanges() ) {
 				return false;
 			}
 		}
 		return true;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,372 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Search statistics of one or more {@link AIPlayer}s, published as a JMX MBean and optionally written to <code>System.out</code>.
+ *
+ * <p>To not add any contention to the search itself, each search task counts into its own {@link Counters} instance
+ * that gets merged into the global statistics by {@link #record(long, int, List)} once the move is complete.</p>
+ *
+ * <p>Logging is disabled by default, it gets enabled by setting the {@link #LOG_INTERVAL_PROPERTY} system property 
+ * to the log interval (in seconds).</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class SearchMetrics implements SearchMetricsMBean
+{
+	/**
+	 * System property holding the log interval in seconds.
+	 */
+	public static final String LOG_INTERVAL_PROPERTY = "j2048.metrics.logInterval";
+
+	private static final long DEFAULT_LOG_INTERVAL_SECONDS = 0;
+
+	private static final int HISTOGRAM_BUCKETS = 24;
+
+	private static final AtomicInteger INSTANCE_ID = new AtomicInteger(0);
+
+	/**
+	 * Statistics of a single search task, not thread-safe.
+	 */
+	public static final class Counters
+	{
+		public long nodes;
+		public long expanded;
+		public long cutoffs;
+		public long tableProbes;
+		public long tableHits;
+		public int maxPly;
+		public long busyNanos;
+		public String thread;
+
+		public void enter(int ply)
+		{
+			nodes++;
+			if ( ply > maxPly ) {
+				maxPly = ply;
+			}
+		}
+	}
+
+	private final String name;
+	private final long logIntervalNanos;
+
+	// name this instance got registered with, null if not registered
+	// @GuardedBy( this )
+	private ObjectName objectName;
+
+	// @GuardedBy( this )
+	private long moves;
+	private long totalNodes;
+	private long totalExpanded;
+	private long totalCutoffs;
+	private long totalProbes;
+	private long totalHits;
+	private long totalDepth;
+	private long totalNanos;
+	private long maxLatencyNanos;
+	private long lastNodes;
+	private long lastNanos;
+	private int lastDepth;
+	private double lastUtilisation;
+	private long ponderRequests;
+	private long ponderHits;
+	private final long[] histogram = new long[ HISTOGRAM_BUCKETS ];
+	private final Map<String,Long> busyNanosByThread = new TreeMap<>();
+
+	// @GuardedBy( this )
+	private long lastLogTime = System.nanoTime();
+	private long nodesAtLastLog;
+	private long nanosAtLastLog;
+	private long movesAtLastLog;
+
+	public SearchMetrics(String name)
+	{
+		this.name = name;
+		this.logIntervalNanos = Long.getLong( LOG_INTERVAL_PROPERTY , DEFAULT_LOG_INTERVAL_SECONDS ) * 1000_000_000L;
+	}
+
+	/**
+	 * Creates an instance and registers it with the platform MBean server.
+	 *
+	 * @return
+	 * @see #unregister()
+	 */
+	public static SearchMetrics register()
+	{
+		final SearchMetrics result = new SearchMetrics( "ai-"+INSTANCE_ID.incrementAndGet() );
+		try 
+		{
+			final ObjectName objectName = new ObjectName( "de.codesourcery.j2048:type=SearchMetrics,name="+result.name );
+			ManagementFactory.getPlatformMBeanServer().registerMBean( result , objectName );
+			synchronized( result ) {
+				result.objectName = objectName;
+			}
+		}
+		catch (JMException e) {
+			System.err.println("Failed to register search metrics MBean: "+e.getMessage());
+		}
+		return result;
+	}
+
+	/**
+	 * Removes this instance from the platform MBean server, does nothing if it is not registered.
+	 */
+	public void unregister()
+	{
+		final ObjectName toRemove;
+		synchronized( this ) 
+		{
+			toRemove = objectName;
+			objectName = null;
+		}
+		if ( toRemove != null ) 
+		{
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean( toRemove );
+			}
+			catch (JMException e) {
+				System.err.println("Failed to unregister search metrics MBean: "+e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Records the statistics of a completed move.
+	 *
+	 * @param latencyNanos time it took to determine the move
+	 * @param threads number of threads available for searching
+	 * @param counters counters of all search tasks run for this move
+	 */
+	public void record(long latencyNanos,int threads,List<Counters> counters)
+	{
+		long nodes = 0;
+		long busyNanos = 0;
+		int depth = 0;
+		String logLine = null;
+		synchronized(this)
+		{
+			for ( Counters c : counters )
+			{
+				nodes += c.nodes;
+				busyNanos += c.busyNanos;
+				depth = Math.max( depth , c.maxPly );
+				totalExpanded += c.expanded;
+				totalCutoffs += c.cutoffs;
+				totalProbes += c.tableProbes;
+				totalHits += c.tableHits;
+				if ( c.thread != null ) {
+					busyNanosByThread.merge( c.thread , c.busyNanos , Long::sum );
+				}
+			}
+			moves++;
+			totalNodes += nodes;
+			totalDepth += depth;
+			totalNanos += latencyNanos;
+			maxLatencyNanos = Math.max( maxLatencyNanos , latencyNanos );
+			lastNodes = nodes;
+			lastNanos = latencyNanos;
+			lastDepth = depth;
+			lastUtilisation = latencyNanos > 0 ? percentage( busyNanos , latencyNanos * (long) Math.max( 1 , threads ) ) : 0;
+			histogram[ bucket( latencyNanos ) ]++;
+
+			final long now = System.nanoTime();
+			if ( logIntervalNanos > 0 && now - lastLogTime >= logIntervalNanos )
+			{
+				logLine = createLogLine();
+				lastLogTime = now;
+				nodesAtLastLog = totalNodes;
+				nanosAtLastLog = totalNanos;
+				movesAtLastLog = moves;
+			}
+		}
+		if ( logLine != null ) {
+			System.out.println( logLine );
+		}
+	}
+
+	/**
+	 * Records whether a move could be served by a speculative search.
+	 *
+	 * @param hit
+	 */
+	public synchronized void recordPonder(boolean hit)
+	{
+		ponderRequests++;
+		if ( hit ) {
+			ponderHits++;
+		}
+	}
+
+	// @GuardedBy( this )
+	private String createLogLine()
+	{
+		return String.format("[%s] %d moves , %d nodes/s , avg. depth %.1f , cutoffs %.1f %% , cache hits %.1f %% , latency p50/p99/max %d/%d/%d ms",
+				name , moves - movesAtLastLog ,
+				nodesPerSecond( totalNodes - nodesAtLastLog , totalNanos - nanosAtLastLog ) ,
+				getAverageReachedDepth() , getCutoffRate() , getCacheHitRate() ,
+				getMoveLatency50thPercentileMillis() , getMoveLatency99thPercentileMillis() , getMaxMoveLatencyMillis() );
+	}
+
+	private static int bucket(long latencyNanos)
+	{
+		final long millis = latencyNanos / 1000_000;
+		final int bucket = 64 - Long.numberOfLeadingZeros( millis );
+		return Math.min( bucket , HISTOGRAM_BUCKETS-1 );
+	}
+
+	private static double percentage(long value,long total) {
+		return total == 0 ? 0 : 100.0 * value / total;
+	}
+
+	private static long nodesPerSecond(long nodes,long nanos) {
+		return nanos == 0 ? 0 : (long) ( nodes * 1e9 / nanos );
+	}
+
+	// @GuardedBy( this )
+	private long percentile(double percent)
+	{
+		final long threshold = (long) Math.ceil( moves * percent / 100.0 );
+		long count = 0;
+		for ( int i = 0 ; i < histogram.length ; i++ )
+		{
+			count += histogram[i];
+			if ( count > 0 && count >= threshold ) {
+				// upper bound of the bucket
+				return Math.min( 1L << i , maxLatencyNanos / 1000_000 );
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public synchronized long getMoveCount() {
+		return moves;
+	}
+
+	@Override
+	public synchronized long getTotalNodes() {
+		return totalNodes;
+	}
+
+	@Override
+	public synchronized long getLastMoveNodes() {
+		return lastNodes;
+	}
+
+	@Override
+	public synchronized long getLastMoveNodesPerSecond() {
+		return nodesPerSecond( lastNodes , lastNanos );
+	}
+
+	@Override
+	public synchronized long getAverageNodesPerSecond() {
+		return nodesPerSecond( totalNodes , totalNanos );
+	}
+
+	@Override
+	public synchronized int getLastMoveReachedDepth() {
+		return lastDepth;
+	}
+
+	@Override
+	public synchronized double getAverageReachedDepth() {
+		return moves == 0 ? 0 : totalDepth / (double) moves;
+	}
+
+	@Override
+	public synchronized double getCutoffRate() {
+		return percentage( totalCutoffs , totalExpanded );
+	}
+
+	@Override
+	public synchronized double getCacheHitRate() {
+		return percentage( totalHits , totalProbes );
+	}
+
+	@Override
+	public synchronized double getPonderHitRate() {
+		return percentage( ponderHits , ponderRequests );
+	}
+
+	@Override
+	public synchronized double getLastMoveThreadUtilisation() {
+		return lastUtilisation;
+	}
+
+	@Override
+	public synchronized String[] getThreadUtilisation()
+	{
+		final List<String> result = new ArrayList<>();
+		busyNanosByThread.forEach( (thread,busy) -> result.add( String.format( "%s: %.1f %%" , thread , percentage( busy , totalNanos ) ) ) );
+		return result.toArray( new String[ result.size() ] );
+	}
+
+	@Override
+	public synchronized long getLastMoveLatencyMillis() {
+		return lastNanos / 1000_000;
+	}
+
+	@Override
+	public synchronized long getMaxMoveLatencyMillis() {
+		return maxLatencyNanos / 1000_000;
+	}
+
+	@Override
+	public synchronized long getMoveLatency50thPercentileMillis() {
+		return percentile( 50 );
+	}
+
+	@Override
+	public synchronized long getMoveLatency90thPercentileMillis() {
+		return percentile( 90 );
+	}
+
+	@Override
+	public synchronized long getMoveLatency99thPercentileMillis() {
+		return percentile( 99 );
+	}
+
+	@Override
+	public synchronized long[] getMoveLatencyHistogram() {
+		return Arrays.copyOf( histogram , histogram.length );
+	}
+
+	@Override
+	public synchronized void reset()
+	{
+		moves = totalNodes = totalExpanded = totalCutoffs = totalProbes = totalHits = totalDepth = totalNanos = maxLatencyNanos = 0;
+		lastNodes = lastNanos = 0;
+		lastDepth = 0;
+		lastUtilisation = 0;
+		ponderRequests = ponderHits = 0;
+		Arrays.fill( histogram , 0 );
+		busyNanosByThread.clear();
+		nodesAtLastLog = nanosAtLastLog = movesAtLastLog = 0;
+	}
+}
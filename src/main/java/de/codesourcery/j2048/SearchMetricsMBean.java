@@ -0,0 +1,81 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+/**
+ * JMX management interface of {@link SearchMetrics}.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public interface SearchMetricsMBean
+{
+	public long getMoveCount();
+
+	public long getTotalNodes();
+
+	public long getLastMoveNodes();
+
+	public long getLastMoveNodesPerSecond();
+
+	public long getAverageNodesPerSecond();
+
+	public int getLastMoveReachedDepth();
+
+	public double getAverageReachedDepth();
+
+	/**
+	 * Returns the percentage of expanded nodes that caused a beta cutoff.
+	 */
+	public double getCutoffRate();
+
+	/**
+	 * Returns the percentage of transposition table probes that found a usable entry.
+	 */
+	public double getCacheHitRate();
+
+	/**
+	 * Returns the percentage of moves (made while pondering) that were served by a speculative search.
+	 */
+	public double getPonderHitRate();
+
+	/**
+	 * Returns the percentage of the search time search threads spent working on the last move.
+	 */
+	public double getLastMoveThreadUtilisation();
+
+	/**
+	 * Returns the percentage of the total search time each search thread was busy, as "thread: percentage" strings.
+	 */
+	public String[] getThreadUtilisation();
+
+	public long getLastMoveLatencyMillis();
+
+	public long getMaxMoveLatencyMillis();
+
+	public long getMoveLatency50thPercentileMillis();
+
+	public long getMoveLatency90thPercentileMillis();
+
+	public long getMoveLatency99thPercentileMillis();
+
+	/**
+	 * Returns the move latency histogram, element <code>i</code> holds the number of moves that took less than 2^i milliseconds 
+	 * (but at least 2^(i-1) milliseconds).
+	 */
+	public long[] getMoveLatencyHistogram();
+
+	public void reset();
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import java.awt.Component;
+import java.lang.reflect.Method;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.codesourcery.j2048.IInputProvider.Action;
+
+/**
+ * Runs headless game sessions, each one as a sequential loop on its own thread.
+ *
+ * <p>On JDKs that support virtual threads (Java 21+), each session gets a virtual thread so that
+ * a huge number of mostly idle sessions (for example waiting for a remote agent) can be hosted
+ * with little memory per session. Otherwise each session runs on a platform thread.</p>
+ *
+ * <p>Unlike the interactive game, input providers are not {@link IInputProvider#attach(Component) attached} to anything.
+ * Sessions wait for the future returned by {@link IInputProvider#getActionAsync(BoardState)} without polling, so it should
+ * only be completed once an action is available. {@link Action#NONE} makes the session ask again right away. 
+ * Once a game is over, it is recorded in the runner's {@link GameStatistics} and a new one gets started without
+ * asking the input provider.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class SessionRunner implements AutoCloseable
+{
+	private final ExecutorService executor;
+	private final boolean virtualThreads;
+	private final GameStatistics statistics;
+
+	/**
+	 * Creates a runner that records games in the {@link GameStatistics#getDefault() default statistics},
+	 * together with the move latencies of any {@link AIPlayer}s.
+	 */
+	public SessionRunner() {
+		this( GameStatistics.getDefault() );
+	}
+
+	public SessionRunner(GameStatistics statistics)
+	{
+		this.statistics = statistics;
+		final ExecutorService virtual = createVirtualThreadExecutor();
+		this.virtualThreads = virtual != null;
+		this.executor = virtual != null ? virtual : Executors.newCachedThreadPool( createThreadFactory() );
+	}
+
+	private static ExecutorService createVirtualThreadExecutor()
+	{
+		try {
+			final Method method = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+			return (ExecutorService) method.invoke( null );
+		} 
+		catch (ReflectiveOperationException | RuntimeException e) {
+			// not available (or a preview feature that is not enabled)
+			return null;
+		}
+	}
+
+	private static ThreadFactory createThreadFactory()
+	{
+		return new ThreadFactory() 
+		{
+			private final AtomicLong ID = new AtomicLong(0);
+			@Override
+			public Thread newThread(Runnable r) 
+			{
+				final Thread t = new Thread(r);
+				t.setName("session-"+ID.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * Returns whether sessions are run on virtual threads.
+	 *
+	 * @return
+	 */
+	public boolean isUsingVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public GameStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Starts a new session.
+	 *
+	 * @param inputProvider input provider to play the games, must only be used by this session
+	 * @param cols number of columns
+	 * @param rows number of rows
+	 * @param seed random seed used for placing tiles
+	 * @param games number of games to play, negative values play until the session gets cancelled
+	 * @return future that completes once all games have been played, cancel it (with interruption) to stop the session
+	 */
+	public Future<?> submit(IInputProvider inputProvider,int cols,int rows,long seed,int games)
+	{
+		final BoardState board = new BoardState( cols , rows );
+		return executor.submit( () -> 
+		{
+			play( inputProvider , board , new Random( seed ) , games );
+			return null;
+		});
+	}
+
+	private void play(IInputProvider inputProvider,BoardState board,Random rnd,int games) throws InterruptedException, ExecutionException
+	{
+		board.reset();
+		board.placeRandomTile( rnd );
+		int moves = 0;
+		for ( int played = 0 ; ( games < 0 || played < games ) && ! Thread.currentThread().isInterrupted() ; )
+		{
+			if ( board.isGameOver() ) 
+			{
+				statistics.recordGame( board.getHighestTileValue() , board.getScore() , moves );
+				played++;
+				moves = 0;
+				board.reset();
+				board.placeRandomTile( rnd );
+				continue;
+			}
+
+			final Action action = awaitAction( inputProvider.getActionAsync( board ) );
+			if ( action == Action.RESTART )
+			{
+				moves = 0;
+				board.reset();
+				board.placeRandomTile( rnd );
+			}
+			else if ( action != Action.NONE ) 
+			{
+				final Object event = FlightRecorderEvents.beginTiltBatch();
+				final boolean moved = Main.processInput( board , action , rnd );
+				FlightRecorderEvents.endTiltBatch( event , 1 , moved ? 1 : 0 );
+				if ( moved ) {
+					moves++;
+				}
+			}
+		}
+	}
+
+	private static Action awaitAction(Future<Action> action) throws InterruptedException, ExecutionException 
+	{
+		try {
+			return action.get();
+		} 
+		catch(InterruptedException e) 
+		{
+			// session got cancelled
+			action.cancel( true );
+			throw e;
+		}
+	}
+
+	/**
+	 * Stops all sessions.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,338 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lazily built table of exact survival probabilities for nearly full 4x4 boards.
+ *
+ * <p>For a board with at most {@link #MAX_EMPTY} empty cells right before a random tile
+ * gets placed, the table holds the probability that a perfect player survives the
+ * next {@link #HORIZON} moves (with tiles being placed just like {@link BoardState#placeRandomTile(java.util.Random)} does).
+ * Missing entries are calculated on demand using an expectimax search and added to the table.</p>
+ *
+ * <p>Entries are stored in an open-addressing hash table inside a (memory-mapped) byte buffer, so when
+ * backed by a file the table survives restarts of the application. Once the table is full, existing
+ * entries get overwritten. Instances are thread-safe.</p>
+ *
+ * <p>A file-backed table holds an exclusive lock on its file until it gets {@link #close() closed}, so
+ * the file cannot be corrupted by several processes writing to it at the same time.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class SurvivalTablebase
+{
+	/**
+	 * Max. number of empty cells a board may have to be looked up.
+	 */
+	public static final int MAX_EMPTY = 2;
+
+	/**
+	 * Number of moves the survival probability is calculated for.
+	 */
+	public static final int HORIZON = 4;
+
+	/**
+	 * System property holding the file the default table should be stored in. If not set,
+	 * the default table is only kept in memory.
+	 */
+	public static final String FILE_PROPERTY = "j2048.tablebase";
+
+	// probability of BoardState#placeRandomTile() placing a 2
+	private static final float PROBABILITY_TWO = 0.9f;
+
+	private static final int MAGIC = 0x4a325442; // 'J2TB'
+	private static final int VERSION = 1;
+
+	// magic, version, horizon, capacity
+	private static final int HEADER_SIZE = 16;
+
+	// board (long), horizon (int), probability (float)
+	private static final int ENTRY_SIZE = 16;
+
+	// entries are looked up in aligned buckets of this size
+	private static final int BUCKET_SIZE = 8;
+
+	private static final int LOCK_COUNT = 64;
+
+	private static final int DEFAULT_CAPACITY = 1<<20;
+
+	private static SurvivalTablebase defaultInstance;
+
+	private final ByteBuffer buffer;
+	private final FileChannel channel;
+	private final int mask;
+	private final Object[] locks = new Object[ LOCK_COUNT ];
+
+	private SurvivalTablebase(ByteBuffer buffer,FileChannel channel,int capacity)
+	{
+		this.buffer = buffer;
+		this.channel = channel;
+		this.mask = capacity-1;
+		for ( int i = 0 ; i < LOCK_COUNT ; i++ ) {
+			locks[i] = new Object();
+		}
+		if ( buffer.getInt( 0 ) != MAGIC || buffer.getInt( 4 ) != VERSION || buffer.getInt( 8 ) != HORIZON || buffer.getInt( 12 ) != capacity )
+		{
+			// new or incompatible table, start from scratch
+			for ( int i = 0 , len = buffer.capacity() ; i < len ; i += 8 ) {
+				buffer.putLong( i , 0 );
+			}
+			buffer.putInt( 0 , MAGIC );
+			buffer.putInt( 4 , VERSION );
+			buffer.putInt( 8 , HORIZON );
+			buffer.putInt( 12 , capacity );
+		}
+	}
+
+	/**
+	 * Opens (or creates) a table backed by a memory-mapped file.
+	 *
+	 * <p>The file stays locked until the table gets closed.</p>
+	 *
+	 * @param file
+	 * @param capacity max. number of entries, must be a power of two
+	 * @return
+	 * @throws IOException if the file cannot be opened or is already in use
+	 */
+	public static SurvivalTablebase open(File file,int capacity) throws IOException
+	{
+		checkCapacity( capacity );
+		final FileChannel channel = FileChannel.open( file.toPath() , StandardOpenOption.CREATE , StandardOpenOption.READ , StandardOpenOption.WRITE );
+		try
+		{
+			FileLock lock;
+			try {
+				lock = channel.tryLock();
+			} 
+			catch(OverlappingFileLockException e) {
+				lock = null; // locked by this JVM
+			}
+			if ( lock == null ) {
+				throw new IOException("File is in use by another table: "+file.getAbsolutePath());
+			}
+			return new SurvivalTablebase( channel.map( MapMode.READ_WRITE , 0 , HEADER_SIZE + (long) capacity * ENTRY_SIZE ) , channel , capacity );
+		}
+		catch(IOException | RuntimeException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates a table that is only kept in memory.
+	 *
+	 * @param capacity max. number of entries, must be a power of two
+	 * @return
+	 */
+	public static SurvivalTablebase createInMemory(int capacity)
+	{
+		checkCapacity( capacity );
+		return new SurvivalTablebase( ByteBuffer.allocateDirect( HEADER_SIZE + capacity * ENTRY_SIZE ) , null , capacity );
+	}
+
+	/**
+	 * Releases the file backing this table, does nothing for in-memory tables.
+	 *
+	 * <p>The table must not be used afterwards.</p>
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException
+	{
+		if ( channel != null ) {
+			channel.close(); // also releases the lock
+		}
+	}
+
+	private static void checkCapacity(int capacity)
+	{
+		if ( capacity < BUCKET_SIZE || Integer.bitCount( capacity ) != 1 || capacity > (Integer.MAX_VALUE - HEADER_SIZE) / ENTRY_SIZE ) {
+			throw new IllegalArgumentException("Capacity must be a power of two >= "+BUCKET_SIZE+" , was: "+capacity);
+		}
+	}
+
+	/**
+	 * Returns the shared table.
+	 *
+	 * <p>The table is only kept in memory unless the {@link #FILE_PROPERTY} system property names a file
+	 * to store it in. Falls back to an in-memory table if the file cannot be used (for example because
+	 * another process is using it).</p>
+	 *
+	 * @return
+	 */
+	public static synchronized SurvivalTablebase getDefault()
+	{
+		if ( defaultInstance == null )
+		{
+			final String path = System.getProperty( FILE_PROPERTY , "" ).trim();
+			if ( path.isEmpty() ) {
+				defaultInstance = createInMemory( DEFAULT_CAPACITY );
+			} 
+			else 
+			{
+				final File file = new File( path );
+				try {
+					defaultInstance = open( file , DEFAULT_CAPACITY );
+				}
+				catch(IOException e)
+				{
+					System.err.println("Failed to open tablebase "+file.getAbsolutePath()+" , using in-memory table: "+e.getMessage());
+					defaultInstance = createInMemory( DEFAULT_CAPACITY );
+				}
+			}
+		}
+		return defaultInstance;
+	}
+
+	/**
+	 * Checks whether a board is covered by this table.
+	 *
+	 * @param board packed board (see {@link PackedBoard})
+	 * @return
+	 */
+	public static boolean isApplicable(long board)
+	{
+		final int empty = PackedBoard.countEmpty( board );
+		return empty > 0 && empty <= MAX_EMPTY;
+	}
+
+	/**
+	 * Returns the probability of surviving the next {@link #HORIZON} moves.
+	 *
+	 * @param board packed board (see {@link PackedBoard}) right before a random tile gets placed
+	 * @return probability (0...1)
+	 */
+	public float getSurvivalProbability(long board) {
+		return survival( board , HORIZON );
+	}
+
+	private float survival(long board,int horizon)
+	{
+		if ( horizon == 0 ) {
+			return 1;
+		}
+		final int empty = PackedBoard.countEmpty( board );
+		if ( empty > horizon ) {
+			/*
+			 * Each placed tile uses up one empty cell but as long as there is
+			 * an empty cell there is a legal move and tilting never increases
+			 * the number of tiles.
+			 */
+			return 1;
+		}
+		if ( empty == 0 ) {
+			return 0; // cannot happen after a legal move
+		}
+
+		final int bucket = hash( board , horizon ) & mask & ~(BUCKET_SIZE-1);
+		final float cached = get( bucket , board , horizon );
+		if ( cached >= 0 ) {
+			return cached;
+		}
+
+		float sum = 0;
+		for ( int i = 0 ; i < PackedBoard.COLS*PackedBoard.ROWS ; i++ )
+		{
+			if ( PackedBoard.getTile( board , i ) != BoardState.EMPTY_TILE ) {
+				continue;
+			}
+			sum += PROBABILITY_TWO * bestMove( PackedBoard.setTile( board , i , 1 ) , horizon );
+			sum += (1-PROBABILITY_TWO) * bestMove( PackedBoard.setTile( board , i , 2 ) , horizon );
+		}
+		final float result = sum / empty;
+		put( bucket , board , horizon , result );
+		return result;
+	}
+
+	private float bestMove(long board,int horizon)
+	{
+		final int legalMoves = PackedBoard.getLegalMoves( board );
+		float best = 0;
+		if ( ( legalMoves & BoardState.MOVE_DOWN ) != 0 ) {
+			best = Math.max( best , survival( PackedBoard.tiltDown( board ) , horizon-1 ) );
+		}
+		if ( best < 1 && ( legalMoves & BoardState.MOVE_UP ) != 0 ) {
+			best = Math.max( best , survival( PackedBoard.tiltUp( board ) , horizon-1 ) );
+		}
+		if ( best < 1 && ( legalMoves & BoardState.MOVE_LEFT ) != 0 ) {
+			best = Math.max( best , survival( PackedBoard.tiltLeft( board ) , horizon-1 ) );
+		}
+		if ( best < 1 && ( legalMoves & BoardState.MOVE_RIGHT ) != 0 ) {
+			best = Math.max( best , survival( PackedBoard.tiltRight( board ) , horizon-1 ) );
+		}
+		return best;
+	}
+
+	private static int hash(long board,int horizon)
+	{
+		long h = (board ^ (board >>> 33) ) * 0xff51afd7ed558ccdL + horizon;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int) h;
+	}
+
+	private float get(int bucket,long board,int horizon)
+	{
+		synchronized( locks[ (bucket / BUCKET_SIZE) & (LOCK_COUNT-1) ] )
+		{
+			for ( int i = 0 ; i < BUCKET_SIZE ; i++ )
+			{
+				final int offset = HEADER_SIZE + (bucket+i) * ENTRY_SIZE;
+				final int entryHorizon = buffer.getInt( offset + 8 );
+				if ( entryHorizon == 0 ) {
+					break; // empty slot
+				}
+				if ( entryHorizon == horizon && buffer.getLong( offset ) == board ) {
+					return buffer.getFloat( offset + 12 );
+				}
+			}
+		}
+		return -1;
+	}
+
+	private void put(int bucket,long board,int horizon,float probability)
+	{
+		synchronized( locks[ (bucket / BUCKET_SIZE) & (LOCK_COUNT-1) ] )
+		{
+			int slot = bucket + ( (int) board & (BUCKET_SIZE-1) ); // victim if bucket is full
+			for ( int i = 0 ; i < BUCKET_SIZE ; i++ )
+			{
+				final int offset = HEADER_SIZE + (bucket+i) * ENTRY_SIZE;
+				final int entryHorizon = buffer.getInt( offset + 8 );
+				if ( entryHorizon == 0 || ( entryHorizon == horizon && buffer.getLong( offset ) == board ) )
+				{
+					slot = bucket+i;
+					break;
+				}
+			}
+			final int offset = HEADER_SIZE + slot * ENTRY_SIZE;
+			buffer.putLong( offset , board );
+			buffer.putInt( offset + 8 , horizon );
+			buffer.putFloat( offset + 12 , probability );
+		}
+	}
+}
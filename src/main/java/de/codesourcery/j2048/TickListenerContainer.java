@@ -16,12 +16,32 @@
 package de.codesourcery.j2048;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Thread-safe container for {@link ITickListener} instances that takes care of
- * propagating {@link ITickListener#tick(ITickContext)} calls to each of the registered listeners. 
+ * propagating {@link ITickListener#tick(ITickContext)} calls to each of the registered listeners.
+ *
+ * <p>Adding/removing listeners never blocks, registration changes are queued and get applied
+ * by the thread invoking {@link #invokeTickListeners(float)} right before the next tick
+ * is dispatched.</p>
+ *
+ * <p>The time spent in each listener's <code>tick()</code> method is tracked and can be
+ * queried using {@link #getTickStatistics()}.</p>
+ *
+ * <p>Listeners may be registered as being <i>independent</i> (see {@link #addTickListener(ITickListener, boolean)}),
+ * if the container was created with a parallelism greater than one these listeners get ticked concurrently
+ * on a thread pool. {@link #invokeTickListeners(float)} always waits for all listeners to finish before
+ * returning so it's safe to render right afterwards,
+ * this includes the case of a listener throwing an exception.</p>
  *
  * @author tobias.gierke@code-sourcery.de
  */
@@ -37,7 +57,7 @@ public final class TickListenerContainer
 	{
 		/**
 		 * Method that gets called periodically.
-		 * 
+		 *
 		 * @param deltaSeconds time ins seconds that elapsed since the last tick
 		 * @return <code>true</code> if this listener wants to receive further tick events, <code>false</code>
 		 * if this listener can be discarded/does not need to receive any more events
@@ -45,32 +65,313 @@ public final class TickListenerContainer
 		public boolean tick(float deltaSeconds);
 	}
 
-	private final List<ITickListener> tickListeners = new ArrayList<>();
+	/**
+	 * Snapshot of the time spent ticking a single listener.
+	 *
+	 * @author tobias.gierke@code-sourcery.de
+	 */
+	public static final class TickStatistics
+	{
+		public final ITickListener listener;
+		public final long invocations;
+		public final long totalNanos;
+		public final long maxNanos;
+		public final long lastNanos;
 
-	public void addTickListener(ITickListener l)
+		private TickStatistics(ListenerEntry entry)
+		{
+			this.listener = entry.listener;
+			this.invocations = entry.invocations;
+			this.totalNanos = entry.totalNanos;
+			this.maxNanos = entry.maxNanos;
+			this.lastNanos = entry.lastNanos;
+		}
+
+		public double getAverageMicros() {
+			return invocations == 0 ? 0 : (totalNanos / (double) invocations) / 1000d;
+		}
+
+		@Override
+		public String toString() {
+			return listener+": "+invocations+" ticks, avg "+getAverageMicros()+" us, max "+(maxNanos/1000d)+" us, last "+(lastNanos/1000d)+" us";
+		}
+	}
+
+	private final class ListenerEntry implements Runnable
 	{
-		synchronized( tickListeners ) {
-			this.tickListeners.add( l );
+		public final ITickListener listener;
+		public final boolean independent;
+
+		// parameters/results of the current tick when executed on the thread pool
+		private float deltaSeconds;
+		private boolean keep;
+		private Throwable error;
+
+		// written by whatever thread is currently ticking this listener
+		public volatile long invocations;
+		public volatile long totalNanos;
+		public volatile long maxNanos;
+		public volatile long lastNanos;
+
+		public ListenerEntry(ITickListener listener,boolean independent) {
+			this.listener = listener;
+			this.independent = independent;
+		}
+
+		public boolean tick(float deltaSeconds)
+		{
+			final long start = System.nanoTime();
+			final boolean result = listener.tick( deltaSeconds );
+			final long elapsed = System.nanoTime() - start;
+
+			invocations++;
+			totalNanos += elapsed;
+			lastNanos = elapsed;
+			if ( elapsed > maxNanos ) {
+				maxNanos = elapsed;
+			}
+			return result;
+		}
+
+		@Override
+		public void run()
+		{
+			error = null;
+			try {
+				keep = tick( deltaSeconds );
+			}
+			catch(Throwable t) {
+				keep = true;
+				error = t;
+			}
+			finally
+			{
+				if ( pendingTasks.decrementAndGet() == 0 ) {
+					LockSupport.unpark( tickingThread );
+				}
+			}
+		}
+	}
+
+	private static final class Registration
+	{
+		public final ITickListener listener;
+		public final boolean add;
+		public final boolean independent;
+
+		public Registration(ITickListener listener, boolean add,boolean independent) {
+			this.listener = listener;
+			this.add = add;
+			this.independent = independent;
 		}
 	}
 
+	private final Queue<Registration> pendingRegistrations = new ConcurrentLinkedQueue<>();
+
+	// only replaced by the ticking thread, volatile so that getTickStatistics() sees the latest version
+	private volatile ListenerEntry[] tickListeners;
+
+	private final int parallelism;
+	private ExecutorService threadPool;
+
+	// barrier used when ticking independent listeners on the thread pool
+	private final AtomicInteger pendingTasks = new AtomicInteger();
+	private volatile Thread tickingThread;
+
+	/**
+	 * Creates a container that invokes all listeners sequentially.
+	 */
+	public TickListenerContainer() {
+		this(1);
+	}
+
+	/**
+	 * Creates a container.
+	 *
+	 * @param parallelism max. number of threads to use when ticking independent listeners (including
+	 * the thread calling {@link #invokeTickListeners(float)}), values less than 2 disable parallel dispatch
+	 */
+	public TickListenerContainer(int parallelism)
+	{
+		this.parallelism = parallelism;
+		this.tickListeners = new ListenerEntry[0];
+	}
+
+	public void addTickListener(ITickListener l)
+	{
+		addTickListener( l , false );
+	}
+
+	/**
+	 * Adds a tick listener.
+	 *
+	 * @param l
+	 * @param independent whether this listener's <code>tick()</code> method neither reads nor writes state that is
+	 * shared with any other listener and thus may be invoked concurrently with other listeners
+	 */
+	public void addTickListener(ITickListener l,boolean independent)
+	{
+		pendingRegistrations.add( new Registration( l , true , independent ) );
+	}
+
 	public void removeTickListener(ITickListener l) {
-		synchronized( tickListeners ) {
-			this.tickListeners.remove( l );
+		pendingRegistrations.add( new Registration( l , false , false ) );
+	}
+
+	/**
+	 * Returns a snapshot of the tick-time statistics of all currently registered listeners.
+	 *
+	 * @return
+	 */
+	public List<TickStatistics> getTickStatistics()
+	{
+		final ListenerEntry[] entries = tickListeners;
+		final List<TickStatistics> result = new ArrayList<>( entries.length );
+		for ( ListenerEntry entry : entries ) {
+			result.add( new TickStatistics( entry ) );
+		}
+		return result;
+	}
+
+	private void applyPendingRegistrations()
+	{
+		ListenerEntry[] entries = tickListeners;
+		Registration r;
+		while ( ( r = pendingRegistrations.poll() ) != null )
+		{
+			if ( r.add ) {
+				entries = Arrays.copyOf( entries , entries.length+1 );
+				entries[ entries.length-1 ] = new ListenerEntry( r.listener , r.independent );
+			} else {
+				entries = remove( entries , r.listener );
+			}
 		}
+		tickListeners = entries;
+	}
+
+	private ListenerEntry[] remove(ListenerEntry[] entries,ITickListener l)
+	{
+		for ( int i = 0 ; i < entries.length ; i++ )
+		{
+			if ( entries[i].listener == l )
+			{
+				final ListenerEntry[] result = new ListenerEntry[ entries.length - 1 ];
+				System.arraycopy( entries , 0 , result , 0 , i );
+				System.arraycopy( entries , i+1 , result , i , entries.length - i - 1 );
+				return result;
+			}
+		}
+		return entries;
 	}
 
 	public void invokeTickListeners(float deltaSeconds)
 	{
-		synchronized( tickListeners )
+		if ( ! pendingRegistrations.isEmpty() ) {
+			applyPendingRegistrations();
+		}
+
+		final ListenerEntry[] entries = tickListeners;
+
+		// the last independent listener gets ticked by the current thread, all others on the thread pool
+		final int inlineIdx = parallelism > 1 ? submitIndependentListeners( entries , deltaSeconds ) : -1;
+
+		ListenerEntry[] remaining = entries;
+		try
+		{
+			for ( int i = 0 , len = entries.length ; i < len ; i++ )
+			{
+				final ListenerEntry entry = entries[i];
+				if ( inlineIdx != -1 && entry.independent && i != inlineIdx ) {
+					continue;
+				}
+				if ( ! entry.tick( deltaSeconds ) ) {
+					remaining = remove( remaining , entry.listener );
+				}
+			}
+		}
+		finally 
 		{
-			for (Iterator<ITickListener> it = tickListeners.iterator(); it.hasNext();)
+			// barrier, also when a listener failed: the next tick must not reuse entries that are still being ticked 
+			if ( inlineIdx != -1 ) 
 			{
-				final ITickListener l = it.next();
-				if ( ! l.tick( deltaSeconds ) ) {
-					it.remove();
+				while ( pendingTasks.get() > 0 ) {
+					LockSupport.park( this );
 				}
 			}
 		}
+
+		if ( inlineIdx != -1 )
+		{
+			Throwable error = null;
+			for ( int i = 0 , len = entries.length ; i < len ; i++ )
+			{
+				final ListenerEntry entry = entries[i];
+				if ( entry.independent && i != inlineIdx )
+				{
+					if ( entry.error != null ) {
+						error = entry.error;
+						entry.error = null;
+					}
+					if ( ! entry.keep ) {
+						remaining = remove( remaining , entry.listener );
+					}
+				}
+			}
+			if ( error != null ) {
+				tickListeners = remaining;
+				throw new RuntimeException("Tick listener failed: "+error.getMessage(),error);
+			}
+		}
+		if ( remaining != entries ) {
+			tickListeners = remaining;
+		}
+	}
+
+	private int submitIndependentListeners(ListenerEntry[] entries,float deltaSeconds)
+	{
+		int count = 0;
+		int lastIdx = -1;
+		for ( int i = 0 , len = entries.length ; i < len ; i++ )
+		{
+			if ( entries[i].independent ) {
+				count++;
+				lastIdx = i;
+			}
+		}
+		if ( count < 2 ) {
+			return -1;
+		}
+		if ( threadPool == null ) {
+			threadPool = createThreadPool();
+		}
+		tickingThread = Thread.currentThread();
+		pendingTasks.set( count - 1 );
+		for ( int i = 0 ; i < lastIdx ; i++ )
+		{
+			final ListenerEntry entry = entries[i];
+			if ( entry.independent )
+			{
+				entry.deltaSeconds = deltaSeconds;
+				threadPool.execute( entry );
+			}
+		}
+		return lastIdx;
+	}
+
+	private ExecutorService createThreadPool()
+	{
+		final ThreadFactory threadFactory = new ThreadFactory()
+		{
+			private final AtomicInteger ID = new AtomicInteger(0);
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				final Thread t = new Thread(r);
+				t.setName("tick-"+ID.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+		return Executors.newFixedThreadPool( parallelism - 1 , threadFactory );
 	}
-}
\ No newline at end of file
+}
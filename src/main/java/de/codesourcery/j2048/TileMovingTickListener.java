@@ -21,6 +21,8 @@ import de.codesourcery.j2048.TickListenerContainer.ITickListener;
 /**
  * An {@link ITickListener} responsible for animating/moving a tile by
  * continously updating its screen position. 
+ * 
+ * <p>Instances are re-usable, see {@link #init(Tile, int, int)}.</p>
  *
  * @author tobias.gierke@code-sourcery.de
  */
@@ -30,36 +32,55 @@ public final class TileMovingTickListener implements ITickListener
 	
 	public static final boolean MOVE_INSTANTLY = Main.USE_AI;
 	
-	private final Tile tile;
+	private Tile tile;
 
-	private final int destX;
-	private final int destY;
+	private int destX;
+	private int destY;
 
-	private final float deltaX;
-	private final float deltaY;
+	private float deltaX;
+	private float deltaY;
 	
 	private float currentX;
 	private float currentY;
 	
+	public TileMovingTickListener() {
+	}
+	
 	public TileMovingTickListener(Tile t,int destTileX,int destTileY)
+	{
+		init(t,destTileX,destTileY);
+	}
+	
+	/**
+	 * (Re-)initializes this listener.
+	 * 
+	 * @param t tile to move, <code>null</code> to just release the reference to the last tile
+	 * @param destTileX
+	 * @param destTileY
+	 */
+	public void init(Tile t,int destTileX,int destTileY)
 	{
 		this.tile = t;
+		if ( t == null ) {
+			return;
+		}
 		this.currentX = t.x;
 		this.currentY = t.y;
 		
-		final int xBorderOffset = destTileX * GameScreen.BORDER_THICKNESS;
-		final int yBorderOffset = destTileY * GameScreen.BORDER_THICKNESS;
-		
-		this.destX = GameScreen.BORDER_THICKNESS + destTileX * ScreenState.TILE_WIDTH  + xBorderOffset;
-		this.destY = GameScreen.BORDER_THICKNESS + destTileY * ScreenState.TILE_HEIGHT + yBorderOffset;
+		final ScreenState screenState = t.getScreenState();
+		this.destX = screenState.getScreenX( destTileX );
+		this.destY = screenState.getScreenY( destTileY );
+
+		// scale speed so that animations take the same time regardless of tile size
+		final float speed = MOVEMENT_SPEED * screenState.getTileWidth() / (float) ScreenState.TILE_WIDTH;
 
 		if ( t.tileX != destTileX ) {
-			this.deltaX = destTileX > t.tileX ? MOVEMENT_SPEED : -MOVEMENT_SPEED; 
+			this.deltaX = destTileX > t.tileX ? speed : -speed; 
 		} else {
 			this.deltaX = 0;
 		}
 		if ( t.tileY != destTileY ) {
-			this.deltaY = destTileY > t.tileY ? MOVEMENT_SPEED : -MOVEMENT_SPEED;
+			this.deltaY = destTileY > t.tileY ? speed : -speed;
 		} else {
 			this.deltaY = 0;
 		}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Caches pre-rendered images of tiles (and the empty board) for a given tile size,
+ * so rendering a board boils down to a couple of <code>drawImage()</code> calls.
+ *
+ * <p>Instances are not thread-safe and must only be used by the rendering thread.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class TileSpriteCache
+{
+	private final int tileWidth;
+	private final int tileHeight;
+	private final int borderThickness;
+	private final int arc;
+	private final Font font;
+
+	// sprites indexed by tile value
+	private BufferedImage[] sprites = new BufferedImage[ 16 ];
+
+	private BufferedImage emptyBoard;
+
+	public TileSpriteCache(int tileWidth,int tileHeight,int borderThickness,Font font)
+	{
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+		this.borderThickness = borderThickness;
+		this.arc = Math.max( 2 , 20 * tileWidth / ScreenState.TILE_WIDTH );
+		this.font = font.deriveFont( Font.BOLD , Math.max( 6f , 24f * tileHeight / ScreenState.TILE_HEIGHT ) );
+	}
+
+	/**
+	 * Returns the image for a tile with a given value.
+	 *
+	 * @param value tile value (log2)
+	 * @return
+	 */
+	public BufferedImage getTileSprite(int value)
+	{
+		if ( value >= sprites.length ) {
+			sprites = Arrays.copyOf( sprites , value+1 );
+		}
+		BufferedImage result = sprites[value];
+		if ( result == null ) {
+			result = createTileSprite( value );
+			sprites[value] = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the image of an empty board with the given dimensions.
+	 *
+	 * @param cols
+	 * @param rows
+	 * @return
+	 */
+	public BufferedImage getEmptyBoard(int cols,int rows)
+	{
+		final int width = borderThickness + cols * ( tileWidth + borderThickness );
+		final int height = borderThickness + rows * ( tileHeight + borderThickness );
+		if ( emptyBoard == null || emptyBoard.getWidth() != width || emptyBoard.getHeight() != height )
+		{
+			emptyBoard = new BufferedImage( width , height , BufferedImage.TYPE_INT_RGB );
+			final Graphics2D gfx = emptyBoard.createGraphics();
+			try
+			{
+				GameScreen.setHQ( gfx );
+				gfx.setColor( GameScreen.COLOR_GRID );
+				gfx.fillRect( 0 , 0 , width , height );
+				gfx.setColor( GameScreen.COLOR_TILE_BACKGROUND );
+				for ( int y = 0 ; y < rows ; y++ )
+				{
+					for ( int x = 0 ; x < cols ; x++ )
+					{
+						final int px = borderThickness + x * ( tileWidth + borderThickness );
+						final int py = borderThickness + y * ( tileHeight + borderThickness );
+						gfx.fillRoundRect( px , py , tileWidth , tileHeight , arc , arc );
+					}
+				}
+			} finally {
+				gfx.dispose();
+			}
+		}
+		return emptyBoard;
+	}
+
+	private BufferedImage createTileSprite(int value)
+	{
+		final BufferedImage image = new BufferedImage( tileWidth , tileHeight , BufferedImage.TYPE_INT_ARGB );
+		final Graphics2D gfx = image.createGraphics();
+		try
+		{
+			GameScreen.setHQ( gfx );
+			gfx.setColor( GameScreen.getTileColor( value ) );
+			gfx.fillRoundRect( 0 , 0 , tileWidth , tileHeight , arc , arc );
+
+			// shrink font until the label fits
+			final String label = Long.toString( 1L << value );
+			Font labelFont = font;
+			gfx.setFont( labelFont );
+			while ( labelFont.getSize2D() > 6 && gfx.getFontMetrics().stringWidth( label ) > tileWidth - 4 )
+			{
+				labelFont = labelFont.deriveFont( labelFont.getSize2D() - 1 );
+				gfx.setFont( labelFont );
+			}
+			gfx.setColor( GameScreen.COLOR_TILE_FOREGROUND );
+			GameScreen.renderCenteredText( label , new Rectangle( 0 , 0 , tileWidth , tileHeight ) , gfx );
+
+			gfx.setColor( GameScreen.COLOR_GRID );
+			gfx.drawRoundRect( 0 , 0 , tileWidth-1 , tileHeight-1 , arc , arc );
+		} finally {
+			gfx.dispose();
+		}
+		return image;
+	}
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size transposition table for packed 4x4 boards (see {@link PackedBoard}), shared by all search threads
+ * of an {@link AIPlayer} (or even by several players) and kept across moves.
+ *
+ * <p>Each entry stores the search result for a board (value, bound type and the remaining depth it was
+ * searched with) together with the best move found. Entries are written without locking, a torn
+ * write is detected by storing the key XOR-ed with the entry's data.</p>
+ *
+ * <p>Every search increments the table's generation. When two boards compete for the same slot, entries from
+ * older generations get replaced first, otherwise the entry searched with the greater depth wins.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class TranspositionTable
+{
+	// bound types
+	public static final int EXACT = 0;
+	public static final int LOWER_BOUND = 1;
+	public static final int UPPER_BOUND = 2;
+
+	public static final int NO_MOVE = -1;
+
+	/*
+	 * Entry layout:
+	 *
+	 * bits  0-31: value
+	 * bits 32-39: depth (signed)
+	 * bits 40-41: bound type
+	 * bits 42-44: best move + 1
+	 * bit     45: set if the AI is to move
+	 * bits 46-53: generation
+	 * bit     63: always set for valid entries
+	 */
+	private static final long VALID = 1L<<63;
+
+	private final long[] keys;
+	private final long[] data;
+	private final int mask;
+
+	private volatile int generation;
+
+	/**
+	 * Create instance.
+	 *
+	 * @param sizeLog2 log2 of the number of entries
+	 */
+	public TranspositionTable(int sizeLog2)
+	{
+		if ( sizeLog2 < 1 || sizeLog2 > 28 ) {
+			throw new IllegalArgumentException("Unsupported table size: 2^"+sizeLog2);
+		}
+		keys = new long[ 1<<sizeLog2 ];
+		data = new long[ 1<<sizeLog2 ];
+		mask = (1<<sizeLog2)-1;
+	}
+
+	/**
+	 * Starts a new search, entries from previous searches are kept
+	 * but will be replaced first.
+	 */
+	public void nextGeneration() {
+		generation = (generation+1) & 0xff;
+	}
+
+	public void clear()
+	{
+		Arrays.fill( keys , 0 );
+		Arrays.fill( data , 0 );
+	}
+
+	private int index(long board)
+	{
+		long h = board * 0x9e3779b97f4a7c15L;
+		h ^= h >>> 29;
+		return (int) h & mask;
+	}
+
+	/**
+	 * Looks up a board.
+	 *
+	 * @param board
+	 * @param aiToMove
+	 * @return entry data or 0 if there is no entry for the board
+	 */
+	public long probe(long board,boolean aiToMove)
+	{
+		final int idx = index( board );
+		final long d = data[idx];
+		if ( ( d & VALID ) != 0 && ( keys[idx] ^ d ) == board && isAiToMove( d ) == aiToMove ) {
+			return d;
+		}
+		return 0;
+	}
+
+	public void store(long board,boolean aiToMove,int value,int depth,int bound,int bestMove)
+	{
+		final int idx = index( board );
+		final long existing = data[idx];
+		final int gen = generation;
+		if ( ( existing & VALID ) != 0 && getGeneration( existing ) == gen && getDepth( existing ) > depth && ( keys[idx] ^ existing ) != board ) {
+			return; // keep deeper entry of the current search
+		}
+		final long d = VALID
+				| ( (long) value & 0xffffffffL )
+				| ( (long) (depth & 0xff) << 32 )
+				| ( (long) bound << 40 )
+				| ( (long) (bestMove+1) << 42 )
+				| ( aiToMove ? 1L << 45 : 0 )
+				| ( (long) gen << 46 );
+		data[idx] = d;
+		keys[idx] = board ^ d;
+	}
+
+	public static int getValue(long entry) {
+		return (int) entry;
+	}
+
+	public static int getDepth(long entry) {
+		return (byte) (entry >>> 32);
+	}
+
+	public static int getBound(long entry) {
+		return (int) (entry >>> 40) & 3;
+	}
+
+	public static int getBestMove(long entry) {
+		return ((int) (entry >>> 42) & 7) - 1;
+	}
+
+	private static boolean isAiToMove(long entry) {
+		return ( entry & (1L<<45) ) != 0;
+	}
+
+	private static int getGeneration(long entry) {
+		return (int) (entry >>> 46) & 0xff;
+	}
+}
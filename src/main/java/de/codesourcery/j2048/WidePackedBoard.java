@@ -0,0 +1,287 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+/**
+ * Packed board representation for grids with up to {@link #MAX_TILES} tiles (so every supported grid size).
+ *
+ * <p>Each tile uses 5 bits (holding the logarithm of the tile value, just like {@link BoardState}) so
+ * tile values up to 2^{@link #MAX_TILE_VALUE} can be represented. Tiles are stored in an array of <code>long</code>s
+ * holding {@link #TILES_PER_WORD} tiles each, tile <code>i = x + y*cols</code> is stored at bit offset 
+ * <code>5*(i % TILES_PER_WORD)</code> of word <code>i / TILES_PER_WORD</code> so no tile straddles two words.</p>
+ *
+ * <p>Unlike {@link PackedBoard} instances are mutable and all operations work in-place without
+ * allocating any objects, use {@link #copyFrom(WidePackedBoard)} to create snapshots.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class WidePackedBoard
+{
+	public static final int BITS_PER_TILE = 5;
+
+	/**
+	 * Max. value (log2) a tile may have.
+	 */
+	public static final int MAX_TILE_VALUE = 31;
+
+	/**
+	 * Number of tiles stored in each <code>long</code>.
+	 */
+	public static final int TILES_PER_WORD = 64 / BITS_PER_TILE;
+
+	/**
+	 * Max. number of tiles (columns * rows) a board may have.
+	 */
+	public static final int MAX_TILES = BoardState.MAX_GRID_SIZE * BoardState.MAX_GRID_SIZE;
+
+	private static final int TILE_MASK = 0x1f;
+
+	private final int cols;
+	private final int rows;
+
+	private final long[] words;
+	private int score;
+
+	public WidePackedBoard(int cols,int rows)
+	{
+		if ( cols * rows > MAX_TILES ) {
+			throw new IllegalArgumentException("Unsupported grid size "+cols+"x"+rows+", at most "+MAX_TILES+" tiles are supported");
+		}
+		this.cols = cols;
+		this.rows = rows;
+		this.words = new long[ ( cols * rows + TILES_PER_WORD - 1 ) / TILES_PER_WORD ];
+	}
+
+	/**
+	 * Checks whether a board can be represented using this class.
+	 *
+	 * <p>Boards are only accepted if there is no tile larger than <code>{@link #MAX_TILE_VALUE}-1</code>,
+	 * so that merges during a search of reasonable depth cannot exceed the supported range.</p>
+	 *
+	 * @param state
+	 * @return
+	 */
+	public static boolean canPack(BoardState state)
+	{
+		if ( state.getColumnCount() * state.getRowCount() > MAX_TILES ) {
+			return false;
+		}
+		for ( int i = 0 , len = state.board.length ; i < len ; i++ )
+		{
+			if ( state.board[i] >= MAX_TILE_VALUE ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void load(BoardState state)
+	{
+		if ( state.getColumnCount() != cols || state.getRowCount() != rows ) {
+			throw new IllegalArgumentException("Grid size mismatch");
+		}
+		for ( int i = 0 ; i < words.length ; i++ ) {
+			words[i] = 0;
+		}
+		for ( int i = 0 , len = cols*rows ; i < len ; i++ ) {
+			setTile( i , state.board[i] );
+		}
+		score = state.getScore();
+	}
+
+	public void copyFrom(WidePackedBoard other)
+	{
+		if ( other.cols != cols || other.rows != rows ) {
+			throw new IllegalArgumentException("Grid size mismatch");
+		}
+		System.arraycopy( other.words , 0 , this.words , 0 , words.length );
+		this.score = other.score;
+	}
+
+	public int getColumnCount() {
+		return cols;
+	}
+
+	public int getRowCount() {
+		return rows;
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	public int getTile(int x,int y) {
+		return getTile( x + y*cols );
+	}
+
+	public int getTile(int index)
+	{
+		final int shift = BITS_PER_TILE * ( index % TILES_PER_WORD );
+		return (int) ( words[ index / TILES_PER_WORD ] >>> shift ) & TILE_MASK;
+	}
+
+	public void setTile(int x,int y,int value) {
+		setTile( x + y*cols , value );
+	}
+
+	public void setTile(int index,int value)
+	{
+		final int shift = BITS_PER_TILE * ( index % TILES_PER_WORD );
+		final int word = index / TILES_PER_WORD;
+		words[word] = ( words[word] & ~( (long) TILE_MASK << shift ) ) | ( (long) value << shift );
+	}
+
+	public int countEmpty()
+	{
+		int result = 0;
+		for ( int i = 0 , len = cols*rows ; i < len ; i++ )
+		{
+			if ( getTile( i ) == BoardState.EMPTY_TILE ) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	public int getTileCount() {
+		return cols*rows - countEmpty();
+	}
+
+	/**
+	 * Moves all tiles towards x=0.
+	 *
+	 * @return <code>true</code> if any tile was moved or merged
+	 */
+	public boolean tiltLeft()
+	{
+		boolean moved = false;
+		for ( int y = 0 ; y < rows ; y++ ) {
+			moved |= slide( y*cols , 1 , cols );
+		}
+		return moved;
+	}
+
+	/**
+	 * Moves all tiles towards x=cols-1.
+	 *
+	 * @return <code>true</code> if any tile was moved or merged
+	 */
+	public boolean tiltRight()
+	{
+		boolean moved = false;
+		for ( int y = 0 ; y < rows ; y++ ) {
+			moved |= slide( y*cols + cols - 1 , -1 , cols );
+		}
+		return moved;
+	}
+
+	/**
+	 * Moves all tiles towards y=0.
+	 *
+	 * @return <code>true</code> if any tile was moved or merged
+	 */
+	public boolean tiltDown()
+	{
+		boolean moved = false;
+		for ( int x = 0 ; x < cols ; x++ ) {
+			moved |= slide( x , cols , rows );
+		}
+		return moved;
+	}
+
+	/**
+	 * Moves all tiles towards y=rows-1.
+	 *
+	 * @return <code>true</code> if any tile was moved or merged
+	 */
+	public boolean tiltUp()
+	{
+		boolean moved = false;
+		for ( int x = 0 ; x < cols ; x++ ) {
+			moved |= slide( x + (rows-1)*cols , -cols , rows );
+		}
+		return moved;
+	}
+
+	/*
+	 * Slides a single row/column towards its first tile, merging
+	 * adjacent tiles with the same value just like BoardState does.
+	 */
+	private boolean slide(int start,int step,int length)
+	{
+		// collect resulting line, 5 bits per tile
+		long line = 0;
+		int count = 0;
+		int pending = BoardState.EMPTY_TILE;
+		for ( int i = 0 , ptr = start ; i < length ; i++ , ptr += step )
+		{
+			final int tile = getTile( ptr );
+			if ( tile == BoardState.EMPTY_TILE ) {
+				continue;
+			}
+			if ( tile == pending && tile < MAX_TILE_VALUE )
+			{
+				score += 1 << (tile+1);
+				line |= (long) (tile+1) << (BITS_PER_TILE*count++);
+				pending = BoardState.EMPTY_TILE;
+			}
+			else
+			{
+				if ( pending != BoardState.EMPTY_TILE ) {
+					line |= (long) pending << (BITS_PER_TILE*count++);
+				}
+				pending = tile;
+			}
+		}
+		if ( pending != BoardState.EMPTY_TILE ) {
+			line |= (long) pending << (BITS_PER_TILE*count);
+		}
+
+		// write back
+		boolean moved = false;
+		for ( int i = 0 , ptr = start ; i < length ; i++ , ptr += step )
+		{
+			final int tile = (int) (line >>> (BITS_PER_TILE*i)) & TILE_MASK;
+			if ( getTile( ptr ) != tile )
+			{
+				setTile( ptr , tile );
+				moved = true;
+			}
+		}
+		return moved;
+	}
+
+	public boolean isGameOver()
+	{
+		for ( int y = 0 ; y < rows ; y++ )
+		{
+			for ( int x = 0 ; x < cols ; x++ )
+			{
+				final int tile = getTile( x , y );
+				if ( tile == BoardState.EMPTY_TILE ) {
+					return false;
+				}
+				if ( x+1 < cols && getTile( x+1 , y ) == tile && tile < MAX_TILE_VALUE ) {
+					return false;
+				}
+				if ( y+1 < rows && getTile( x , y+1 ) == tile && tile < MAX_TILE_VALUE ) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+}
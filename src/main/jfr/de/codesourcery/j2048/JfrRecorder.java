@@ -0,0 +1,109 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import de.codesourcery.j2048.IInputProvider.Action;
+
+/**
+ * Emits the JFR events, only to be used through {@link FlightRecorderEvents}.
+ *
+ * <p>This class and the event classes are compiled separately (see <code>src/main/jfr</code>) 
+ * as the JFR API is not part of the Java 8 platform API.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+final class JfrRecorder implements FlightRecorderEvents.Recorder
+{
+	// used to check whether events are enabled without allocating
+	private static final MoveEvent MOVE = new MoveEvent();
+	private static final TiltBatchEvent TILT_BATCH = new TiltBatchEvent();
+	private static final FrameEvent FRAME = new FrameEvent();
+
+	// racy, only used for sampling
+	private int tiltBatches;
+
+	@Override
+	public Object beginMove()
+	{
+		if ( ! MOVE.isEnabled() ) {
+			return null;
+		}
+		final MoveEvent result = new MoveEvent();
+		result.begin();
+		return result;
+	}
+
+	@Override
+	public void endMove(Object handle,int depth,long nodes,Action action)
+	{
+		final MoveEvent event = (MoveEvent) handle;
+		event.end();
+		if ( event.shouldCommit() )
+		{
+			event.depth = depth;
+			event.nodes = nodes;
+			event.action = action.name();
+			event.commit();
+		}
+	}
+
+	@Override
+	public Object beginTiltBatch()
+	{
+		if ( ! TILT_BATCH.isEnabled() || ( ++tiltBatches & (FlightRecorderEvents.TILT_BATCH_SAMPLE_INTERVAL-1) ) != 0 ) {
+			return null;
+		}
+		final TiltBatchEvent result = new TiltBatchEvent();
+		result.begin();
+		return result;
+	}
+
+	@Override
+	public void endTiltBatch(Object handle,int boards,int moved)
+	{
+		final TiltBatchEvent event = (TiltBatchEvent) handle;
+		event.end();
+		if ( event.shouldCommit() )
+		{
+			event.boards = boards;
+			event.moved = moved;
+			event.commit();
+		}
+	}
+
+	@Override
+	public Object beginFrame()
+	{
+		if ( ! FRAME.isEnabled() ) {
+			return null;
+		}
+		final FrameEvent result = new FrameEvent();
+		result.begin();
+		return result;
+	}
+
+	@Override
+	public void endFrame(Object handle,int tiles)
+	{
+		final FrameEvent event = (FrameEvent) handle;
+		event.end();
+		if ( event.shouldCommit() )
+		{
+			event.tiles = tiles;
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event, only to be used through {@link JfrRecorder}.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+@Name("de.codesourcery.j2048.Move")
+@Label("AI Move")
+@Description("Calculation of a single move by the AI player")
+@Category({"j2048","AI"})
+final class MoveEvent extends Event
+{
+	@Label("Depth")
+	@Description("Max. search depth reached")
+	public int depth;
+
+	@Label("Nodes")
+	public long nodes;
+
+	@Label("Action")
+	public String action;
+}
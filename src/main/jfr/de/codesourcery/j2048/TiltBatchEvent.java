@@ -0,0 +1,41 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event, only to be used through {@link JfrRecorder}.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+@Name("de.codesourcery.j2048.TiltBatch")
+@Label("Tilt Batch")
+@Description("Sampled batch of tilts, like the steps of a single game server request or a move of a headless session")
+@Category({"j2048","Simulation"})
+final class TiltBatchEvent extends Event
+{
+	@Label("Boards")
+	public int boards;
+
+	@Label("Moved")
+	@Description("Number of boards that changed")
+	public int moved;
+}
@@ -0,0 +1,453 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the framing and error handling of {@link GameServer}.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class GameServerTest
+{
+	private GameServer server;
+	private Thread serverThread;
+	private Socket socket;
+	private DataInputStream in;
+	private OutputStream out;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		server = new GameServer( 0 );
+		serverThread = new Thread( server , "game-server" );
+		serverThread.start();
+		socket = new Socket( InetAddress.getLoopbackAddress() , server.getPort() );
+		socket.setSoTimeout( 30_000 );
+		socket.setTcpNoDelay( true );
+		in = new DataInputStream( socket.getInputStream() );
+		out = socket.getOutputStream();
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		socket.close();
+		server.terminate();
+		serverThread.join( 10_000 );
+	}
+
+	private static final class Frame
+	{
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		public final DataOutputStream data = new DataOutputStream( bytes );
+
+		public Frame(byte opcode) throws IOException {
+			data.writeByte( opcode );
+		}
+
+		public byte[] toByteArray() throws IOException
+		{
+			final ByteArrayOutputStream result = new ByteArrayOutputStream();
+			final DataOutputStream dout = new DataOutputStream( result );
+			dout.writeInt( bytes.size() );
+			dout.write( bytes.toByteArray() );
+			return result.toByteArray();
+		}
+	}
+
+	private static final class Response
+	{
+		public final byte status;
+		public final DataInputStream payload;
+		public final int length;
+
+		public Response(byte status,byte[] payload)
+		{
+			this.status = status;
+			this.length = payload.length;
+			this.payload = new DataInputStream( new ByteArrayInputStream( payload ) );
+		}
+
+		public String getMessage() throws IOException
+		{
+			final byte[] bytes = new byte[ length ];
+			payload.readFully( bytes );
+			return new String( bytes , StandardCharsets.UTF_8 );
+		}
+	}
+
+	private Response readResponse() throws IOException
+	{
+		final int length = in.readInt();
+		final byte status = in.readByte();
+		final byte[] payload = new byte[ length - 1 ];
+		in.readFully( payload );
+		return new Response( status , payload );
+	}
+
+	private Response send(Frame frame) throws IOException
+	{
+		out.write( frame.toByteArray() );
+		out.flush();
+		return readResponse();
+	}
+
+	private static Frame open(int count,int cols,int rows,long seed) throws IOException
+	{
+		final Frame frame = new Frame( GameServer.OP_OPEN );
+		frame.data.writeInt( count );
+		frame.data.writeByte( cols );
+		frame.data.writeByte( rows );
+		frame.data.writeLong( seed );
+		return frame;
+	}
+
+	private static Frame observe(int... sessions) throws IOException
+	{
+		final Frame frame = new Frame( GameServer.OP_OBSERVE );
+		frame.data.writeInt( sessions.length );
+		for ( int id : sessions ) {
+			frame.data.writeInt( id );
+		}
+		return frame;
+	}
+
+	private void assertOk(Response response) throws IOException {
+		assertEquals( response.status == GameServer.STATUS_OK ? "" : response.getMessage() , GameServer.STATUS_OK , response.status );
+	}
+
+	private void assertError(Response response,String expectedMessage) throws IOException
+	{
+		assertEquals( GameServer.STATUS_ERROR , response.status );
+		final String message = response.getMessage();
+		assertTrue( message , message.contains( expectedMessage ) );
+	}
+
+	@Test
+	public void testOpenStepObserve() throws IOException
+	{
+		Response response = send( open( 2 , 4 , 5 , 42 ) );
+		assertOk( response );
+		assertEquals( 8 , response.length );
+		assertEquals( 0 , response.payload.readInt() );
+		assertEquals( 1 , response.payload.readInt() );
+
+		response = send( observe( 1 ) );
+		assertOk( response );
+		assertEquals( 6 + 4 * 5 , response.length );
+		assertEquals( 0 , response.payload.readByte() ); // flags
+		response.payload.readByte(); // legal moves
+		assertEquals( 0 , response.payload.readInt() ); // score
+		int tiles = 0;
+		for ( int i = 0 ; i < 20 ; i++ ) {
+			tiles += response.payload.readByte() != 0 ? 1 : 0;
+		}
+		assertEquals( 1 , tiles );
+
+		final Frame step = new Frame( GameServer.OP_STEP );
+		step.data.writeInt( 2 );
+		for ( int id = 0 ; id < 2 ; id++ )
+		{
+			step.data.writeInt( id );
+			step.data.writeByte( 0 );
+		}
+		response = send( step );
+		assertOk( response );
+		assertEquals( 2 * ( 6 + 4 * 5 ) , response.length );
+	}
+
+	@Test
+	public void testPartialFrames() throws Exception
+	{
+		final byte[] request = open( 1 , 4 , 4 , 1 ).toByteArray();
+		for ( byte b : request )
+		{
+			out.write( b );
+			out.flush();
+			Thread.sleep( 2 );
+		}
+		final Response response = readResponse();
+		assertOk( response );
+		assertEquals( 0 , response.payload.readInt() );
+	}
+
+	@Test
+	public void testPipelinedFrames() throws IOException
+	{
+		// several frames in one write, the last one split across two writes
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bytes.write( open( 3 , 3 , 3 , 1 ).toByteArray() );
+		bytes.write( observe( 0 , 1 , 2 ).toByteArray() );
+		bytes.write( observe( 2 ).toByteArray() );
+		final byte[] data = bytes.toByteArray();
+		out.write( data , 0 , data.length - 3 );
+		out.flush();
+		out.write( data , data.length - 3 , 3 );
+		out.flush();
+
+		Response response = readResponse();
+		assertOk( response );
+		assertEquals( 12 , response.length );
+		response = readResponse();
+		assertOk( response );
+		assertEquals( 3 * ( 6 + 9 ) , response.length );
+		response = readResponse();
+		assertOk( response );
+		assertEquals( 6 + 9 , response.length );
+	}
+
+	@Test
+	public void testLargeFrames() throws IOException
+	{
+		// request and response are both larger than the initial buffers
+		final int sessions = 1000;
+		assertOk( send( open( sessions , 8 , 8 , 7 ) ) );
+
+		final int steps = 20_000;
+		final Frame step = new Frame( GameServer.OP_STEP );
+		step.data.writeInt( steps );
+		for ( int i = 0 ; i < steps ; i++ )
+		{
+			step.data.writeInt( i % sessions );
+			step.data.writeByte( i % 4 );
+		}
+		assertTrue( step.toByteArray().length > 64 * 1024 );
+
+		final Response response = send( step );
+		assertOk( response );
+		assertEquals( steps * ( 6 + 64 ) , response.length );
+
+		// connection is still usable
+		final Response observed = send( observe( 0 ) );
+		assertOk( observed );
+		assertEquals( 6 + 64 , observed.length );
+	}
+
+	@Test
+	public void testErrorReplies() throws IOException
+	{
+		assertError( send( new Frame( (byte) 99 ) ) , "Unknown opcode" );
+		assertError( send( observe( 5 ) ) , "Unknown session" );
+
+		final Frame truncated = new Frame( GameServer.OP_OPEN );
+		truncated.data.writeInt( 1 );
+		assertError( send( truncated ) , "Truncated" );
+
+		assertError( send( open( 1 , 2 , 4 , 0 ) ) , "grid size" );
+
+		final Frame trailing = open( 1 , 4 , 4 , 0 );
+		trailing.data.writeByte( 0 );
+		assertError( send( trailing ) , "Trailing" );
+
+		final Frame invalidCount = new Frame( GameServer.OP_OBSERVE );
+		invalidCount.data.writeInt( 100 );
+		assertError( send( invalidCount ) , "Invalid count" );
+
+		assertOk( send( open( 1 , 4 , 4 , 0 ) ) );
+		final Frame invalidAction = new Frame( GameServer.OP_STEP );
+		invalidAction.data.writeInt( 1 );
+		invalidAction.data.writeInt( 0 );
+		invalidAction.data.writeByte( 7 );
+		assertError( send( invalidAction ) , "Invalid action" );
+
+		// errors do not affect the connection
+		assertOk( send( observe( 0 ) ) );
+	}
+
+	private byte[] observation(int session) throws IOException
+	{
+		final Response response = send( observe( session ) );
+		assertOk( response );
+		final byte[] result = new byte[ response.length ];
+		response.payload.readFully( result );
+		return result;
+	}
+
+	@Test
+	public void testInvalidLastItemLeavesSessionsUnchanged() throws IOException
+	{
+		assertOk( send( open( 2 , 4 , 4 , 5 ) ) );
+		final byte[] initial = observation( 0 );
+
+		final Frame step = new Frame( GameServer.OP_STEP );
+		step.data.writeInt( 2 );
+		for ( int action = 0 ; action < 4 ; action += 3 ) 
+		{
+			step.data.writeInt( 0 );
+			step.data.writeByte( action );
+		}
+		step.data.writeByte( 0 );
+		assertError( send( step ) , "Trailing" );
+		assertArrayEquals( initial , observation( 0 ) );
+
+		final Frame invalidAction = new Frame( GameServer.OP_STEP );
+		invalidAction.data.writeInt( 2 );
+		invalidAction.data.writeInt( 0 );
+		invalidAction.data.writeByte( 0 );
+		invalidAction.data.writeInt( 0 );
+		invalidAction.data.writeByte( 9 );
+		assertError( send( invalidAction ) , "Invalid action" );
+		assertArrayEquals( initial , observation( 0 ) );
+
+		final Frame close = new Frame( GameServer.OP_CLOSE );
+		close.data.writeInt( 2 );
+		close.data.writeInt( 1 );
+		close.data.writeInt( 7 );
+		assertError( send( close ) , "Unknown session" );
+		assertOk( send( observe( 1 ) ) );
+
+		final Frame reset = new Frame( GameServer.OP_RESET );
+		reset.data.writeInt( 2 );
+		reset.data.writeInt( 0 );
+		reset.data.writeInt( 2 );
+		assertError( send( reset ) , "Unknown session" );
+		assertArrayEquals( initial , observation( 0 ) );
+
+		// no sessions are allocated for a failed open
+		final Frame trailing = open( 3 , 4 , 4 , 0 );
+		trailing.data.writeByte( 0 );
+		assertError( send( trailing ) , "Trailing" );
+		final Response opened = send( open( 1 , 4 , 4 , 0 ) );
+		assertOk( opened );
+		assertEquals( 2 , opened.payload.readInt() );
+	}
+
+	private static byte[] observation(BoardState board,boolean moved)
+	{
+		final byte[] result = new byte[ 6 + board.getColumnCount() * board.getRowCount() ];
+		result[0] = (byte) ( ( moved ? GameServer.FLAG_MOVED : 0 ) | ( board.isGameOver() ? GameServer.FLAG_GAME_OVER : 0 ) );
+		result[1] = (byte) board.getLegalMoves();
+		final int score = board.getScore();
+		result[2] = (byte) ( score >>> 24 );
+		result[3] = (byte) ( score >>> 16 );
+		result[4] = (byte) ( score >>> 8 );
+		result[5] = (byte) score;
+		int ptr = 6;
+		for ( int y = 0 ; y < board.getRowCount() ; y++ ) 
+		{
+			for ( int x = 0 ; x < board.getColumnCount() ; x++ ) {
+				result[ptr++] = (byte) board.getTile( x , y );
+			}
+		}
+		return result;
+	}
+
+	@Test
+	public void testStepsMatchBoardState() throws IOException
+	{
+		// 4x4 boards get stepped in batches, the 5x5 ones one by one
+		final int sessions = 40;
+		assertOk( send( open( sessions / 2 , 4 , 4 , 100 ) ) );
+		assertOk( send( open( sessions / 2 , 5 , 5 , 200 ) ) );
+
+		final BoardState[] boards = new BoardState[ sessions ];
+		final Random[] rnds = new Random[ sessions ];
+		for ( int i = 0 ; i < sessions ; i++ ) 
+		{
+			final int size = i < sessions / 2 ? 4 : 5;
+			boards[i] = new BoardState( size , size );
+			rnds[i] = new Random( ( i < sessions / 2 ? 100 : 200 - sessions / 2 ) + i );
+			boards[i].placeRandomTile( rnds[i] );
+		}
+
+		final Random rnd = new Random( 42 );
+		for ( int round = 0 ; round < 300 ; round++ ) 
+		{
+			// half of the rounds step a session twice
+			final int count = sessions + ( round % 2 );
+			final int[] ids = new int[ count ];
+			final int[] actions = new int[ count ];
+			final Frame step = new Frame( GameServer.OP_STEP );
+			step.data.writeInt( count );
+			for ( int i = 0 ; i < count ; i++ ) 
+			{
+				ids[i] = i < sessions ? i : rnd.nextInt( sessions );
+				actions[i] = rnd.nextInt( 4 );
+				step.data.writeInt( ids[i] );
+				step.data.writeByte( actions[i] );
+			}
+			final Response response = send( step );
+			assertOk( response );
+			for ( int i = 0 ; i < count ; i++ ) 
+			{
+				final BoardState board = boards[ ids[i] ];
+				final boolean moved = board.move( BoardState.TILT_ACTIONS[ actions[i] ] , rnds[ ids[i] ] );
+				final byte[] expected = observation( board , moved );
+				final byte[] actual = new byte[ expected.length ];
+				response.payload.readFully( actual );
+				assertArrayEquals( "Round "+round+", item "+i , expected , actual );
+			}
+		}
+	}
+
+	@Test
+	public void testClosedSessionsAreReused() throws IOException
+	{
+		assertOk( send( open( 2 , 4 , 4 , 0 ) ) );
+		final Frame close = new Frame( GameServer.OP_CLOSE );
+		close.data.writeInt( 1 );
+		close.data.writeInt( 0 );
+		final Response closed = send( close );
+		assertOk( closed );
+		assertEquals( 0 , closed.length );
+		assertError( send( observe( 0 ) ) , "Unknown session" );
+
+		final Response reopened = send( open( 1 , 4 , 4 , 0 ) );
+		assertOk( reopened );
+		assertEquals( 0 , reopened.payload.readInt() );
+	}
+
+	@Test(expected = EOFException.class)
+	public void testInvalidFrameLengthClosesConnection() throws IOException
+	{
+		new DataOutputStream( out ).writeInt( -1 );
+		out.flush();
+		in.readInt();
+	}
+
+	@Test
+	public void testSameSeedGivesSameGame() throws IOException
+	{
+		assertOk( send( open( 1 , 4 , 4 , 123 ) ) );
+		assertOk( send( open( 1 , 4 , 4 , 123 ) ) );
+		final Response response = send( observe( 0 , 1 ) );
+		final byte[] first = new byte[ 22 ];
+		final byte[] second = new byte[ 22 ];
+		response.payload.readFully( first );
+		response.payload.readFully( second );
+		assertArrayEquals( first , second );
+	}
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link GameStatistics}.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class GameStatisticsTest
+{
+	@Test
+	public void testBucketBoundsAreContiguous()
+	{
+		assertEquals( 0 , GameStatistics.getBucketLowerBound( 0 ) );
+		for ( int bucket = 0 ; bucket < GameStatistics.BUCKETS - 1 ; bucket++ )
+		{
+			final long lower = GameStatistics.getBucketLowerBound( bucket );
+			final long upper = GameStatistics.getBucketUpperBound( bucket );
+			assertTrue( "Bucket "+bucket , lower < upper );
+			assertEquals( "Bucket "+bucket , upper , GameStatistics.getBucketLowerBound( bucket + 1 ) );
+			assertEquals( bucket , GameStatistics.getBucket( lower ) );
+			assertEquals( bucket , GameStatistics.getBucket( upper - 1 ) );
+			if ( bucket >= GameStatistics.SUB_BUCKETS ) {
+				// log-linear: bucket width relative to its values is bounded
+				assertTrue( "Bucket "+bucket , ( upper - lower ) * GameStatistics.SUB_BUCKETS <= lower );
+			}
+		}
+		assertEquals( Long.MAX_VALUE , GameStatistics.getBucketUpperBound( GameStatistics.BUCKETS - 1 ) );
+	}
+
+	@Test
+	public void testValuesEndUpInTheirBucket()
+	{
+		for ( long value = 0 ; value < GameStatistics.SUB_BUCKETS ; value++ ) {
+			assertEquals( value , GameStatistics.getBucket( value ) );
+		}
+		assertEquals( 0 , GameStatistics.getBucket( -5 ) );
+		assertEquals( GameStatistics.BUCKETS - 1 , GameStatistics.getBucket( Long.MAX_VALUE ) );
+
+		final Random rnd = new Random( 7 );
+		for ( int i = 0 ; i < 100_000 ; i++ )
+		{
+			final long value = ( rnd.nextLong() >>> 1 ) >>> rnd.nextInt( 63 );
+			final int bucket = GameStatistics.getBucket( value );
+			assertTrue( value+" -> "+bucket , GameStatistics.getBucketLowerBound( bucket ) <= value );
+			assertTrue( value+" -> "+bucket , value < GameStatistics.getBucketUpperBound( bucket ) );
+		}
+	}
+
+	@Test
+	public void testSnapshot()
+	{
+		final GameStatistics stats = new GameStatistics();
+		stats.recordGame( 1 << 11 , 20000 , 1000 );
+		stats.recordGame( 1 << 10 , 10000 , 600 );
+		stats.recordGame( 1 << 10 , 12000 , 700 );
+		stats.recordMoveLatency( 5_000_000 );
+		stats.recordInputLatency( 16_000_000 );
+		stats.recordInputLatency( 32_000_000 );
+
+		final GameStatistics.Snapshot snapshot = stats.snapshot();
+		assertEquals( 3 , snapshot.getGameCount() );
+		assertEquals( 2 , snapshot.getHighestTileCount( 10 ) );
+		assertEquals( 1 , snapshot.getHighestTileCount( 11 ) );
+		assertEquals( 14000 , snapshot.getAverageScore() , 0.001 );
+		assertEquals( 766.666 , snapshot.getAverageMoves() , 0.001 );
+		assertEquals( 1 , snapshot.getMoveLatencyCount() );
+		assertEquals( 5000 , snapshot.getAverageMoveLatencyMicros() , 0.001 );
+		assertEquals( 2 , snapshot.getInputLatencyCount() );
+		assertEquals( 24000 , snapshot.getAverageInputLatencyMicros() , 0.001 );
+
+		// percentiles are reported as the upper bound of the bucket, within 1/SUB_BUCKETS
+		final long median = snapshot.getScorePercentile( 50 );
+		assertTrue( median >= 12000 && median < 12000 + 12000 / GameStatistics.SUB_BUCKETS );
+		final long max = snapshot.getScorePercentile( 100 );
+		assertTrue( max >= 20000 && max < 20000 + 20000 / GameStatistics.SUB_BUCKETS );
+	}
+
+	@Test
+	public void testConcurrentUpdates() throws InterruptedException
+	{
+		final GameStatistics stats = new GameStatistics();
+		final List<Thread> threads = new ArrayList<>();
+		for ( int t = 0 ; t < 4 ; t++ ) 
+		{
+			final Thread thread = new Thread( () -> 
+			{
+				for ( int i = 0 ; i < 10_000 ; i++ ) 
+				{
+					stats.recordGame( 1 << 5 , 100 , 10 );
+					stats.recordMoveLatency( 1000 );
+				}
+			});
+			threads.add( thread );
+			thread.start();
+		}
+		for ( Thread thread : threads ) {
+			thread.join();
+		}
+		final GameStatistics.Snapshot snapshot = stats.snapshot();
+		assertEquals( 40_000 , snapshot.getGameCount() );
+		assertEquals( 40_000 , snapshot.getHighestTileCount( 5 ) );
+		assertEquals( 100 , snapshot.getAverageScore() , 0.001 );
+		assertEquals( 40_000 , snapshot.getMoveLatencyCount() );
+	}
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import de.codesourcery.j2048.IInputProvider.Action;
+
+/**
+ * Tests {@link InputQueue}.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class InputQueueTest
+{
+	private static final Action[] ACTIONS = { Action.TILT_DOWN , Action.TILT_UP , Action.TILT_LEFT , Action.TILT_RIGHT , Action.RESTART };
+
+	@Test
+	public void testCapacityIsRoundedUp()
+	{
+		assertEquals( 1 , new InputQueue( 1 ).getCapacity() );
+		assertEquals( 2 , new InputQueue( 2 ).getCapacity() );
+		assertEquals( 16 , new InputQueue( 16 ).getCapacity() );
+		assertEquals( 32 , new InputQueue( 17 ).getCapacity() );
+	}
+
+	@Test
+	public void testFullQueueDiscardsActions()
+	{
+		final InputQueue queue = new InputQueue( 4 );
+		for ( int i = 0 ; i < 4 ; i++ ) {
+			assertTrue( queue.offer( ACTIONS[i] , i ) );
+		}
+		assertFalse( queue.offer( Action.RESTART , 4 ) );
+		assertEquals( 4 , queue.size() );
+
+		assertEquals( ACTIONS[0] , queue.poll() );
+		assertTrue( queue.offer( Action.RESTART , 5 ) );
+		for ( int i = 1 ; i < 4 ; i++ ) {
+			assertEquals( ACTIONS[i] , queue.poll() );
+		}
+		assertEquals( Action.RESTART , queue.poll() );
+		assertEquals( 5 , queue.getPolledTimestamp() );
+		assertEquals( Action.NONE , queue.poll() );
+		assertTrue( queue.isEmpty() );
+	}
+
+	@Test
+	public void testWrapAround()
+	{
+		final InputQueue queue = new InputQueue( 8 );
+		long written = 0;
+		long read = 0;
+		// fill levels vary so head and tail wrap around at different slots
+		for ( int round = 0 ; round < 1000 ; round++ )
+		{
+			for ( int i = round % 9 ; i > 0 ; i-- )
+			{
+				if ( queue.offer( ACTIONS[ (int) ( written % ACTIONS.length ) ] , written ) ) {
+					written++;
+				}
+			}
+			for ( int i = round % 7 ; i > 0 && ! queue.isEmpty() ; i-- )
+			{
+				assertEquals( ACTIONS[ (int) ( read % ACTIONS.length ) ] , queue.poll() );
+				assertEquals( read , queue.getPolledTimestamp() );
+				read++;
+			}
+			assertEquals( written - read , queue.size() );
+		}
+		queue.clear();
+		assertTrue( queue.isEmpty() );
+	}
+
+	@Test(timeout = 60000)
+	public void testConcurrentProducerAndConsumer() throws InterruptedException
+	{
+		final int count = 100_000;
+		final InputQueue queue = new InputQueue( 16 );
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+		final Thread producer = new Thread( () -> 
+		{
+			for ( int i = 0 ; i < count ; ) 
+			{
+				if ( queue.offer( ACTIONS[ i % ACTIONS.length ] , i ) ) {
+					i++;
+				} else {
+					Thread.yield();
+				}
+			}
+		});
+		producer.setUncaughtExceptionHandler( (t,e) -> error.set( e ) );
+		producer.start();
+
+		for ( int i = 0 ; i < count ; ) 
+		{
+			final Action action = queue.poll();
+			if ( action == Action.NONE ) {
+				Thread.yield();
+				continue;
+			}
+			assertEquals( ACTIONS[ i % ACTIONS.length ] , action );
+			assertEquals( i , queue.getPolledTimestamp() );
+			i++;
+		}
+		producer.join();
+		assertEquals( null , error.get() );
+		assertTrue( queue.isEmpty() );
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Component;
+import java.awt.event.FocusEvent;
+import java.awt.event.FocusListener;
+import java.awt.event.KeyEvent;
+
+import javax.swing.JPanel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.codesourcery.j2048.IInputProvider.Action;
+
+/**
+ * Tests {@link KeyboardInputProvider}.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class KeyboardInputProviderTest
+{
+	private Component peer;
+	private GameStatistics statistics;
+	private KeyboardInputProvider provider;
+
+	@Before
+	public void setUp()
+	{
+		peer = new JPanel();
+		statistics = new GameStatistics();
+		provider = new KeyboardInputProvider( statistics );
+		provider.attach( peer );
+	}
+
+	private void press(int keyCode) {
+		provider.keyPressed( new KeyEvent( peer , KeyEvent.KEY_PRESSED , System.currentTimeMillis() , 0 , keyCode , KeyEvent.CHAR_UNDEFINED ) );
+	}
+
+	private void release(int keyCode) {
+		provider.keyReleased( new KeyEvent( peer , KeyEvent.KEY_RELEASED , System.currentTimeMillis() , 0 , keyCode , KeyEvent.CHAR_UNDEFINED ) );
+	}
+
+	@Test
+	public void testAutoRepeatIsIgnored()
+	{
+		press( KeyEvent.VK_LEFT );
+		press( KeyEvent.VK_LEFT );
+		assertEquals( Action.TILT_LEFT , provider.getAction( null ) );
+		assertEquals( Action.NONE , provider.getAction( null ) );
+
+		release( KeyEvent.VK_LEFT );
+		press( KeyEvent.VK_LEFT );
+		assertEquals( Action.TILT_LEFT , provider.getAction( null ) );
+	}
+
+	@Test
+	public void testFocusLossClearsPressedKeys()
+	{
+		press( KeyEvent.VK_UP );
+		assertEquals( Action.TILT_DOWN , provider.getAction( null ) );
+
+		// release event never arrives
+		final FocusEvent event = new FocusEvent( peer , FocusEvent.FOCUS_LOST );
+		for ( FocusListener l : peer.getFocusListeners() ) {
+			l.focusLost( event );
+		}
+		press( KeyEvent.VK_UP );
+		assertEquals( Action.TILT_DOWN , provider.getAction( null ) );
+	}
+
+	@Test
+	public void testLatencyIsOnlyRecordedForAppliedActions()
+	{
+		press( KeyEvent.VK_LEFT );
+		assertEquals( Action.TILT_LEFT , provider.getAction( null ) );
+		// rejected move
+		provider.frameDisplayed();
+		assertEquals( 0 , statistics.snapshot().getInputLatencyCount() );
+
+		press( KeyEvent.VK_RIGHT );
+		assertEquals( Action.TILT_RIGHT , provider.getAction( null ) );
+		provider.actionApplied( Action.TILT_RIGHT );
+		provider.frameDisplayed();
+		assertEquals( 1 , statistics.snapshot().getInputLatencyCount() );
+
+		// nothing new to display
+		provider.frameDisplayed();
+		assertEquals( 1 , statistics.snapshot().getInputLatencyCount() );
+	}
+}
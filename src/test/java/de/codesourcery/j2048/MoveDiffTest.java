@@ -0,0 +1,167 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.codesourcery.j2048.IInputProvider.Action;
+
+/**
+ * Checks that replaying the {@link MoveDiff}s recorded by {@link MoveDiffRecorder} reproduces the board.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class MoveDiffTest
+{
+	/**
+	 * Applies the events it receives to a plain grid.
+	 */
+	private static final class Grid implements IBoardListener
+	{
+		private final int cols;
+		private final int[] tiles;
+		private int batchDepth;
+
+		public Grid(int cols,int rows)
+		{
+			this.cols = cols;
+			this.tiles = new int[ cols * rows ];
+		}
+
+		@Override
+		public void reset() {
+			Arrays.fill( tiles , 0 );
+		}
+
+		@Override
+		public void startBatch() {
+			assertEquals( 0 , batchDepth++ );
+		}
+
+		@Override
+		public void syncPoint() {
+			assertEquals( 1 , batchDepth );
+		}
+
+		@Override
+		public void endBatch() {
+			assertEquals( 0 , --batchDepth );
+		}
+
+		@Override
+		public void moveTile(int initialX, int initialY, int x, int y)
+		{
+			assertEquals( 0 , tiles[ x + y * cols ] );
+			tiles[ x + y * cols ] = tiles[ initialX + initialY * cols ];
+			tiles[ initialX + initialY * cols ] = 0;
+		}
+
+		@Override
+		public void mergeTile(int srcX, int srcY, int dstX, int dstY, int value)
+		{
+			assertEquals( value - 1 , tiles[ srcX + srcY * cols ] );
+			assertEquals( value - 1 , tiles[ dstX + dstY * cols ] );
+			tiles[ dstX + dstY * cols ] = value;
+			tiles[ srcX + srcY * cols ] = 0;
+		}
+
+		@Override
+		public void setTile(int x, int y, int value) {
+			tiles[ x + y * cols ] = value;
+		}
+
+		public void assertSameTiles(BoardState board)
+		{
+			for ( int y = 0 ; y < board.getRowCount() ; y++ )
+			{
+				for ( int x = 0 ; x < cols ; x++ ) {
+					assertEquals( "Tile "+x+"/"+y , board.getTile( x , y ) , tiles[ x + y * cols ] );
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testReplayReproducesBoard()
+	{
+		final Random rnd = new Random( 4 );
+		for ( int size = BoardState.MIN_GRID_SIZE ; size <= BoardState.MAX_GRID_SIZE ; size++ )
+		{
+			final MoveDiffRecorder recorder = new MoveDiffRecorder();
+			final BoardState board = new BoardState( size , size , recorder );
+			final Grid grid = new Grid( size , size );
+			final MoveDiff copy = new MoveDiff();
+			final int[] diffs = new int[1];
+			final int[] score = new int[1];
+			recorder.addListener( diff ->
+			{
+				// replay a copy to make sure copies are complete
+				copy.copyFrom( diff );
+				copy.replay( grid );
+				score[0] += copy.getScoreDelta();
+				diffs[0]++;
+			});
+
+			board.reset();
+			board.placeRandomTile( rnd );
+			grid.assertSameTiles( board );
+
+			for ( int i = 0 ; i < 2000 ; i++ )
+			{
+				if ( board.isGameOver() )
+				{
+					board.reset();
+					board.placeRandomTile( rnd );
+					score[0] = 0;
+				}
+				diffs[0] = 0;
+				final Action action = BoardState.TILT_ACTIONS[ rnd.nextInt( BoardState.TILT_ACTIONS.length ) ];
+				final int tiles = board.getTileCount();
+				if ( board.move( action , rnd ) )
+				{
+					assertEquals( "A move must be published as a single diff" , 1 , diffs[0] );
+					assertTrue( copy.isTilt() );
+					assertEquals( MoveDiff.SPAWN , copy.getType( copy.getEventCount() - 1 ) );
+					assertTrue( board.getTileCount() <= tiles + 1 );
+				}
+				grid.assertSameTiles( board );
+				assertEquals( board.getScore() , score[0] );
+			}
+		}
+	}
+
+	@Test
+	public void testSetTileOutsideOfMove()
+	{
+		final MoveDiffRecorder recorder = new MoveDiffRecorder();
+		final BoardState board = new BoardState( 4 , 4 , recorder );
+		final MoveDiff copy = new MoveDiff();
+		recorder.addListener( copy::copyFrom );
+
+		board.setTileValue( 1 , 2 , 3 );
+		assertEquals( 1 , copy.getEventCount() );
+		assertEquals( MoveDiff.SPAWN , copy.getType( 0 ) );
+		assertEquals( 1 , copy.getDstX( 0 ) );
+		assertEquals( 2 , copy.getDstY( 0 ) );
+		assertEquals( 3 , copy.getValue( 0 ) );
+	}
+}
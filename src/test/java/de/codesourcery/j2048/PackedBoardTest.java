@@ -0,0 +1,204 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.codesourcery.j2048.IInputProvider.Action;
+
+/**
+ * Checks that {@link PackedBoard} behaves exactly like {@link BoardState}.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class PackedBoardTest
+{
+	private static final int ITERATIONS = 20000;
+
+	/**
+	 * Creates a random board, tiles stay below <code>maxValue</code> so that merges never exceed it.
+	 */
+	static BoardState randomBoard(Random rnd,int cols,int rows,int maxValue)
+	{
+		final BoardState result = new BoardState( cols , rows );
+		final float density = rnd.nextFloat();
+		for ( int y = 0 ; y < rows ; y++ )
+		{
+			for ( int x = 0 ; x < cols ; x++ )
+			{
+				if ( rnd.nextFloat() < density ) {
+					// prefer small values so merges are likely
+					result.setTileValue( x , y , 1 + Math.min( rnd.nextInt( maxValue - 1 ) , rnd.nextInt( 4 ) ) );
+				}
+			}
+		}
+		return result;
+	}
+
+	private static void assertSameTiles(BoardState expected,long actual)
+	{
+		for ( int y = 0 ; y < PackedBoard.ROWS ; y++ )
+		{
+			for ( int x = 0 ; x < PackedBoard.COLS ; x++ ) {
+				assertEquals( "Tile "+x+"/"+y , expected.getTile( x , y ) , PackedBoard.getTile( actual , x , y ) );
+			}
+		}
+	}
+
+	@Test
+	public void testPackRoundTrip()
+	{
+		final Random rnd = new Random( 1 );
+		for ( int i = 0 ; i < ITERATIONS ; i++ )
+		{
+			final BoardState board = randomBoard( rnd , 4 , 4 , PackedBoard.MAX_TILE_VALUE );
+			assertTrue( PackedBoard.canPack( board ) );
+			final long packed = PackedBoard.pack( board );
+			assertSameTiles( board , packed );
+			assertEquals( board.getTileCount() , PackedBoard.getTileCount( packed ) );
+			assertEquals( 16 - board.getTileCount() , PackedBoard.countEmpty( packed ) );
+			assertEquals( PackedBoard.transpose( PackedBoard.transpose( packed ) ) , packed );
+		}
+	}
+
+	@Test
+	public void testCannotPackOtherGrids()
+	{
+		assertFalse( PackedBoard.canPack( new BoardState( 5 , 5 ) ) );
+		final BoardState board = new BoardState( 4 , 4 );
+		board.setTileValue( 0 , 0 , PackedBoard.MAX_TILE_VALUE );
+		assertFalse( PackedBoard.canPack( board ) );
+	}
+
+	@Test
+	public void testTiltsMatchBoardState()
+	{
+		final Random rnd = new Random( 2 );
+		for ( int i = 0 ; i < ITERATIONS ; i++ )
+		{
+			final BoardState board = randomBoard( rnd , 4 , 4 , PackedBoard.MAX_TILE_VALUE );
+			final long packed = PackedBoard.pack( board );
+
+			assertEquals( board.getLegalMoves() , PackedBoard.getLegalMoves( packed ) );
+			assertEquals( board.isGameOver() , PackedBoard.isGameOver( packed ) );
+
+			final BoardState expected = board.createCopy();
+			assertEquals( expected.tiltLeft() , PackedBoard.tiltLeft( packed ) != packed );
+			assertSameTiles( expected , PackedBoard.tiltLeft( packed ) );
+			assertEquals( expected.getScore() - board.getScore() , PackedBoard.scoreLeft( packed ) );
+
+			expected.copyFrom( board );
+			assertEquals( expected.tiltRight() , PackedBoard.tiltRight( packed ) != packed );
+			assertSameTiles( expected , PackedBoard.tiltRight( packed ) );
+			assertEquals( expected.getScore() - board.getScore() , PackedBoard.scoreRight( packed ) );
+
+			expected.copyFrom( board );
+			assertEquals( expected.tiltDown() , PackedBoard.tiltDown( packed ) != packed );
+			assertSameTiles( expected , PackedBoard.tiltDown( packed ) );
+			assertEquals( expected.getScore() - board.getScore() , PackedBoard.scoreDown( packed ) );
+
+			expected.copyFrom( board );
+			assertEquals( expected.tiltUp() , PackedBoard.tiltUp( packed ) != packed );
+			assertSameTiles( expected , PackedBoard.tiltUp( packed ) );
+			assertEquals( expected.getScore() - board.getScore() , PackedBoard.scoreUp( packed ) );
+		}
+	}
+
+	@Test
+	public void testBatchMatchesSingleBoards()
+	{
+		final Random rnd = new Random( 3 );
+		final int count = 1000;
+		final long[] boards = new long[ count ];
+		final BoardState[] states = new BoardState[ count ];
+		for ( int i = 0 ; i < count ; i++ ) 
+		{
+			states[i] = randomBoard( rnd , 4 , 4 , PackedBoard.MAX_TILE_VALUE );
+			boards[i] = PackedBoard.pack( states[i] );
+		}
+
+		final int[] ints = new int[ count ];
+		PackedBoard.getTileCount( boards , ints , count );
+		for ( int i = 0 ; i < count ; i++ ) {
+			assertEquals( PackedBoard.getTileCount( boards[i] ) , ints[i] );
+		}
+		PackedBoard.getLegalMoves( boards , ints , count );
+		for ( int i = 0 ; i < count ; i++ ) {
+			assertEquals( PackedBoard.getLegalMoves( boards[i] ) , ints[i] );
+		}
+		final boolean[] gameOver = new boolean[ count ];
+		int expectedGameOver = 0;
+		for ( int i = 0 ; i < count ; i++ ) {
+			expectedGameOver += PackedBoard.isGameOver( boards[i] ) ? 1 : 0;
+		}
+		assertEquals( expectedGameOver , PackedBoard.isGameOver( boards , gameOver , count ) );
+		for ( int i = 0 ; i < count ; i++ ) {
+			assertEquals( PackedBoard.isGameOver( boards[i] ) , gameOver[i] );
+		}
+
+		final long[] results = new long[ count ];
+		for ( Action action : BoardState.TILT_ACTIONS ) 
+		{
+			final int moved = PackedBoard.tilt( action , boards , results , count );
+			PackedBoard.getScore( action , boards , ints , count );
+			int expectedMoved = 0;
+			for ( int i = 0 ; i < count ; i++ ) 
+			{
+				final BoardState expected = states[i].createCopy();
+				expectedMoved += expected.tilt( action ) ? 1 : 0;
+				assertSameTiles( expected , results[i] );
+				assertEquals( expected.getScore() - states[i].getScore() , ints[i] );
+
+				// applying the result to a board gives the same state as tilting it
+				final BoardState loaded = states[i].createCopy();
+				loaded.loadPacked( results[i] , ints[i] );
+				assertTrue( expected.hasSameTiles( loaded ) );
+				assertEquals( expected.getScore() , loaded.getScore() );
+				assertEquals( expected.getTileCount() , loaded.getTileCount() );
+				assertEquals( expected.getLegalMoves() , loaded.getLegalMoves() );
+			}
+			assertEquals( expectedMoved , moved );
+		}
+
+		// results may overwrite the input
+		final long[] copy = boards.clone();
+		PackedBoard.tilt( Action.TILT_UP , copy , copy , count );
+		for ( int i = 0 ; i < count ; i++ ) {
+			assertEquals( PackedBoard.tiltUp( boards[i] ) , copy[i] );
+		}
+	}
+
+	@Test
+	public void testSetTile()
+	{
+		long board = 0;
+		for ( int i = 0 ; i < 16 ; i++ ) {
+			board = PackedBoard.setTile( board , i , i % PackedBoard.MAX_TILE_VALUE );
+		}
+		for ( int i = 0 ; i < 16 ; i++ ) {
+			assertEquals( i % PackedBoard.MAX_TILE_VALUE , PackedBoard.getTile( board , i ) );
+		}
+		board = PackedBoard.setTile( board , 1 , 0 );
+		assertEquals( 0 , PackedBoard.getTile( board , 1 ) );
+		assertEquals( 2 , PackedBoard.getTile( board , 2 ) );
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link SearchMetrics}.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class SearchMetricsTest
+{
+	private static int registeredCount() throws Exception
+	{
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final Set<ObjectName> names = server.queryNames( new ObjectName( "de.codesourcery.j2048:type=SearchMetrics,*" ) , null );
+		return names.size();
+	}
+
+	@Test
+	public void testUnregister() throws Exception
+	{
+		final int initial = registeredCount();
+		final SearchMetrics metrics = SearchMetrics.register();
+		assertEquals( initial + 1 , registeredCount() );
+		metrics.unregister();
+		assertEquals( initial , registeredCount() );
+		// no-op
+		metrics.unregister();
+		assertEquals( initial , registeredCount() );
+	}
+
+	@Test
+	public void testPlayerOnlyUnregistersOwnMetrics() throws Exception
+	{
+		final ThreadPoolExecutor executor = AIPlayer.createExecutor();
+		try
+		{
+			final int initial = registeredCount();
+			final TranspositionTable table = AIPlayer.createTranspositionTable();
+			final SearchMetrics shared = SearchMetrics.register();
+
+			final AIPlayer player1 = new AIPlayer( executor , table , shared );
+			final AIPlayer player2 = new AIPlayer( executor , table , shared );
+			final AIPlayer player3 = new AIPlayer( executor , table );
+			assertEquals( initial + 2 , registeredCount() );
+			assertTrue( player1.getMetrics() == shared );
+
+			player1.close();
+			player2.close();
+			assertEquals( initial + 2 , registeredCount() );
+			player3.close();
+			assertEquals( initial + 1 , registeredCount() );
+			shared.unregister();
+			assertEquals( initial , registeredCount() );
+		} 
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testRecord()
+	{
+		final SearchMetrics metrics = new SearchMetrics( "test" );
+
+		final SearchMetrics.Counters c1 = new SearchMetrics.Counters();
+		c1.nodes = 100;
+		c1.expanded = 10;
+		c1.cutoffs = 5;
+		c1.maxPly = 3;
+		final SearchMetrics.Counters c2 = new SearchMetrics.Counters();
+		c2.nodes = 300;
+		c2.expanded = 10;
+		c2.cutoffs = 0;
+		c2.maxPly = 7;
+
+		metrics.record( 2_000_000_000L , 2 , Arrays.asList( c1 , c2 ) );
+		assertEquals( 1 , metrics.getMoveCount() );
+		assertEquals( 400 , metrics.getLastMoveNodes() );
+		assertEquals( 200 , metrics.getLastMoveNodesPerSecond() );
+		assertEquals( 7 , metrics.getLastMoveReachedDepth() );
+		assertEquals( 25.0 , metrics.getCutoffRate() , 0.001 );
+		assertEquals( 2000 , metrics.getLastMoveLatencyMillis() );
+		assertEquals( 2000 , metrics.getMoveLatency99thPercentileMillis() );
+
+		metrics.reset();
+		assertEquals( 0 , metrics.getMoveCount() );
+		assertFalse( metrics.getCutoffRate() > 0 );
+	}
+}
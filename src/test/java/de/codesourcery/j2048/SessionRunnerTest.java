@@ -0,0 +1,119 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Component;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import de.codesourcery.j2048.IInputProvider.Action;
+
+/**
+ * Tests {@link SessionRunner}.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class SessionRunnerTest
+{
+	/**
+	 * Input provider whose actions get supplied by the test.
+	 */
+	private static final class RemoteInputProvider implements IInputProvider
+	{
+		public final BlockingQueue<CompletableFuture<Action>> requests = new LinkedBlockingQueue<>();
+		public final AtomicInteger requestCount = new AtomicInteger();
+
+		@Override
+		public Action getAction(BoardState state) {
+			return getActionAsync( state ).join();
+		}
+
+		@Override
+		public CompletableFuture<Action> getActionAsync(BoardState state) 
+		{
+			requestCount.incrementAndGet();
+			final CompletableFuture<Action> result = new CompletableFuture<>();
+			requests.add( result );
+			return result;
+		}
+
+		@Override
+		public void attach(Component peer) { /* NOP */ }
+	}
+
+	@Test
+	public void testDefaultStatistics() 
+	{
+		try ( SessionRunner runner = new SessionRunner() ) {
+			assertSame( GameStatistics.getDefault() , runner.getStatistics() );
+		}
+	}
+
+	@Test(timeout = 30_000)
+	public void testWaitsForActionsWithoutPolling() throws Exception
+	{
+		final GameStatistics statistics = new GameStatistics();
+		try ( SessionRunner runner = new SessionRunner( statistics ) ) 
+		{
+			final RemoteInputProvider provider = new RemoteInputProvider();
+			final Future<?> session = runner.submit( provider , 3 , 3 , 1 , 1 );
+
+			CompletableFuture<Action> request = provider.requests.poll( 10 , TimeUnit.SECONDS );
+			Thread.sleep( 200 );
+			assertEquals( 1 , provider.requestCount.get() );
+
+			// play random moves until the game is over
+			final Random rnd = new Random( 2 );
+			while ( request != null ) 
+			{
+				request.complete( BoardState.TILT_ACTIONS[ rnd.nextInt( 4 ) ] );
+				do {
+					request = provider.requests.poll( 10 , TimeUnit.MILLISECONDS );
+				} 
+				while ( request == null && ! session.isDone() );
+			}
+			session.get();
+			assertEquals( 1 , statistics.snapshot().getGameCount() );
+		}
+	}
+
+	@Test(timeout = 30_000)
+	public void testCancellingSessionCancelsPendingAction() throws Exception
+	{
+		try ( SessionRunner runner = new SessionRunner( new GameStatistics() ) ) 
+		{
+			final RemoteInputProvider provider = new RemoteInputProvider();
+			final Future<?> session = runner.submit( provider , 4 , 4 , 1 , -1 );
+			final CompletableFuture<Action> request = provider.requests.poll( 10 , TimeUnit.SECONDS );
+			session.cancel( true );
+			while ( ! request.isDone() ) {
+				Thread.sleep( 10 );
+			}
+			assertTrue( request.isCancelled() );
+		}
+	}
+}
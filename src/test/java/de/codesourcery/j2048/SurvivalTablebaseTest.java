@@ -0,0 +1,196 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link SurvivalTablebase}.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class SurvivalTablebaseTest
+{
+	private static final float EPSILON = 1e-5f;
+
+	/*
+	 * 1 2 1 2
+	 * 2 1 2 1
+	 * 1 2 1 2
+	 * 2 1 2 _
+	 */
+	private static final long DEAD_END;
+
+	static
+	{
+		long board = 0;
+		for ( int i = 0 ; i < 15 ; i++ ) {
+			board = PackedBoard.setTile( board , i , 3 + ( ( i % 4 + i / 4 ) & 1 ) );
+		}
+		DEAD_END = board;
+	}
+
+	// straightforward expectimax without any caching
+	private static float referenceSurvival(long board,int horizon)
+	{
+		if ( horizon == 0 ) {
+			return 1;
+		}
+		final int empty = PackedBoard.countEmpty( board );
+		if ( empty > horizon ) {
+			return 1;
+		}
+		float sum = 0;
+		for ( int i = 0 ; i < 16 ; i++ )
+		{
+			if ( PackedBoard.getTile( board , i ) == 0 )
+			{
+				sum += 0.9f * referenceBestMove( PackedBoard.setTile( board , i , 1 ) , horizon );
+				sum += 0.1f * referenceBestMove( PackedBoard.setTile( board , i , 2 ) , horizon );
+			}
+		}
+		return sum / empty;
+	}
+
+	private static float referenceBestMove(long board,int horizon)
+	{
+		float best = 0;
+		for ( long moved : new long[] { PackedBoard.tiltDown( board ) , PackedBoard.tiltUp( board ) , PackedBoard.tiltLeft( board ) , PackedBoard.tiltRight( board ) } )
+		{
+			if ( moved != board ) {
+				best = Math.max( best , referenceSurvival( moved , horizon - 1 ) );
+			}
+		}
+		return best;
+	}
+
+	private static long randomNearlyFullBoard(Random rnd)
+	{
+		long board = 0;
+		for ( int i = 0 ; i < 16 ; i++ ) {
+			board = PackedBoard.setTile( board , i , 1 + rnd.nextInt( 6 ) );
+		}
+		for ( int i = 1 + rnd.nextInt( SurvivalTablebase.MAX_EMPTY ) ; i > 0 ; i-- ) {
+			board = PackedBoard.setTile( board , rnd.nextInt( 16 ) , 0 );
+		}
+		return board;
+	}
+
+	@Test
+	public void testIsApplicable()
+	{
+		assertTrue( SurvivalTablebase.isApplicable( DEAD_END ) );
+		assertTrue( SurvivalTablebase.isApplicable( PackedBoard.setTile( DEAD_END , 0 , 0 ) ) );
+		assertFalse( SurvivalTablebase.isApplicable( 0L ) );
+		assertFalse( SurvivalTablebase.isApplicable( PackedBoard.setTile( DEAD_END , 15 , 5 ) ) );
+	}
+
+	@Test
+	public void testDeadEnd()
+	{
+		final SurvivalTablebase table = SurvivalTablebase.createInMemory( 1024 );
+		assertEquals( 0f , table.getSurvivalProbability( DEAD_END ) , EPSILON );
+	}
+
+	@Test
+	public void testMatchesReference()
+	{
+		// tiny table so entries get replaced
+		final SurvivalTablebase table = SurvivalTablebase.createInMemory( 64 );
+		final Random rnd = new Random( 5 );
+		for ( int i = 0 ; i < 200 ; i++ )
+		{
+			final long board = randomNearlyFullBoard( rnd );
+			if ( ! SurvivalTablebase.isApplicable( board ) ) {
+				continue;
+			}
+			final float expected = referenceSurvival( board , SurvivalTablebase.HORIZON );
+			assertEquals( expected , table.getSurvivalProbability( board ) , EPSILON );
+			// cached
+			assertEquals( expected , table.getSurvivalProbability( board ) , EPSILON );
+		}
+	}
+
+	@Test
+	public void testFileIsLockedAndPersistent() throws IOException
+	{
+		final File file = File.createTempFile( "tablebase" , ".bin" );
+		try
+		{
+			final Random rnd = new Random( 6 );
+			final long[] boards = new long[ 50 ];
+			final float[] expected = new float[ boards.length ];
+
+			SurvivalTablebase table = SurvivalTablebase.open( file , 1024 );
+			try
+			{
+				for ( int i = 0 ; i < boards.length ; i++ )
+				{
+					boards[i] = randomNearlyFullBoard( rnd );
+					expected[i] = table.getSurvivalProbability( boards[i] );
+				}
+				try {
+					SurvivalTablebase.open( file , 1024 ).close();
+					fail("Opening a file that is in use should fail");
+				}
+				catch(IOException e) {
+					// ok
+				}
+			} 
+			finally {
+				table.close();
+			}
+
+			table = SurvivalTablebase.open( file , 1024 );
+			try
+			{
+				for ( int i = 0 ; i < boards.length ; i++ ) {
+					assertEquals( expected[i] , table.getSurvivalProbability( boards[i] ) , EPSILON );
+				}
+			} 
+			finally {
+				table.close();
+			}
+		} 
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testInvalidCapacity()
+	{
+		for ( int capacity : new int[] { 0 , 4 , 1000 } )
+		{
+			try {
+				SurvivalTablebase.createInMemory( capacity );
+				fail("Capacity "+capacity+" should be rejected");
+			}
+			catch(IllegalArgumentException e) {
+				// ok
+			}
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import de.codesourcery.j2048.TickListenerContainer.ITickListener;
+
+/**
+ * Tests {@link TickListenerContainer}.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class TickListenerContainerTest
+{
+	private static final class SlowListener implements ITickListener
+	{
+		public final AtomicInteger started = new AtomicInteger();
+		public final AtomicInteger finished = new AtomicInteger();
+
+		@Override
+		public boolean tick(float deltaSeconds)
+		{
+			started.incrementAndGet();
+			try {
+				Thread.sleep( 100 );
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finished.incrementAndGet();
+			return true;
+		}
+	}
+
+	private static final class FailingListener implements ITickListener
+	{
+		public final RuntimeException error = new RuntimeException("failed");
+		public volatile boolean fail = true;
+		public int ticks;
+
+		@Override
+		public boolean tick(float deltaSeconds)
+		{
+			ticks++;
+			if ( fail ) {
+				throw error;
+			}
+			return true;
+		}
+	}
+
+	@Test
+	public void testSequentialDispatch()
+	{
+		final TickListenerContainer container = new TickListenerContainer();
+		final AtomicInteger ticks = new AtomicInteger();
+		container.addTickListener( delta -> ticks.incrementAndGet() < 2 );
+		container.invokeTickListeners( 0.1f );
+		container.invokeTickListeners( 0.1f );
+		container.invokeTickListeners( 0.1f );
+		// listener got removed after returning false
+		assertEquals( 2 , ticks.get() );
+		assertEquals( 0 , container.getTickStatistics().size() );
+	}
+
+	@Test
+	public void testFailingInlineListenerWaitsForThreadPool()
+	{
+		final TickListenerContainer container = new TickListenerContainer( 3 );
+		final SlowListener first = new SlowListener();
+		final SlowListener second = new SlowListener();
+		final FailingListener failing = new FailingListener();
+		// the last independent listener gets ticked by the calling thread
+		container.addTickListener( first , true );
+		container.addTickListener( second , true );
+		container.addTickListener( failing , true );
+
+		try {
+			container.invokeTickListeners( 0.1f );
+			fail("Should've failed");
+		} 
+		catch(RuntimeException e) {
+			assertSame( failing.error , e );
+		}
+		assertEquals( 1 , first.finished.get() );
+		assertEquals( 1 , second.finished.get() );
+
+		failing.fail = false;
+		container.invokeTickListeners( 0.1f );
+		assertEquals( 2 , first.finished.get() );
+		assertEquals( 2 , second.finished.get() );
+		assertEquals( 2 , failing.ticks );
+	}
+
+	@Test
+	public void testFailingSequentialListenerWaitsForThreadPool()
+	{
+		final TickListenerContainer container = new TickListenerContainer( 3 );
+		final SlowListener first = new SlowListener();
+		final SlowListener second = new SlowListener();
+		final SlowListener inline = new SlowListener();
+		final FailingListener failing = new FailingListener();
+		container.addTickListener( first , true );
+		container.addTickListener( second , true );
+		container.addTickListener( inline , true );
+		container.addTickListener( failing );
+
+		try {
+			container.invokeTickListeners( 0.1f );
+			fail("Should've failed");
+		} 
+		catch(RuntimeException e) {
+			assertSame( failing.error , e );
+		}
+		assertEquals( 1 , first.finished.get() );
+		assertEquals( 1 , second.finished.get() );
+		assertEquals( 1 , inline.finished.get() );
+	}
+
+	@Test
+	public void testFailingPooledListener()
+	{
+		final TickListenerContainer container = new TickListenerContainer( 3 );
+		final FailingListener failing = new FailingListener();
+		final SlowListener other = new SlowListener();
+		final SlowListener inline = new SlowListener();
+		container.addTickListener( failing , true );
+		container.addTickListener( other , true );
+		container.addTickListener( inline , true );
+
+		try {
+			container.invokeTickListeners( 0.1f );
+			fail("Should've failed");
+		} 
+		catch(RuntimeException e) {
+			assertSame( failing.error , e.getCause() );
+		}
+		assertEquals( 1 , other.finished.get() );
+
+		// the error is only reported once and the listener stays registered
+		failing.fail = false;
+		container.invokeTickListeners( 0.1f );
+		assertEquals( 2 , failing.ticks );
+		assertEquals( 3 , container.getTickStatistics().size() );
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link TranspositionTable}.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class TranspositionTableTest
+{
+	private TranspositionTable table;
+
+	// two different boards mapping to the same slot
+	private long board1;
+	private long board2;
+
+	@Before
+	public void setUp()
+	{
+		// tiny table to easily find colliding boards
+		table = new TranspositionTable( 1 );
+		board1 = 0x1234L;
+		for ( long candidate = board1 + 1 ; ; candidate++ )
+		{
+			table.clear();
+			table.store( board1 , true , 1 , 5 , TranspositionTable.EXACT , 0 );
+			table.store( candidate , true , 2 , 5 , TranspositionTable.EXACT , 0 );
+			if ( table.probe( board1 , true ) == 0 )
+			{
+				board2 = candidate;
+				break;
+			}
+		}
+		table.clear();
+	}
+
+	@Test
+	public void testStoreAndProbe()
+	{
+		assertEquals( 0 , table.probe( board1 , true ) );
+
+		table.store( board1 , true , -12345 , 7 , TranspositionTable.LOWER_BOUND , 3 );
+		final long entry = table.probe( board1 , true );
+		assertNotEquals( 0 , entry );
+		assertEquals( -12345 , TranspositionTable.getValue( entry ) );
+		assertEquals( 7 , TranspositionTable.getDepth( entry ) );
+		assertEquals( TranspositionTable.LOWER_BOUND , TranspositionTable.getBound( entry ) );
+		assertEquals( 3 , TranspositionTable.getBestMove( entry ) );
+
+		// entries are only valid for the side they were stored for
+		assertEquals( 0 , table.probe( board1 , false ) );
+
+		table.store( board1 , true , 1 , -1 , TranspositionTable.UPPER_BOUND , TranspositionTable.NO_MOVE );
+		final long updated = table.probe( board1 , true );
+		assertEquals( -1 , TranspositionTable.getDepth( updated ) );
+		assertEquals( TranspositionTable.UPPER_BOUND , TranspositionTable.getBound( updated ) );
+		assertEquals( TranspositionTable.NO_MOVE , TranspositionTable.getBestMove( updated ) );
+
+		table.clear();
+		assertEquals( 0 , table.probe( board1 , true ) );
+	}
+
+	@Test
+	public void testCollidingBoardIsNotReturned()
+	{
+		table.store( board1 , true , 42 , 3 , TranspositionTable.EXACT , 1 );
+		assertEquals( 0 , table.probe( board2 , true ) );
+	}
+
+	@Test
+	public void testDeeperEntryOfCurrentSearchIsKept()
+	{
+		table.store( board1 , true , 1 , 5 , TranspositionTable.EXACT , 0 );
+		table.store( board2 , true , 2 , 3 , TranspositionTable.EXACT , 0 );
+		assertEquals( 1 , TranspositionTable.getValue( table.probe( board1 , true ) ) );
+		assertEquals( 0 , table.probe( board2 , true ) );
+
+		table.store( board2 , true , 2 , 6 , TranspositionTable.EXACT , 0 );
+		assertEquals( 0 , table.probe( board1 , true ) );
+		assertEquals( 2 , TranspositionTable.getValue( table.probe( board2 , true ) ) );
+	}
+
+	@Test
+	public void testEntriesOfOlderSearchesAreReplaced()
+	{
+		table.store( board1 , true , 1 , 5 , TranspositionTable.EXACT , 0 );
+		table.nextGeneration();
+		table.store( board2 , true , 2 , 1 , TranspositionTable.EXACT , 0 );
+		assertEquals( 0 , table.probe( board1 , true ) );
+		assertEquals( 2 , TranspositionTable.getValue( table.probe( board2 , true ) ) );
+	}
+
+	@Test
+	public void testGenerationWrapsAround()
+	{
+		table.store( board1 , true , 1 , 5 , TranspositionTable.EXACT , 0 );
+		for ( int i = 0 ; i < 1000 ; i++ ) {
+			table.nextGeneration();
+		}
+		assertTrue( table.probe( board1 , true ) != 0 );
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2015 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.j2048;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.codesourcery.j2048.IInputProvider.Action;
+
+/**
+ * Checks that {@link WidePackedBoard} behaves exactly like {@link BoardState} on all supported grid sizes.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class WidePackedBoardTest
+{
+	private static final int ITERATIONS = 2000;
+
+	private static void assertSameTiles(BoardState expected,WidePackedBoard actual)
+	{
+		for ( int y = 0 ; y < expected.getRowCount() ; y++ )
+		{
+			for ( int x = 0 ; x < expected.getColumnCount() ; x++ ) {
+				assertEquals( "Tile "+x+"/"+y , expected.getTile( x , y ) , actual.getTile( x , y ) );
+			}
+		}
+		assertEquals( expected.getScore() , actual.getScore() );
+	}
+
+	private static boolean tilt(WidePackedBoard board,Action action)
+	{
+		switch( action )
+		{
+			case TILT_DOWN:  return board.tiltDown();
+			case TILT_UP:    return board.tiltUp();
+			case TILT_LEFT:  return board.tiltLeft();
+			default:         return board.tiltRight();
+		}
+	}
+
+	@Test
+	public void testTiltsMatchBoardState()
+	{
+		final Random rnd = new Random( 3 );
+		for ( int cols = BoardState.MIN_GRID_SIZE ; cols <= BoardState.MAX_GRID_SIZE ; cols++ )
+		{
+			for ( int rows = BoardState.MIN_GRID_SIZE ; rows <= BoardState.MAX_GRID_SIZE ; rows++ )
+			{
+				final WidePackedBoard packed = new WidePackedBoard( cols , rows );
+				final WidePackedBoard moved = new WidePackedBoard( cols , rows );
+				for ( int i = 0 ; i < ITERATIONS ; i++ )
+				{
+					final BoardState board = PackedBoardTest.randomBoard( rnd , cols , rows , WidePackedBoard.MAX_TILE_VALUE );
+					assertTrue( WidePackedBoard.canPack( board ) );
+					packed.load( board );
+					assertSameTiles( board , packed );
+					assertEquals( cols*rows - board.getTileCount() , packed.countEmpty() );
+					assertEquals( board.isGameOver() , packed.isGameOver() );
+
+					for ( Action action : BoardState.TILT_ACTIONS )
+					{
+						final BoardState expected = board.createCopy();
+						moved.copyFrom( packed );
+						assertEquals( action.toString() , expected.tilt( action ) , tilt( moved , action ) );
+						assertSameTiles( expected , moved );
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testTilesDoNotOverlap()
+	{
+		final WidePackedBoard board = new WidePackedBoard( BoardState.MAX_GRID_SIZE , BoardState.MAX_GRID_SIZE );
+		for ( int i = 0 ; i < WidePackedBoard.MAX_TILES ; i++ )
+		{
+			board.setTile( i , WidePackedBoard.MAX_TILE_VALUE );
+			for ( int j = 0 ; j < WidePackedBoard.MAX_TILES ; j++ ) {
+				assertEquals( "Tile "+j , j <= i ? WidePackedBoard.MAX_TILE_VALUE : 0 , board.getTile( j ) );
+			}
+		}
+		for ( int i = 0 ; i < WidePackedBoard.MAX_TILES ; i += 2 ) {
+			board.setTile( i , 0 );
+		}
+		for ( int i = 0 ; i < WidePackedBoard.MAX_TILES ; i++ ) {
+			assertEquals( "Tile "+i , ( i & 1 ) == 0 ? 0 : WidePackedBoard.MAX_TILE_VALUE , board.getTile( i ) );
+		}
+	}
+
+	@Test
+	public void testLargeTiles()
+	{
+		final BoardState board = new BoardState( 6 , 6 );
+		board.setTileValue( 0 , 0 , 29 );
+		board.setTileValue( 1 , 0 , 29 );
+		assertTrue( WidePackedBoard.canPack( board ) );
+		board.setTileValue( 5 , 5 , WidePackedBoard.MAX_TILE_VALUE );
+		assertFalse( WidePackedBoard.canPack( board ) );
+		board.setTileValue( 5 , 5 , 0 );
+
+		final WidePackedBoard packed = new WidePackedBoard( 6 , 6 );
+		packed.load( board );
+		assertTrue( packed.tiltLeft() );
+		assertEquals( 30 , packed.getTile( 0 , 0 ) );
+		assertEquals( 1 << 30 , packed.getScore() );
+	}
+}